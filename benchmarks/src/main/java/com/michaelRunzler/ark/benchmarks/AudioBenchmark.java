@@ -0,0 +1,103 @@
+package com.michaelRunzler.ark.benchmarks;
+
+import com.michaelRunzler.ark.Permutations;
+import com.michaelRunzler.ark.Permutators.WavConcatenator;
+import org.openjdk.jmh.annotations.*;
+
+import javax.sound.sampled.AudioFileFormat;
+import javax.sound.sampled.AudioFormat;
+import javax.sound.sampled.AudioInputStream;
+import javax.sound.sampled.AudioSystem;
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the cost of merging a single audio permutation in-process with {@link WavConcatenator}, which is what
+ * {@link com.michaelRunzler.ark.Permutators.AudioPermutator} does once per output file for uncompressed inputs.
+ * Clips are synthesized as 16-bit stereo PCM WAV files when the trial starts, so no sample audio is needed. The
+ * sub-process merge path needs the bundled Windows executable and is not covered.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Thread)
+public class AudioBenchmark
+{
+    private static final float SAMPLE_RATE = 44100f;
+
+    @Param({"4", "6"})
+    public int clips;
+
+    @Param({"0.5", "2.0"})
+    public double clipSeconds;
+
+    private File folder;
+    private File output;
+    private String[] paths;
+    private WavConcatenator wav;
+    private int[] p;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException
+    {
+        folder = Files.createTempDirectory("permutation-benchmark").toFile();
+        output = new File(folder, "output.wav");
+        paths = new String[clips];
+        for(int i = 0; i < clips; i++) {
+            File f = new File(folder, "clip-" + i + ".wav");
+            writeClip(f, 220.0 * (i + 1));
+            paths[i] = f.getAbsolutePath();
+        }
+
+        wav = new WavConcatenator(paths);
+        p = Fixtures.distinct(clips);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException
+    {
+        wav.close();
+        Fixtures.delete(folder);
+    }
+
+    @Benchmark
+    public File merge() throws IOException
+    {
+        wav.write(p, output);
+        if(!Permutations.next(p)) p = Fixtures.distinct(clips);
+        return output;
+    }
+
+    @Benchmark
+    public WavConcatenator prepare() throws IOException
+    {
+        // Preparing the clips is a one-off cost per job, but it grows with the number and length of the inputs
+        try(WavConcatenator w = new WavConcatenator(paths)) {
+            return w;
+        }
+    }
+
+    // Writes a sine tone as a 16-bit stereo PCM WAV file
+    private void writeClip(File f, double frequency) throws IOException
+    {
+        int frames = (int)(SAMPLE_RATE * clipSeconds);
+        byte[] data = new byte[frames * 4];
+        for(int i = 0; i < frames; i++) {
+            short s = (short)(Math.sin(2 * Math.PI * frequency * i / SAMPLE_RATE) * 8000);
+            for(int c = 0; c < 2; c++) {
+                data[i * 4 + c * 2] = (byte)s;
+                data[i * 4 + c * 2 + 1] = (byte)(s >> 8);
+            }
+        }
+
+        AudioFormat format = new AudioFormat(SAMPLE_RATE, 16, 2, true, false);
+        try(AudioInputStream in = new AudioInputStream(new ByteArrayInputStream(data), format, frames)) {
+            AudioSystem.write(in, AudioFileFormat.Type.WAVE, f);
+        }
+    }
+}
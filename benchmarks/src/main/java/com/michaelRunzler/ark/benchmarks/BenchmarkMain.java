@@ -0,0 +1,43 @@
+package com.michaelRunzler.ark.benchmarks;
+
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.results.format.ResultFormatType;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.ChainedOptionsBuilder;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Entry point for the benchmark jar. Accepts the same command line as JMH's own launcher, but unless told otherwise
+ * every run attaches the GC profiler (the same as {@code -prof gc}) and writes its results as JSON to
+ * {@code jmh-result.json}, so that allocation rates are always recorded and results from different releases can be
+ * diffed directly. For example:
+ * <pre>
+ *     java -jar benchmarks.jar Successor -p n=13
+ *     java -jar benchmarks.jar Output -rff output-1.4.json
+ *     java -jar benchmarks.jar -prof stack -rf csv
+ * </pre>
+ * Passing any {@code -prof}, {@code -rf} or {@code -rff} option replaces the corresponding default.
+ */
+public class BenchmarkMain
+{
+    public static final String DEFAULT_RESULT_FILE = "jmh-result.json";
+
+    public static void main(String[] args) throws Exception
+    {
+        CommandLineOptions cli = new CommandLineOptions(args);
+        if(cli.shouldHelp()) {
+            cli.showHelp();
+            return;
+        }
+
+        ChainedOptionsBuilder options = new OptionsBuilder().parent(cli);
+        if(cli.getProfilers().isEmpty()) options.addProfiler(GCProfiler.class);
+        if(!cli.getResultFormat().hasValue()) options.resultFormat(ResultFormatType.JSON);
+        if(!cli.getResult().hasValue()) options.result(DEFAULT_RESULT_FILE);
+
+        Runner runner = new Runner(options.build());
+        if(cli.shouldList() || cli.shouldListWithParams()) runner.list();
+        else runner.run();
+    }
+}
@@ -0,0 +1,74 @@
+package com.michaelRunzler.ark.benchmarks;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.stream.Stream;
+
+/**
+ * Input data shared by the benchmarks.
+ */
+final class Fixtures
+{
+    private Fixtures() {}
+
+    /**
+     * Gets a sorted index array in which every entry is distinct.
+     * @param n the length of the array
+     * @return the array {0, 1, ..., n - 1}
+     */
+    static int[] distinct(int n)
+    {
+        int[] p = new int[n];
+        for(int i = 0; i < n; i++) p[i] = i;
+        return p;
+    }
+
+    /**
+     * Gets a sorted index array in which every entry appears twice (plus one single entry if n is odd), which is the
+     * repeated-input case that lexicographical order collapses.
+     * @param n the length of the array
+     * @return the array {0, 0, 1, 1, ...}
+     */
+    static int[] pairs(int n)
+    {
+        int[] p = new int[n];
+        for(int i = 0; i < n; i++) p[i] = i / 2;
+        return p;
+    }
+
+    /**
+     * Gets a dictionary of distinct, ascending strings of a fixed length.
+     * @param n the number of entries
+     * @param length the length of each entry
+     * @return the dictionary
+     */
+    static String[] dictionary(int n, int length)
+    {
+        String[] dict = new String[n];
+        for(int i = 0; i < n; i++) {
+            char[] c = new char[length];
+            Arrays.fill(c, (char)('a' + i % 26));
+            if(length > 1) c[length - 1] = (char)('a' + i / 26);
+            dict[i] = new String(c);
+        }
+
+        Arrays.sort(dict);
+        return dict;
+    }
+
+    /**
+     * Deletes a folder created for a benchmark, along with everything in it.
+     * @param folder the folder to delete
+     */
+    static void delete(File folder) throws IOException
+    {
+        if(folder == null || !folder.exists()) return;
+        try(Stream<Path> paths = Files.walk(folder.toPath())) {
+            paths.sorted(Comparator.reverseOrder()).map(Path::toFile).forEach(File::delete);
+        }
+    }
+}
@@ -0,0 +1,106 @@
+package com.michaelRunzler.ark.benchmarks;
+
+import com.michaelRunzler.ark.BlockCompression;
+import com.michaelRunzler.ark.OutputFormat;
+import com.michaelRunzler.ark.PermutationSink;
+import com.michaelRunzler.ark.Permutations;
+import com.michaelRunzler.ark.Permutator;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the per-permutation cost of the output loop that every text permutator runs: step to the successor, then
+ * encode the permutation into a {@link PermutationSink}. Each invocation writes a fixed batch of permutations starting
+ * from the middle of the sequence, so that results for large n aren't skewed by the easy first few steps, and the
+ * score is in permutations per second.
+ * The {@code NULL} sink skips encoding entirely, so the difference between it and the others is the cost of the
+ * output path alone.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Thread)
+public class OutputBenchmark
+{
+    private static final int BATCH = 1 << 16;
+
+    /**
+     * The output paths that can be measured.
+     */
+    public enum Sink { NULL, TEXT, DELTA, TEXT_GZIP, DELTA_GZIP }
+
+    @Param({"8", "10", "13"})
+    public int n;
+
+    /**
+     * The length of each dictionary entry. Single-character entries are written without a separator, the same as the
+     * Character permutator; longer ones are separated by spaces, the same as the String permutator.
+     */
+    @Param({"1", "8", "32"})
+    public int elementLength;
+
+    @Param({"NULL", "TEXT", "DELTA", "TEXT_GZIP"})
+    public Sink sink;
+
+    private String[] dictionary;
+    private String separator;
+    private int[] sorted;
+    private int[] p;
+    private File output;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException
+    {
+        dictionary = Fixtures.dictionary(n, elementLength);
+        separator = elementLength == 1 ? "" : " ";
+        sorted = Fixtures.distinct(n);
+        p = Permutator.unrank(Permutator.countPermutations(sorted).shiftRight(1), sorted);
+        output = File.createTempFile("permutation-benchmark", ".out");
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        output.delete();
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(BATCH)
+    public void write(Blackhole bh) throws IOException
+    {
+        if(sink == Sink.NULL)
+        {
+            for(int i = 0; i < BATCH; i++) {
+                bh.consume(p);
+                step();
+            }
+            return;
+        }
+
+        // Reopening the sink truncates the file, so each invocation writes the same amount to disk
+        try(PermutationSink out = open())
+        {
+            for(int i = 0; i < BATCH; i++) {
+                out.write(p);
+                step();
+            }
+        }
+    }
+
+    // Moves on to the next permutation, wrapping around at the end of the sequence
+    private void step() {
+        if(!Permutations.next(p)) System.arraycopy(sorted, 0, p, 0, p.length);
+    }
+
+    private PermutationSink open() throws IOException
+    {
+        OutputFormat format = sink == Sink.DELTA || sink == Sink.DELTA_GZIP ? OutputFormat.DELTA : OutputFormat.TEXT;
+        BlockCompression compression = sink == Sink.TEXT_GZIP || sink == Sink.DELTA_GZIP ? new BlockCompression() : null;
+        return PermutationSink.open(format, output, dictionary, separator, 0, true, compression);
+    }
+}
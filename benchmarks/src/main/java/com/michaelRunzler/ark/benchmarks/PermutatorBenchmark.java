@@ -0,0 +1,80 @@
+package com.michaelRunzler.ark.benchmarks;
+
+import com.michaelRunzler.ark.BlockCompression;
+import com.michaelRunzler.ark.OutputFormat;
+import com.michaelRunzler.ark.Permutator;
+import com.michaelRunzler.ark.Permutators.CharPermutator;
+import com.michaelRunzler.ark.Permutators.StringPermutator;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures complete {@link Permutator#permuteAll(String[], File)} runs of the text permutators, from ranking the
+ * inputs through to closing the output file, so that changes to setup, checkpointing or file handling show up as well
+ * as changes to the inner loop. Output is written to a temporary folder that is removed after each trial.
+ * Runs are single-threaded unless {@code -p parallelism=...} is passed.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2)
+@Measurement(iterations = 3)
+@Fork(1)
+@State(Scope.Thread)
+public class PermutatorBenchmark
+{
+    @Param({"String", "Character"})
+    public String permutator;
+
+    @Param({"8", "9", "10"})
+    public int n;
+
+    /**
+     * The length of each input for the String permutator. The Character permutator always permutes a single string of
+     * n distinct characters.
+     */
+    @Param({"8"})
+    public int elementLength;
+
+    @Param({"TEXT", "DELTA"})
+    public OutputFormat format;
+
+    @Param({"false"})
+    public boolean gzip;
+
+    @Param({"1"})
+    public int parallelism;
+
+    private Permutator perm;
+    private String[] inputs;
+    private File folder;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException
+    {
+        perm = permutator.equals("Character") ? new CharPermutator() : new StringPermutator();
+        perm.format = format;
+        perm.compression = gzip ? new BlockCompression() : null;
+        perm.parallelism = parallelism;
+
+        String[] dict = Fixtures.dictionary(n, elementLength);
+        inputs = perm instanceof CharPermutator ? new String[]{String.join("", Fixtures.dictionary(n, 1))} : dict;
+        folder = Files.createTempDirectory("permutation-benchmark").toFile();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        Fixtures.delete(folder);
+    }
+
+    @Benchmark
+    public File permuteAll() throws IOException
+    {
+        // Each run overwrites the previous run's output file
+        perm.permuteAll(inputs.clone(), folder);
+        return folder;
+    }
+}
@@ -0,0 +1,61 @@
+package com.michaelRunzler.ark.benchmarks;
+
+import com.michaelRunzler.ark.PermutationOrder;
+import com.michaelRunzler.ark.PermutationSequence;
+import com.michaelRunzler.ark.Permutator;
+import org.openjdk.jmh.annotations.*;
+
+import java.math.BigInteger;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the cost of a single successor step in each {@link PermutationOrder}, and of locating a permutation by rank
+ * with {@link Permutator#unrank(BigInteger, int[])}, which is what every ranged, resumed or parallel job pays once per
+ * segment. Nothing is written anywhere, so this is the floor that every output path builds on.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class SuccessorBenchmark
+{
+    @Param({"8", "10", "13"})
+    public int n;
+
+    @Param({"LEXICOGRAPHIC", "HEAP", "SJT"})
+    public PermutationOrder order;
+
+    /**
+     * Whether every input is distinct, or every input appears twice. Only lexicographical order treats repeated inputs
+     * differently.
+     */
+    @Param({"true", "false"})
+    public boolean distinct;
+
+    private int[] sorted;
+    private BigInteger middle;
+    private PermutationSequence seq;
+
+    @Setup(Level.Trial)
+    public void setUp()
+    {
+        sorted = distinct ? Fixtures.distinct(n) : Fixtures.pairs(n);
+        middle = Permutator.countPermutations(sorted).shiftRight(1);
+        seq = PermutationSequence.create(order, sorted.clone());
+    }
+
+    @Benchmark
+    public int[] next()
+    {
+        // Start over once the sequence runs out, which only happens every n!/2^k steps
+        if(!seq.next()) seq = PermutationSequence.create(order, sorted.clone());
+        return seq.current();
+    }
+
+    @Benchmark
+    public int[] unrank() {
+        return Permutator.unrank(middle, sorted);
+    }
+}
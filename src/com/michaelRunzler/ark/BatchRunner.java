@@ -0,0 +1,483 @@
+package com.michaelRunzler.ark;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Runs permutation jobs without any interaction, for use from scripts, cron and job schedulers. A single job can be
+ * described on the command line, and any number of jobs can be listed in a job file, one per line, using the same
+ * options. Jobs run side by side up to a fixed limit, a summary line is printed for each once they are all done, and
+ * the exit code reports whether any of them failed.
+ * A job can also be spread across several processes or machines, with one process coordinating and any number of
+ * workers connecting to it; see {@link ShardCoordinator}.
+ * <pre>
+ *     java -jar Permutation.jar [--parallel N] --jobs FILE
+ *     java -jar Permutation.jar [--parallel N] --type TYPE --inputs FILE --output DIR [job options]
+ *     java -jar Permutation.jar --coordinate PORT [--shard-size N] --type TYPE --inputs FILE [job options]
+ *     java -jar Permutation.jar --worker HOST:PORT --output DIR [--threads N]
+ * </pre>
+ */
+public class BatchRunner
+{
+    /**
+     * Every job completed successfully.
+     */
+    public static final int EXIT_OK = 0;
+
+    /**
+     * At least one job failed or was cancelled; the rest still ran.
+     */
+    public static final int EXIT_FAILED = 1;
+
+    /**
+     * The arguments or job file couldn't be parsed, so nothing was run.
+     */
+    public static final int EXIT_USAGE = 2;
+
+    // How long a shutdown waits for running jobs to checkpoint and stop, in seconds
+    private static final long SHUTDOWN_GRACE = 30;
+
+    // The number of ranks in each shard of a coordinated job, unless set with --shard-size
+    private static final long DEFAULT_SHARD_SIZE = 10_000_000;
+
+    private static final String USAGE =
+            "Usage: java -jar Permutation.jar [--parallel N] --jobs FILE\n" +
+            "       java -jar Permutation.jar [--parallel N] --type TYPE --inputs FILE --output DIR [job options]\n" +
+            "       java -jar Permutation.jar --coordinate PORT [--shard-size N] --type TYPE --inputs FILE [job options]\n" +
+            "       java -jar Permutation.jar --worker HOST:PORT --output DIR [--threads N]\n\n" +
+            "  --parallel N      run up to N jobs at once (default 1)\n" +
+            "  --jobs FILE       run every job listed in FILE, one per line, using the job options below.\n" +
+            "                    Blank lines and lines starting with # are ignored.\n" +
+            "  --coordinate PORT hand out the job's ranks to workers connecting on PORT, instead of running it here;\n" +
+            "                    port 0 picks a free port. Coordinated jobs can't take --range.\n" +
+            "  --shard-size N    the number of ranks handed to a worker at a time (default 10000000)\n" +
+            "  --worker H:P      write shards handed out by the coordinator at H:P to the output folder\n\n" +
+            "Job options:\n" +
+            "  --type TYPE       the permutator to use: %s\n" +
+            "  --inputs FILE     a UTF-8 file with one input per line\n" +
+            "  --output DIR      the folder to write output to; created if missing\n" +
+            "  --format FORMAT   text (default) or delta\n" +
+            "  --gzip            compress text output\n" +
+            "  --threads N       generate with N threads (default 1)\n" +
+            "  --range START-END only write ranks START (inclusive) to END (exclusive); END may be left out\n" +
+            "  --resume          continue from a checkpoint left by an interrupted run\n" +
+            "  --sample N        write N permutations drawn uniformly at random instead of all of them\n" +
+            "  --seed S          the seed to draw the sample with, to draw the same sample again (default random)\n" +
+            "  --distinct        never write the same permutation twice in a sample\n\n" +
+            "Exits with 0 if every job succeeded, 1 if any failed, and 2 if the arguments were invalid.";
+
+    private BatchRunner() {}
+
+    /**
+     * Parses the arguments, runs every job they describe, and prints a summary of each.
+     * @param args the command-line arguments
+     * @return the exit code: {@link #EXIT_OK}, {@link #EXIT_FAILED} or {@link #EXIT_USAGE}
+     */
+    public static int run(String[] args)
+    {
+        PermutatorRegister.populateRegistry();
+
+        int parallel = 1;
+        int coordinate = -1;
+        long shardSize = DEFAULT_SHARD_SIZE;
+        String worker = null;
+        List<Job> jobs = new ArrayList<>();
+        List<String> inline = new ArrayList<>();
+        try {
+            for(int i = 0; i < args.length; i++)
+            {
+                switch(args[i]) {
+                    case "--help":
+                    case "-h":
+                        System.out.println(usage());
+                        return EXIT_OK;
+                    case "--parallel":
+                        parallel = positive(args[i], value(args, ++i));
+                        break;
+                    case "--jobs":
+                        jobs.addAll(readJobFile(new File(value(args, ++i))));
+                        break;
+                    case "--coordinate":
+                        coordinate = port(args[i], value(args, ++i));
+                        break;
+                    case "--shard-size":
+                        shardSize = positive(args[i], value(args, ++i));
+                        break;
+                    case "--worker":
+                        worker = value(args, ++i);
+                        break;
+                    default:
+                        inline.add(args[i]);
+                }
+            }
+
+            if(worker != null) return work(worker, inline.toArray(new String[0]));
+            if(!inline.isEmpty()) jobs.add(Job.parse("command line", inline.toArray(new String[0]), coordinate < 0));
+            if(jobs.isEmpty()) throw new IllegalArgumentException("No jobs given.");
+            if(coordinate >= 0 && jobs.size() > 1) throw new IllegalArgumentException("Only one job can be coordinated at a time.");
+            if(coordinate >= 0 && (jobs.get(0).start != 0 || jobs.get(0).end != Long.MAX_VALUE))
+                throw new IllegalArgumentException("Coordinated jobs always cover every rank, so they can't take --range.");
+        } catch (IllegalArgumentException e) {
+            System.err.println(e.getMessage());
+            System.err.println();
+            System.err.println(usage());
+            return EXIT_USAGE;
+        }
+
+        if(coordinate >= 0) return coordinate(jobs.get(0), coordinate, shardSize);
+        return runAll(jobs, parallel);
+    }
+
+    // Hands out a job's ranks to workers until they have all been written, then prints what each worker did
+    private static int coordinate(Job job, int port, long shardSize)
+    {
+        long begin = System.nanoTime();
+        Map<String, ShardCoordinator.WorkerStats> workers;
+        try(ShardCoordinator coordinator = new ShardCoordinator(job.permutator, job.readInputs(), port, shardSize)) {
+            System.out.println("Coordinating " + job + " on port " + coordinator.port() + ".");
+            workers = coordinator.run();
+        } catch (IOException | RuntimeException e) {
+            System.out.println("Coordinated job failed: " + e.getMessage());
+            return EXIT_FAILED;
+        }
+
+        double seconds = (System.nanoTime() - begin) / 1e9;
+        long total = 0;
+        System.out.printf("%-30s %6s %20s %16s%n", "Worker", "Shards", "Permutations", "Bytes");
+        for(Map.Entry<String, ShardCoordinator.WorkerStats> e : workers.entrySet())
+        {
+            ShardCoordinator.WorkerStats w = e.getValue();
+            total += w.permutations;
+            System.out.printf("%-30s %6d %,20d %,16d%n", e.getKey(), w.shards, w.permutations, w.bytes);
+        }
+        System.out.printf("%,d permutations in %.2fs (%,.0f/s)%n", total, seconds, total / seconds);
+        return EXIT_OK;
+    }
+
+    // Connects to a coordinator and writes the shards it hands out until the job is done
+    private static int work(String address, String[] args)
+    {
+        File output = null;
+        int threads = 1;
+        for(int i = 0; i < args.length; i++)
+        {
+            if(args[i].equals("--output")) output = new File(value(args, ++i));
+            else if(args[i].equals("--threads")) threads = positive(args[i], value(args, ++i));
+            else throw new IllegalArgumentException("Workers only take --output and --threads, not " + args[i] + ".");
+        }
+
+        int colon = address.lastIndexOf(':');
+        if(output == null || colon < 0) throw new IllegalArgumentException("Workers need --worker HOST:PORT and --output.");
+        int port = positive("--worker", address.substring(colon + 1));
+
+        try {
+            int shards = new ShardWorker(address.substring(0, colon), port, output, threads).run();
+            System.out.println("Wrote " + shards + " shards to " + output.getAbsolutePath() + ".");
+            return EXIT_OK;
+        } catch (IOException e) {
+            System.out.println("Worker failed: " + e.getMessage());
+            return EXIT_FAILED;
+        }
+    }
+
+    // Runs every job on a bounded pool and prints a summary line for each, in the order they were listed
+    private static int runAll(List<Job> jobs, int parallel)
+    {
+        ExecutorService pool = Executors.newFixedThreadPool(Math.min(parallel, jobs.size()));
+
+        // Stopping the JVM (Ctrl+C, SIGTERM from a scheduler) cancels every job, so that resumable output is left
+        // with a checkpoint instead of a torn last line
+        Thread hook = new Thread(() -> {
+            for(Job job : jobs) job.permutator.cancel();
+            pool.shutdown();
+            try {
+                pool.awaitTermination(SHUTDOWN_GRACE, TimeUnit.SECONDS);
+            } catch (InterruptedException ignored) {}
+        }, "permutator-shutdown");
+        Runtime.getRuntime().addShutdownHook(hook);
+
+        List<Future<Result>> futures = new ArrayList<>();
+        for(Job job : jobs) futures.add(pool.submit(job::run));
+        pool.shutdown();
+
+        List<Result> results = new ArrayList<>();
+        for(Future<Result> f : futures)
+        {
+            try {
+                results.add(f.get());
+            } catch (InterruptedException | ExecutionException e) {
+                results.add(new Result(false, String.valueOf(e.getCause() == null ? e : e.getCause()), 0, 0, 0));
+            }
+        }
+
+        try {
+            Runtime.getRuntime().removeShutdownHook(hook);
+        } catch (IllegalStateException ignored) {
+            // Already shutting down
+        }
+
+        // Print the summary
+        boolean failed = false;
+        System.out.printf("%-4s %-6s %20s %12s %10s  %s%n", "Job", "Status", "Permutations", "Bytes", "Seconds", "Description");
+        for(int i = 0; i < jobs.size(); i++)
+        {
+            Result r = results.get(i);
+            failed |= !r.ok;
+            System.out.printf("%-4d %-6s %,20d %,12d %10.2f  %s%n", i + 1, r.ok ? "OK" : "FAILED", r.permutations,
+                    r.bytes, r.nanos / 1e9, jobs.get(i) + (r.ok ? "" : ": " + r.message));
+        }
+
+        return failed ? EXIT_FAILED : EXIT_OK;
+    }
+
+    // Reads a job file, failing on the first line that can't be parsed so that nothing runs with a typo in it
+    private static List<Job> readJobFile(File file)
+    {
+        List<String> lines;
+        try {
+            lines = Files.readAllLines(file.toPath(), StandardCharsets.UTF_8);
+        } catch (IOException e) {
+            throw new IllegalArgumentException("Could not read job file " + file.getPath() + ".");
+        }
+
+        List<Job> jobs = new ArrayList<>();
+        for(int i = 0; i < lines.size(); i++)
+        {
+            String line = lines.get(i).trim();
+            if(line.isEmpty() || line.startsWith("#")) continue;
+            try {
+                jobs.add(Job.parse(file.getName() + ":" + (i + 1), tokenize(line).toArray(new String[0]), true));
+            } catch (IllegalArgumentException e) {
+                throw new IllegalArgumentException(file.getName() + " line " + (i + 1) + ": " + e.getMessage());
+            }
+        }
+
+        return jobs;
+    }
+
+    // Splits a job file line on whitespace, keeping anything in double quotes together so that paths can have spaces
+    private static List<String> tokenize(String line)
+    {
+        List<String> tokens = new ArrayList<>();
+        StringBuilder sb = new StringBuilder();
+        boolean quoted = false;
+        boolean any = false;
+        for(char c : line.toCharArray())
+        {
+            if(c == '"') {
+                quoted = !quoted;
+                any = true;
+            } else if(Character.isWhitespace(c) && !quoted) {
+                if(any) tokens.add(sb.toString());
+                sb.setLength(0);
+                any = false;
+            } else {
+                sb.append(c);
+                any = true;
+            }
+        }
+
+        if(quoted) throw new IllegalArgumentException("Unterminated quote.");
+        if(any) tokens.add(sb.toString());
+        return tokens;
+    }
+
+    private static String value(String[] args, int i)
+    {
+        if(i >= args.length) throw new IllegalArgumentException(args[i - 1] + " needs a value.");
+        return args[i];
+    }
+
+    private static int positive(String option, String value)
+    {
+        try {
+            int n = Integer.parseInt(value);
+            if(n > 0) return n;
+        } catch (NumberFormatException ignored) {}
+        throw new IllegalArgumentException(option + " needs a positive number, not " + value + ".");
+    }
+
+    // Port 0 lets the system pick a free port, which is printed once the coordinator is listening
+    private static int port(String option, String value)
+    {
+        try {
+            int n = Integer.parseInt(value);
+            if(n >= 0 && n <= 65535) return n;
+        } catch (NumberFormatException ignored) {}
+        throw new IllegalArgumentException(option + " needs a port number from 0 to 65535, not " + value + ".");
+    }
+
+    private static long number(String option, String value)
+    {
+        try {
+            return Long.parseLong(value);
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException(option + " needs a number, not " + value + ".");
+        }
+    }
+
+    private static String usage() {
+        return String.format(USAGE, String.join(", ", PermutatorRegister.registry.keySet()));
+    }
+
+    // A single job, with its own Permutator so that jobs don't share settings, counters or cancellation
+    private static class Job
+    {
+        final String source;
+        final String type;
+        final Permutator permutator;
+        final File inputs;
+        final File output;
+        final long start;
+        final long end;
+
+        private Job(String source, String type, Permutator permutator, File inputs, File output, long start, long end)
+        {
+            this.source = source;
+            this.type = type;
+            this.permutator = permutator;
+            this.inputs = inputs;
+            this.output = output;
+            this.start = start;
+            this.end = end;
+        }
+
+        static Job parse(String source, String[] args, boolean needsOutput)
+        {
+            String type = null;
+            File inputs = null;
+            File output = null;
+            OutputFormat format = OutputFormat.TEXT;
+            boolean gzip = false;
+            boolean resume = false;
+            int threads = 1;
+            long start = 0;
+            long end = Long.MAX_VALUE;
+            long sample = 0;
+            Long seed = null;
+            boolean distinct = false;
+
+            for(int i = 0; i < args.length; i++)
+            {
+                String arg = args[i];
+                switch(arg) {
+                    case "--type": type = value(args, ++i); break;
+                    case "--inputs": inputs = new File(value(args, ++i)); break;
+                    case "--output": output = new File(value(args, ++i)); break;
+                    case "--gzip": gzip = true; break;
+                    case "--resume": resume = true; break;
+                    case "--threads": threads = positive(arg, value(args, ++i)); break;
+                    case "--seed": seed = number(arg, value(args, ++i)); break;
+                    case "--distinct": distinct = true; break;
+                    case "--sample":
+                        sample = number(arg, value(args, ++i));
+                        if(sample <= 0) throw new IllegalArgumentException(arg + " needs a positive number, not " + sample + ".");
+                        break;
+                    case "--format":
+                        String f = value(args, ++i);
+                        if(f.equalsIgnoreCase("text")) format = OutputFormat.TEXT;
+                        else if(f.equalsIgnoreCase("delta")) format = OutputFormat.DELTA;
+                        else throw new IllegalArgumentException("Unknown format " + f + "; expected text or delta.");
+                        break;
+                    case "--range":
+                        String r = value(args, ++i);
+                        int dash = r.indexOf('-');
+                        try {
+                            start = Long.parseLong(dash < 0 ? r : r.substring(0, dash));
+                            end = dash < 0 || dash == r.length() - 1 ? Long.MAX_VALUE : Long.parseLong(r.substring(dash + 1));
+                        } catch (NumberFormatException e) {
+                            throw new IllegalArgumentException("Invalid range " + r + "; expected START-END.");
+                        }
+                        if(start < 0 || end <= start) throw new IllegalArgumentException("Invalid range " + r + ".");
+                        break;
+                    default:
+                        throw new IllegalArgumentException("Unknown option " + arg + ".");
+                }
+            }
+
+            if(type == null || inputs == null || (needsOutput && output == null))
+                throw new IllegalArgumentException("Every job needs --type" + (needsOutput ? ", --inputs and --output." : " and --inputs."));
+
+            Permutator perm = PermutatorRegister.create(type);
+            perm.format = format;
+            perm.compression = gzip ? new BlockCompression() : null;
+            perm.parallelism = threads;
+            perm.resume = resume;
+            perm.sampleSize = sample;
+            perm.sampleDistinct = distinct;
+            if(seed != null) perm.sampleSeed = seed;
+            if(resume && !perm.resumable())
+                throw new IllegalArgumentException(perm.description + " jobs with these options keep no checkpoints, so they can't take --resume.");
+            return new Job(source, perm.description, perm, inputs, output, start, end);
+        }
+
+        Result run()
+        {
+            long begin = System.nanoTime();
+            try {
+                String[] in = readInputs();
+
+                if(!output.isDirectory() && !output.mkdirs())
+                    throw new IOException("Could not create output folder " + output.getAbsolutePath());
+
+                // Refuse jobs that can't fit before they fill the disk
+                JobEstimate estimate = permutator.estimate(in, output, 0, start, end);
+                if(!estimate.fits()) throw new IOException("Output will not fit: " + estimate);
+
+                if(start == 0 && end == Long.MAX_VALUE) permutator.permuteAll(in, output);
+                else permutator.permuteAll(in, output, start, end);
+                return new Result(true, null, permutator.metrics.getPermutationsEmitted(),
+                        permutator.metrics.getBytesWritten(), System.nanoTime() - begin);
+            } catch (IOException | RuntimeException e) {
+                return new Result(false, e.getMessage() == null ? e.toString() : e.getMessage(),
+                        permutator.metrics.getPermutationsEmitted(), permutator.metrics.getBytesWritten(),
+                        System.nanoTime() - begin);
+            }
+        }
+
+        // Reads the inputs file, one input per line
+        String[] readInputs() throws IOException
+        {
+            if(!inputs.canRead()) throw new IOException("Could not read inputs file " + inputs.getPath() + ".");
+            List<String> lines = Files.readAllLines(inputs.toPath(), StandardCharsets.UTF_8);
+            lines.removeIf(String::isEmpty);
+            return lines.toArray(new String[0]);
+        }
+
+        @Override
+        public String toString()
+        {
+            String range = start == 0 && end == Long.MAX_VALUE ? "" : " [" + start + "-" + (end == Long.MAX_VALUE ? "" : end) + "]";
+            String sample = permutator.sampleSize > 0 ? " [sample " + permutator.sampleSize + ", seed " + permutator.sampleSeed + "]" : "";
+            return source + ": " + type + " " + inputs + (output == null ? "" : " -> " + output) + range + sample;
+        }
+    }
+
+    private static class Result
+    {
+        final boolean ok;
+        final String message;
+        final long permutations;
+        final long bytes;
+        final long nanos;
+
+        Result(boolean ok, String message, long permutations, long bytes, long nanos)
+        {
+            this.ok = ok;
+            this.message = message;
+            this.permutations = permutations;
+            this.bytes = bytes;
+            this.nanos = nanos;
+        }
+    }
+}
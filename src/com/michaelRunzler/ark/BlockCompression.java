@@ -0,0 +1,49 @@
+package com.michaelRunzler.ark;
+
+import java.util.zip.Deflater;
+
+/**
+ * Settings for compressing permutation output as gzip in independent blocks. Each block is compressed on a shared
+ * worker thread and written as a complete gzip member, and the members are written out in order, so the output is a
+ * standard multi-member gzip file that any gzip tool can decompress. Since members can be appended to each other
+ * freely, compressed output still works with checkpoints and parallel segments.
+ */
+public class BlockCompression
+{
+    /**
+     * The file extension appended to compressed output files.
+     */
+    public static final String EXTENSION = ".gz";
+
+    /**
+     * The deflate compression level, from 1 (fastest) to 9 (smallest), or {@link Deflater#DEFAULT_COMPRESSION}.
+     * Permutation output is highly repetitive, so the fastest levels already compress it very well.
+     */
+    public int level = Deflater.BEST_SPEED;
+
+    /**
+     * The amount of uncompressed output, in bytes, in each independently compressed block. Larger blocks compress
+     * slightly better, but take more memory; up to two blocks per thread are held in memory at once.
+     */
+    public int blockSize = 1 << 20;
+
+    /**
+     * The number of blocks from each output file that may be compressed at once. Every output file draws on the same
+     * pool of compression threads, one per available processor, so this only limits how far a single file can get
+     * ahead of its writer. Defaults to the number of available processors.
+     */
+    public int threads = Runtime.getRuntime().availableProcessors();
+
+    /**
+     * Default constructor.
+     */
+    public BlockCompression() {}
+
+    /**
+     * Creates a new set of compression settings with the provided level, and default block size and thread count.
+     * @param level the deflate compression level
+     */
+    public BlockCompression(int level) {
+        this.level = level;
+    }
+}
@@ -0,0 +1,90 @@
+package com.michaelRunzler.ark;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Base class for sinks that assemble their output in a reusable direct buffer and drain it through a
+ * {@link FileChannel} whenever it fills up. If compression settings are provided, the buffer is drained through a
+ * {@link ParallelGzipChannel} instead.
+ */
+public abstract class BufferedChannelSink implements PermutationSink
+{
+    private static final int DEFAULT_BUFFER_SIZE = 1 << 16;
+
+    protected final ByteBuffer buffer;
+    private final FileChannel channel;
+    private final ParallelGzipChannel gzip;
+
+    /**
+     * Opens the output file, truncating it to the provided offset and positioning the sink there.
+     * @param output the file to write to
+     * @param offset the byte offset to truncate the file to and continue writing from; zero for a new file
+     * @param minCapacity the smallest buffer that subclasses need in order to write their largest single item
+     * @param compression the settings to compress output with, or {@code null} to write it uncompressed
+     */
+    protected BufferedChannelSink(File output, long offset, int minCapacity, BlockCompression compression) throws IOException
+    {
+        this.channel = FileChannel.open(output.toPath(), StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+        channel.truncate(offset);
+        channel.position(offset);
+        this.buffer = ByteBuffer.allocateDirect(Math.max(DEFAULT_BUFFER_SIZE, minCapacity));
+        this.gzip = compression == null ? null : new ParallelGzipChannel(channel, compression);
+    }
+
+    /**
+     * Gets roughly how much memory an open sink holds in buffers, for callers that need to limit how many are open
+     * at once.
+     * @param compression the settings output is compressed with, or {@code null} if it is uncompressed
+     * @return the number of bytes
+     */
+    public static long bufferedBytes(BlockCompression compression) {
+        return DEFAULT_BUFFER_SIZE + (compression == null ? 0 : ParallelGzipChannel.bufferedBytes(compression));
+    }
+
+    /**
+     * {@inheritDoc}
+     * For compressed output, this is the length of the compressed data written so far, which is only exact directly
+     * after a call to {@link #flush()}.
+     */
+    @Override
+    public long position() throws IOException {
+        return gzip == null ? channel.position() + buffer.position() : channel.position();
+    }
+
+    @Override
+    public void flush() throws IOException
+    {
+        drain();
+        if(gzip != null) gzip.flush();
+        channel.force(false);
+    }
+
+    /**
+     * Writes any buffered output and closes the underlying file.
+     */
+    @Override
+    public void close() throws IOException
+    {
+        try {
+            drain();
+            if(gzip != null) gzip.close();
+        } finally {
+            channel.close();
+        }
+    }
+
+    /**
+     * Writes the full contents of the buffer to the file and resets it for reuse.
+     */
+    protected void drain() throws IOException
+    {
+        buffer.flip();
+        if(gzip != null) gzip.write(buffer);
+        else while(buffer.hasRemaining()) channel.write(buffer);
+        buffer.clear();
+    }
+}
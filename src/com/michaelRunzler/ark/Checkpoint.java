@@ -0,0 +1,123 @@
+package com.michaelRunzler.ark;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Properties;
+
+/**
+ * A record of how far a long-running permutation job has progressed, stored next to its output file. A checkpoint
+ * holds the rank of the next permutation to be written, the byte offset in the output file at which it will be
+ * written, and a hash of the job's inputs so that a checkpoint is never resumed against a different job.
+ */
+public class Checkpoint
+{
+    private static final String EXTENSION = ".checkpoint";
+
+    public final long rank;
+    public final long offset;
+    public final String inputHash;
+
+    /**
+     * Default constructor.
+     * @param rank the rank of the next permutation to be written
+     * @param offset the length of the output file, in bytes, once every permutation before {@code rank} is written
+     * @param inputHash the hash of the job's inputs, as produced by {@link #hash(String[], int[], String, long, long, String)}
+     */
+    public Checkpoint(long rank, long offset, String inputHash)
+    {
+        this.rank = rank;
+        this.offset = offset;
+        this.inputHash = inputHash;
+    }
+
+    /**
+     * Gets the checkpoint file that belongs to an output file.
+     * @param output the output file of a permutation job
+     * @return the checkpoint file next to it
+     */
+    public static File fileFor(File output) {
+        return new File(output.getParentFile(), output.getName() + EXTENSION);
+    }
+
+    /**
+     * Reads a checkpoint from disk.
+     * @param file the checkpoint file to read
+     * @return the checkpoint, or {@code null} if the file does not exist
+     */
+    public static Checkpoint read(File file) throws IOException
+    {
+        if(!file.exists()) return null;
+
+        Properties props = new Properties();
+        try(InputStream in = new FileInputStream(file)) {
+            props.load(in);
+        }
+
+        try {
+            return new Checkpoint(Long.parseLong(props.getProperty("rank")), Long.parseLong(props.getProperty("offset")),
+                    props.getProperty("inputs"));
+        } catch (NumberFormatException | NullPointerException e) {
+            throw new IOException("Checkpoint file " + file.getAbsolutePath() + " is corrupt.", e);
+        }
+    }
+
+    /**
+     * Writes this checkpoint to disk. The checkpoint is written to a temporary file and then moved over the old one, so
+     * that a crash part-way through writing never leaves a corrupt checkpoint behind.
+     * @param file the checkpoint file to write
+     */
+    public void write(File file) throws IOException
+    {
+        Properties props = new Properties();
+        props.setProperty("rank", Long.toString(rank));
+        props.setProperty("offset", Long.toString(offset));
+        props.setProperty("inputs", inputHash);
+
+        File temp = new File(file.getParentFile(), file.getName() + ".tmp");
+        try(OutputStream out = new FileOutputStream(temp)) {
+            props.store(out, "Permutator checkpoint");
+        }
+
+        Files.move(temp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * Hashes everything that determines the output of a permutation job.
+     * @param dictionary the dictionary of distinct inputs
+     * @param sorted the sorted index array being permuted
+     * @param separator the separator written between entries
+     * @param start the rank of the first permutation in the job's range
+     * @param length the number of permutations in the job's range
+     * @param variant any other settings that change which sequence is written, such as the selection mode
+     * @return a hex-encoded SHA-256 hash of the job's inputs
+     */
+    public static String hash(String[] dictionary, int[] sorted, String separator, long start, long length, String variant)
+    {
+        MessageDigest md;
+        try {
+            md = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 is not available on this platform.", e);
+        }
+
+        // Length-prefix every field so that different inputs can never produce the same byte stream
+        StringBuilder sb = new StringBuilder();
+        for(String s : dictionary) sb.append(s.length()).append(':').append(s);
+        for(int i : sorted) sb.append(i).append(',');
+        sb.append(separator.length()).append(':').append(separator).append(start).append('+').append(length);
+        if(!variant.isEmpty()) sb.append('/').append(variant);
+
+        StringBuilder hex = new StringBuilder();
+        for(byte b : md.digest(sb.toString().getBytes(StandardCharsets.UTF_8))) hex.append(String.format("%02x", b));
+        return hex.toString();
+    }
+}
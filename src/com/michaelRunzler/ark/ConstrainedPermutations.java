@@ -0,0 +1,216 @@
+package com.michaelRunzler.ark;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.math.BigInteger;
+import java.util.function.Consumer;
+
+/**
+ * Generates the permutations of a sorted index array that satisfy a set of {@link PrefixPredicate}s, in lexicographical
+ * order. Permutations are stepped through with the usual lexicographical successor, and since each step only changes a
+ * suffix, only the prefixes that end inside that suffix are tested again. When a prefix fails, the rest of the array is
+ * arranged into the last permutation that starts with it, so the next step jumps straight past its whole subtree; the
+ * skipped completions are counted rather than generated.
+ * This class is not thread-safe.
+ */
+public class ConstrainedPermutations
+{
+    /**
+     * The outcome of a constrained search.
+     */
+    public static class Stats
+    {
+        /**
+         * The number of permutations that satisfied every constraint.
+         */
+        public long generated;
+
+        /**
+         * The number of prefixes that failed a constraint, each of which pruned a whole subtree.
+         */
+        public long prunedSubtrees;
+
+        /**
+         * The total number of permutations below the pruned prefixes, none of which were generated or tested.
+         */
+        public BigInteger prunedPermutations = BigInteger.ZERO;
+
+        @Override
+        public String toString() {
+            return String.format("%d permutations generated, %d subtrees pruned (%s permutations skipped).", generated,
+                    prunedSubtrees, prunedPermutations);
+        }
+    }
+
+    // Receives each accepted permutation
+    private interface Visitor {
+        void accept(int[] p) throws IOException;
+    }
+
+    private final PrefixPredicate[] predicates;
+    private final int[] sorted;
+    private final int[] remaining;
+    private final int distinct;
+
+    // The number of completions of each prefix length, if the total fits in a long. Entries are computed lazily when a
+    // prefix is pruned, and only the first sizeValid + 1 entries are up to date.
+    private final long[] size;
+    private final boolean big;
+    private int sizeValid;
+
+    /**
+     * Default constructor.
+     * @param sorted the sorted index array to permute. This array is not modified.
+     * @param predicates the constraints that every prefix must satisfy
+     */
+    public ConstrainedPermutations(int[] sorted, PrefixPredicate[] predicates)
+    {
+        this.predicates = predicates.clone();
+        this.sorted = sorted.clone();
+
+        int distinct = 0;
+        for(int v : sorted) distinct = Math.max(distinct, v + 1);
+        this.distinct = distinct;
+        this.remaining = new int[distinct];
+
+        BigInteger total = Permutator.countPermutations(sorted);
+        this.big = total.bitLength() >= Long.SIZE;
+        this.size = new long[sorted.length + 1];
+        if(!big) size[0] = total.longValue();
+    }
+
+    /**
+     * Writes every permutation that satisfies the constraints to a sink.
+     * @param out the sink to write to
+     * @return the number of permutations generated and pruned
+     */
+    public Stats write(PermutationSink out) throws IOException {
+        return run(out::write);
+    }
+
+    /**
+     * Passes every permutation that satisfies the constraints to a consumer.
+     * @param action the consumer. Every call receives the same array, updated in place.
+     * @return the number of permutations generated and pruned
+     */
+    public Stats forEach(Consumer<int[]> action)
+    {
+        try {
+            return run(action::accept);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private Stats run(Visitor visitor) throws IOException
+    {
+        Stats stats = new Stats();
+        int n = sorted.length;
+        int[] p = sorted.clone();
+        for(int v : p) remaining[v]++;
+
+        long pruned = 0;
+        sizeValid = 0;
+        int from = 0;
+        while(true)
+        {
+            // Place and test each entry that changed since the last permutation
+            int length = from;
+            boolean ok = true;
+            while(ok && length < n) {
+                remaining[p[length]]--;
+                length++;
+                ok = accepts(p, length);
+            }
+
+            if(ok) {
+                stats.generated++;
+                visitor.accept(p);
+            } else {
+                stats.prunedSubtrees++;
+                if(big) stats.prunedPermutations = stats.prunedPermutations.add(multinomial(n - length));
+                else pruned += completions(p, length);
+
+                // Arrange the unplaced entries in descending order, making this the last permutation in the subtree
+                for(int v = distinct - 1, k = length; v >= 0; v--)
+                    for(int c = 0; c < remaining[v]; c++) p[k++] = v;
+            }
+
+            // Find the start of the suffix that the next step will change, and return those entries to the pool
+            int pivot = n - 2;
+            while(pivot >= 0 && p[pivot] >= p[pivot + 1]) pivot--;
+            if(pivot < 0) break;
+
+            for(int k = pivot; k < length; k++) remaining[p[k]]++;
+
+            // Step to the successor: swap the pivot with the smallest larger entry after it, then reverse the suffix
+            int j = n - 1;
+            while(p[j] <= p[pivot]) j--;
+            int temp = p[pivot];
+            p[pivot] = p[j];
+            p[j] = temp;
+            for(int l = pivot + 1, r = n - 1; l < r; l++, r--) {
+                temp = p[l];
+                p[l] = p[r];
+                p[r] = temp;
+            }
+
+            from = pivot;
+            sizeValid = Math.min(sizeValid, pivot);
+        }
+
+        if(!big) stats.prunedPermutations = BigInteger.valueOf(pruned);
+        return stats;
+    }
+
+    // Gets the number of completions of the prefix of the given length, extending the cached sizes up to it. Each
+    // prefix has parent * r / slots completions, where r is how many copies of its last entry were left to place.
+    private long completions(int[] p, int length)
+    {
+        for(int d = sizeValid; d < length; d++)
+        {
+            // Count how many copies of this entry were left before it was placed
+            int r = 0;
+            for(int k = d; k < p.length; k++) if(p[k] == p[d]) r++;
+            size[d + 1] = completions(size[d], r, p.length - d);
+        }
+
+        sizeValid = length;
+        return size[length];
+    }
+
+    private boolean accepts(int[] prefix, int length)
+    {
+        for(PrefixPredicate p : predicates)
+            if(!p.test(prefix, length, remaining)) return false;
+
+        return true;
+    }
+
+    // Gets the number of completions of a prefix after placing an entry that had r copies left out of the remaining
+    // slots. This is parent * r / slots, which is always a whole number; dividing out the common factor first keeps
+    // the intermediate product in range, since slots / gcd(parent, slots) must divide r.
+    private static long completions(long parent, int r, int slots)
+    {
+        long g = gcd(parent, slots);
+        return (parent / g) * (r / (slots / g));
+    }
+
+    private static long gcd(long a, long b)
+    {
+        while(b != 0) {
+            long t = a % b;
+            a = b;
+            b = t;
+        }
+        return a;
+    }
+
+    // Gets the number of arrangements of the remaining multiset, for totals that don't fit in a long
+    private BigInteger multinomial(int slots)
+    {
+        BigInteger result = Permutator.factorialBig(slots);
+        for(int r : remaining) if(r > 1) result = result.divide(Permutator.factorialBig(r));
+        return result;
+    }
+}
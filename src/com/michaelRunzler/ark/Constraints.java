@@ -0,0 +1,181 @@
+package com.michaelRunzler.ark;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * A set of rules that generated permutations must follow, such as "A comes before B", "X is never first" or "C and D
+ * are never next to each other". Rules are written in terms of input elements, and resolved against the dictionary of
+ * each job when it runs. Rules that mention an element that is not among the inputs are always satisfied.
+ * All of the built-in rules, and any custom {@link PrefixPredicate}, are checked as each permutation is built up, so a
+ * prefix that breaks a rule prunes every permutation below it without generating any of them.
+ * @param <T> the type of element being permuted
+ */
+public class Constraints<T>
+{
+    // A single rule, which can only be turned into a predicate once the dictionary is known
+    private interface Rule<T> {
+        PrefixPredicate resolve(T[] dictionary, Comparator<? super T> comparator);
+    }
+
+    private final List<Rule<T>> rules = new ArrayList<>();
+
+    /**
+     * Requires every copy of one element to come before any copy of another.
+     * @param first the element that must come first
+     * @param second the element that must come after it
+     * @return this set of constraints, for chaining
+     */
+    public Constraints<T> before(T first, T second)
+    {
+        rules.add((dict, cmp) -> {
+            int a = indexOf(dict, cmp, first);
+            int b = indexOf(dict, cmp, second);
+            if(a < 0 || b < 0) return null;
+            return (prefix, length, remaining) -> prefix[length - 1] != b || remaining[a] == 0;
+        });
+        return this;
+    }
+
+    /**
+     * Forbids an element from appearing at a given position.
+     * @param element the element to restrict
+     * @param position the zero-based position that it may not appear at
+     * @return this set of constraints, for chaining
+     */
+    public Constraints<T> notAt(T element, int position)
+    {
+        rules.add((dict, cmp) -> {
+            int e = indexOf(dict, cmp, element);
+            if(e < 0) return null;
+            return (prefix, length, remaining) -> length - 1 != position || prefix[position] != e;
+        });
+        return this;
+    }
+
+    /**
+     * Requires an element to appear at a given position.
+     * @param element the element to place
+     * @param position the zero-based position that it must appear at
+     * @return this set of constraints, for chaining
+     */
+    public Constraints<T> at(T element, int position)
+    {
+        rules.add((dict, cmp) -> {
+            int e = indexOf(dict, cmp, element);
+            if(e < 0) return null;
+            return (prefix, length, remaining) -> length - 1 != position || prefix[position] == e;
+        });
+        return this;
+    }
+
+    /**
+     * Forbids two elements from appearing next to each other, in either order. If both are the same element, no two
+     * copies of it may be adjacent.
+     * @param a one of the elements
+     * @param b the other element
+     * @return this set of constraints, for chaining
+     */
+    public Constraints<T> notAdjacent(T a, T b)
+    {
+        rules.add((dict, cmp) -> {
+            int x = indexOf(dict, cmp, a);
+            int y = indexOf(dict, cmp, b);
+            if(x < 0 || y < 0) return null;
+            return (prefix, length, remaining) -> {
+                if(length < 2) return true;
+                int last = prefix[length - 1];
+                int before = prefix[length - 2];
+                return !((last == x && before == y) || (last == y && before == x));
+            };
+        });
+        return this;
+    }
+
+    /**
+     * Adds a custom rule that is checked against every prefix.
+     * @param predicate the rule to check. Its entries are indices into the sorted dictionary of distinct inputs.
+     * @return this set of constraints, for chaining
+     */
+    public Constraints<T> matching(PrefixPredicate predicate)
+    {
+        rules.add((dict, cmp) -> predicate);
+        return this;
+    }
+
+    /**
+     * Checks whether there are any rules in this set.
+     * @return {@code true} if no rules have been added
+     */
+    public boolean isEmpty() {
+        return rules.isEmpty();
+    }
+
+    /**
+     * Resolves every rule against the dictionary of a particular job.
+     * @param dictionary the sorted dictionary of distinct inputs
+     * @param comparator the order that the dictionary is sorted in
+     * @return the predicates to check each prefix against. Rules that can never be broken are left out.
+     */
+    public PrefixPredicate[] resolve(T[] dictionary, Comparator<? super T> comparator)
+    {
+        List<PrefixPredicate> result = new ArrayList<>();
+        for(Rule<T> r : rules) {
+            PrefixPredicate p = r.resolve(dictionary, comparator);
+            if(p != null) result.add(p);
+        }
+
+        return result.toArray(new PrefixPredicate[0]);
+    }
+
+    /**
+     * Parses a set of string constraints from a compact text form, for use from the console and the UI. Rules are
+     * separated by semicolons, and each is one of:
+     * <ul>
+     *     <li>{@code A<B}: every A comes before any B</li>
+     *     <li>{@code X@1}: X is in position 1 (positions start at 1)</li>
+     *     <li>{@code X!@1}: X is never in position 1</li>
+     *     <li>{@code C~D}: C and D are never next to each other</li>
+     * </ul>
+     * @param spec the rules to parse
+     * @return the parsed constraints
+     * @throws IllegalArgumentException if a rule cannot be parsed
+     */
+    public static Constraints<String> parse(String spec)
+    {
+        Constraints<String> c = new Constraints<>();
+        for(String rule : spec.split(";"))
+        {
+            rule = rule.trim();
+            if(rule.isEmpty()) continue;
+
+            int i;
+            if((i = rule.indexOf("!@")) > 0) c.notAt(rule.substring(0, i).trim(), position(rule, rule.substring(i + 2)));
+            else if((i = rule.lastIndexOf('@')) > 0) c.at(rule.substring(0, i).trim(), position(rule, rule.substring(i + 1)));
+            else if((i = rule.indexOf('<')) > 0) c.before(rule.substring(0, i).trim(), rule.substring(i + 1).trim());
+            else if((i = rule.indexOf('~')) > 0) c.notAdjacent(rule.substring(0, i).trim(), rule.substring(i + 1).trim());
+            else throw new IllegalArgumentException("Could not parse constraint \"" + rule + "\".");
+        }
+
+        return c;
+    }
+
+    private static int position(String rule, String s)
+    {
+        try {
+            int p = Integer.parseInt(s.trim());
+            if(p < 1) throw new IllegalArgumentException("Position in constraint \"" + rule + "\" must be at least 1.");
+            return p - 1;
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Could not parse position in constraint \"" + rule + "\".", e);
+        }
+    }
+
+    private static <T> int indexOf(T[] dictionary, Comparator<? super T> comparator, T element)
+    {
+        int i = Arrays.binarySearch(dictionary, element, comparator);
+        return i < 0 ? -1 : i;
+    }
+}
@@ -0,0 +1,202 @@
+package com.michaelRunzler.ark;
+
+import java.io.BufferedInputStream;
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * Streams permutations back out of a file written by {@link DeltaPermutationWriter}. The file is read through a
+ * reusable direct buffer, and each record is applied to a single index array in place, so reading does not allocate
+ * and memory use does not depend on the size of the file. Files compressed with {@link BlockCompression} are
+ * decompressed transparently.
+ */
+public class DeltaPermutationReader implements Closeable
+{
+    private static final int BUFFER_SIZE = 1 << 16;
+
+    private final ReadableByteChannel channel;
+    private final ByteBuffer buffer;
+    private final String[] dictionary;
+    private final String separator;
+    private final int[] p;
+    private boolean eof;
+
+    /**
+     * Opens a delta file and reads its header.
+     * @param input the file to read
+     * @throws IOException if the file cannot be read, or does not start with a delta file header
+     */
+    public DeltaPermutationReader(File input) throws IOException
+    {
+        this.channel = open(input);
+        try {
+            // The header is read a byte at a time, since dictionary entries may be larger than the buffer
+            this.buffer = ByteBuffer.allocateDirect(BUFFER_SIZE);
+            buffer.limit(0);
+
+            byte[] magic = new byte[DeltaPermutationWriter.MAGIC.length];
+            for(int i = 0; i < magic.length; i++) magic[i] = readByte();
+            if(!Arrays.equals(magic, DeltaPermutationWriter.MAGIC))
+                throw new IOException(input.getAbsolutePath() + " is not a delta permutation file.");
+
+            int version = readByte();
+            if(version != DeltaPermutationWriter.VERSION)
+                throw new IOException(input.getAbsolutePath() + " uses unsupported delta format version " + version + ".");
+
+            this.p = new int[readVarint()];
+            this.dictionary = new String[readVarint()];
+            for(int i = 0; i < dictionary.length; i++) dictionary[i] = readString();
+            this.separator = readString();
+        } catch (IOException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Gets the dictionary that permutation indices in this file refer to.
+     * @return the dictionary stored in the file header
+     */
+    public String[] dictionary() {
+        return dictionary;
+    }
+
+    /**
+     * Gets the separator that the file was written with, for use when expanding it to text.
+     * @return the separator stored in the file header
+     */
+    public String separator() {
+        return separator;
+    }
+
+    /**
+     * Reads the next permutation from the file.
+     * @return the next permutation, as an index array into {@link #dictionary()}, or {@code null} at the end of the
+     * file. The same array is returned by every call, updated in place.
+     * @throws IOException if the file cannot be read, or ends part-way through a record
+     */
+    public int[] next() throws IOException
+    {
+        if(!ensure(1)) return null;
+        ensure((p.length + 1) * DeltaPermutationWriter.MAX_VARINT_BYTES);
+
+        int keep = readVarint();
+        if(keep > p.length) throw new IOException("Corrupt delta record: keeps " + keep + " of " + p.length + " entries.");
+        for(int i = keep; i < p.length; i++)
+        {
+            int index = readVarint();
+            if(index >= dictionary.length) throw new IOException("Corrupt delta record: index " + index + " is out of range.");
+            p[i] = index;
+        }
+
+        return p;
+    }
+
+    /**
+     * Closes the underlying file.
+     */
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+
+    /**
+     * Expands a delta file back into the text format, one permutation per line, exactly as it would have been written
+     * with {@link OutputFormat#TEXT}.
+     * @param input the delta file to read
+     * @param output the text file to write, which is replaced if it already exists
+     * @return the number of permutations written
+     */
+    public static long expand(File input, File output) throws IOException
+    {
+        long count = 0;
+        try(DeltaPermutationReader in = new DeltaPermutationReader(input);
+            PermutationWriter out = new PermutationWriter(output, in.dictionary, in.separator))
+        {
+            for(int[] p; (p = in.next()) != null; count++) out.write(p);
+        }
+
+        return count;
+    }
+
+    /**
+     * Expands a delta file from the command line.
+     * @param args the path to the delta file, and the path to write the text output to
+     */
+    public static void main(String[] args)
+    {
+        if(args.length != 2) {
+            System.out.println("Usage: DeltaPermutationReader <input delta file> <output text file>");
+            return;
+        }
+
+        try {
+            long count = expand(new File(args[0]), new File(args[1]));
+            System.out.printf("Expanded %d permutations to \"%s\".\n", count, new File(args[1]).getAbsolutePath());
+        } catch (IOException e) {
+            System.out.println("Encountered system I/O error while expanding:");
+            e.printStackTrace();
+        }
+    }
+
+    // Opens the file for reading, decompressing it on the fly if it starts with a gzip header
+    private static ReadableByteChannel open(File input) throws IOException
+    {
+        FileChannel file = FileChannel.open(input.toPath(), StandardOpenOption.READ);
+        ByteBuffer magic = ByteBuffer.allocate(2);
+        file.read(magic, 0);
+        if(magic.get(0) != (byte)0x1f || magic.get(1) != (byte)0x8b) return file;
+
+        InputStream in = new BufferedInputStream(new GZIPInputStream(Channels.newInputStream(file), 1 << 16), 1 << 16);
+        return Channels.newChannel(in);
+    }
+
+    // Makes sure that at least the requested number of bytes are buffered, if the file has that many left. Returns
+    // false if the file has no more bytes at all.
+    private boolean ensure(int bytes) throws IOException
+    {
+        if(buffer.remaining() >= bytes || eof) return buffer.hasRemaining();
+
+        buffer.compact();
+        while(buffer.position() < bytes && !eof) eof = channel.read(buffer) < 0;
+        buffer.flip();
+        return buffer.hasRemaining();
+    }
+
+    private byte readByte() throws IOException
+    {
+        if(!ensure(1)) throw new EOFException("Unexpected end of delta file.");
+        return buffer.get();
+    }
+
+    private int readVarint() throws IOException
+    {
+        int v = 0;
+        for(int shift = 0; shift < 32; shift += 7)
+        {
+            byte b = readByte();
+            v |= (b & 0x7F) << shift;
+            if(b >= 0) return v;
+        }
+
+        throw new IOException("Corrupt delta file: varint is too long.");
+    }
+
+    private String readString() throws IOException
+    {
+        byte[] b = new byte[readVarint()];
+        for(int i = 0; i < b.length; i++) b[i] = readByte();
+        return new String(b, StandardCharsets.UTF_8);
+    }
+}
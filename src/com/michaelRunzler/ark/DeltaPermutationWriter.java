@@ -0,0 +1,130 @@
+package com.michaelRunzler.ark;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Writes index permutations in the compact delta format. The file starts with a header holding the permutation length,
+ * the dictionary and the separator, and every permutation after that is stored as the number of leading entries it shares with the previous
+ * one, followed by the indices of the entries that changed. All numbers are unsigned LEB128 varints. In lexicographical
+ * order only a short suffix changes from one permutation to the next, so most records take a handful of bytes no matter
+ * how long the dictionary entries are.
+ * <p>
+ * The first record written by each writer never refers back to an earlier one, so output from several writers (resumed
+ * runs, or parallel segments written without a header) can be appended to one another. Use
+ * {@link DeltaPermutationReader} to read the file back or expand it to text.
+ */
+public class DeltaPermutationWriter extends BufferedChannelSink
+{
+    static final byte[] MAGIC = {'P', 'R', 'M', 'D'};
+    static final int VERSION = 1;
+
+    // The most bytes that a single varint-encoded int can take up
+    static final int MAX_VARINT_BYTES = 5;
+
+    private final String[] dictionary;
+    private final String separator;
+    private boolean header;
+    private int[] previous;
+
+    /**
+     * Opens a writer that continues an existing output file from the provided offset. Anything in the file past the
+     * offset is discarded.
+     * @param output the file to write permutations to
+     * @param dictionary the dictionary that permutation indices refer to
+     * @param separator the separator to store in the header, for use when the file is expanded to text
+     * @param offset the byte offset to truncate the file to and continue writing from; zero for a new file
+     * @param header {@code true} to start with a file header. This should be {@code false} when continuing a file
+     *               that already has one, or when writing a segment that will be appended to one that does.
+     * @param compression the settings to compress output with, or {@code null} to write it uncompressed
+     */
+    public DeltaPermutationWriter(File output, String[] dictionary, String separator, long offset, boolean header,
+                                  BlockCompression compression) throws IOException
+    {
+        super(output, offset, longestEntry(dictionary, separator), compression);
+        this.dictionary = dictionary;
+        this.separator = separator;
+        this.header = header;
+    }
+
+    /**
+     * Writes a single permutation as one record.
+     * @param p the index array to write. Every permutation written by the same writer must have the same length.
+     */
+    @Override
+    public void write(int[] p) throws IOException {
+        write(p, 0);
+    }
+
+    /**
+     * Writes a single permutation as one record, only comparing it with the previous one past the entries that are
+     * already known to be unchanged.
+     * @param p the index array to write
+     * @param unchanged how many leading entries of {@code p} are the same as in the previous permutation
+     */
+    @Override
+    public void write(int[] p, int unchanged) throws IOException
+    {
+        // The header holds the permutation length, so it is only written once the first permutation arrives
+        if(header) writeHeader(p.length);
+        if(buffer.remaining() < (p.length + 1) * MAX_VARINT_BYTES) drain();
+
+        int keep = 0;
+        if(previous == null) previous = new int[p.length];
+        else {
+            keep = Math.min(unchanged, p.length);
+            while(keep < p.length && p[keep] == previous[keep]) keep++;
+        }
+
+        putVarint(keep);
+        for(int i = keep; i < p.length; i++) {
+            putVarint(p[i]);
+            previous[i] = p[i];
+        }
+    }
+
+    /**
+     * Writes any buffered output and closes the underlying file. If nothing was written, the file still gets a header.
+     */
+    @Override
+    public void close() throws IOException
+    {
+        if(header) writeHeader(0);
+        super.close();
+    }
+
+    private void writeHeader(int length)
+    {
+        header = false;
+        buffer.put(MAGIC).put((byte)VERSION);
+        putVarint(length);
+        putVarint(dictionary.length);
+        for(String s : dictionary) putString(s);
+        putString(separator);
+    }
+
+    private void putString(String s)
+    {
+        byte[] b = s.getBytes(StandardCharsets.UTF_8);
+        putVarint(b.length);
+        buffer.put(b);
+    }
+
+    private void putVarint(int v)
+    {
+        while((v & ~0x7F) != 0) {
+            buffer.put((byte)((v & 0x7F) | 0x80));
+            v >>>= 7;
+        }
+        buffer.put((byte)v);
+    }
+
+    // The header is written in one go before anything is drained, so the buffer must be able to hold all of it
+    private static int longestEntry(String[] dictionary, String separator)
+    {
+        int size = MAGIC.length + 1 + 2 * MAX_VARINT_BYTES;
+        for(String s : dictionary) size += s.getBytes(StandardCharsets.UTF_8).length + MAX_VARINT_BYTES;
+        return size + separator.getBytes(StandardCharsets.UTF_8).length + MAX_VARINT_BYTES;
+    }
+}
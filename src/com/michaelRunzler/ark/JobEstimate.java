@@ -0,0 +1,93 @@
+package com.michaelRunzler.ark;
+
+import java.math.BigInteger;
+
+/**
+ * What a job is expected to cost before it is started, as worked out by {@link Permutator#estimate}. Counts are
+ * always exact; sizes are exact for uncompressed text output and extrapolated from a short calibration run otherwise,
+ * and times always come from calibration.
+ */
+public class JobEstimate
+{
+    // Jobs predicted to take longer than this are worth confirming first
+    private static final long LONG_JOB_NANOS = 3600L * 1_000_000_000L;
+
+    /**
+     * The exact number of permutations the job will produce, or with {@link #upperBound} set, the most it can produce.
+     */
+    public final BigInteger permutations;
+
+    /**
+     * {@code true} if {@link #permutations} is only an upper bound, as with constrained jobs, where pruning decides
+     * how many are actually produced.
+     */
+    public final boolean upperBound;
+
+    /**
+     * The number of bytes the job is expected to write, or {@code null} if it could be neither computed nor sampled.
+     */
+    public final BigInteger bytes;
+
+    /**
+     * {@code true} if {@link #bytes} was computed exactly rather than extrapolated from a calibration run.
+     */
+    public final boolean exactBytes;
+
+    /**
+     * How long the job is expected to take, in nanoseconds, or -1 if it wasn't calibrated. Jobs too long to fit in a
+     * {@code long} report {@link Long#MAX_VALUE}.
+     */
+    public final long nanos;
+
+    /**
+     * The usable space on the volume holding the output folder when the estimate was made, in bytes.
+     */
+    public final long freeSpace;
+
+    JobEstimate(BigInteger permutations, boolean upperBound, BigInteger bytes, boolean exactBytes, long nanos, long freeSpace)
+    {
+        this.permutations = permutations;
+        this.upperBound = upperBound;
+        this.bytes = bytes;
+        this.exactBytes = exactBytes;
+        this.nanos = nanos;
+        this.freeSpace = freeSpace;
+    }
+
+    /**
+     * Checks whether the job's output is expected to fit in the free space on its output volume. Jobs that don't fit
+     * should be refused, since they would fill the disk before failing.
+     * @return {@code false} if the output is known or expected to be larger than the free space
+     */
+    public boolean fits() {
+        return bytes == null || bytes.compareTo(BigInteger.valueOf(freeSpace)) <= 0;
+    }
+
+    /**
+     * Gets a reason to confirm the job with the user before starting it, even though it fits.
+     * @return a warning to show, or {@code null} if the job is unremarkable
+     */
+    public String warning()
+    {
+        if(bytes != null && bytes.shiftLeft(1).compareTo(BigInteger.valueOf(freeSpace)) > 0)
+            return "The output will use more than half of the free space on its volume.";
+        if(nanos > LONG_JOB_NANOS) return "The job is expected to take more than an hour.";
+        return null;
+    }
+
+    /**
+     * Gets a one-line summary of the estimate, suitable for a confirmation prompt.
+     * @return the summary
+     */
+    @Override
+    public String toString()
+    {
+        StringBuilder sb = new StringBuilder();
+        sb.append(upperBound ? "Up to " : "").append(String.format("%,d permutations", permutations));
+        if(bytes != null) sb.append(exactBytes ? ", " : ", about ").append(Units.bytes(bytes.doubleValue()));
+        if(nanos == Long.MAX_VALUE) sb.append(", more than 292 years");
+        else if(nanos >= 0) sb.append(", about ").append(Units.duration(nanos));
+        sb.append(" (").append(Units.bytes(freeSpace)).append(" free)");
+        return sb.toString();
+    }
+}
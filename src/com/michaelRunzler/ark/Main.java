@@ -1,5 +1,6 @@
 package com.michaelRunzler.ark;
 
+import java.io.Closeable;
 import java.io.File;
 import java.io.IOException;
 import java.util.ArrayList;
@@ -13,14 +14,26 @@ public class Main
             "\nPrivate use permitted under license, or under the terms of the GNU General Public License (GPL)." +
             "\nCopyright (c) 2021-2022 ARK Software. All rights reserved.\n";
 
+    // How often to print a progress line while a job runs, in milliseconds
+    private static final long PROGRESS_INTERVAL = 2000;
+
+    // Roughly how long to spend timing a short sample of each job before it starts, in milliseconds
+    private static final long CALIBRATION_MILLIS = 1000;
+
     public static void main(String[] args)
     {
+        // Any arguments at all mean a scripted run, which never waits for input
+        if(args.length > 0) System.exit(BatchRunner.run(args));
+
         System.out.println(version);
-        System.out.println("Populating registry from classpath, please wait...");
 
         // Populate the registry
         PermutatorRegister.populateRegistry();
 
+        // Publish each permutator's live counters over JMX if asked to with -Dpermutator.jmx=true
+        if(Boolean.getBoolean("permutator.jmx"))
+            for(Permutator p : PermutatorRegister.registry.values()) p.metrics.register(p.description);
+
         // Run the main loop
         boolean isStillRunning = true;
         while(isStillRunning)
@@ -96,6 +109,51 @@ public class Main
         String quit = "qq";
 
         Permutator perm = selections.get(selection);
+
+        // Text output can be written in the compact delta format, which is expanded with DeltaPermutationReader
+        System.out.print("Write compact delta output instead of plain text? (y/n): ");
+        perm.format = in.nextLine().trim().equalsIgnoreCase("y") ? OutputFormat.DELTA : OutputFormat.TEXT;
+
+        System.out.print("Compress output with gzip? (y/n): ");
+        perm.compression = in.nextLine().trim().equalsIgnoreCase("y") ? new BlockCompression() : null;
+
+        // Selections of k inputs are enumerated directly instead of being cut down from every full permutation
+        System.out.print("Generate (1) full permutations, (2) ordered selections of k inputs, or (3) combinations of k inputs? ");
+        String mode = in.nextLine().trim();
+        perm.selection = mode.equals("2") ? SelectionMode.K_PERMUTATIONS
+                : mode.equals("3") ? SelectionMode.COMBINATIONS : SelectionMode.PERMUTATIONS;
+        if(perm.selection != SelectionMode.PERMUTATIONS)
+        {
+            System.out.print("Number of inputs in each selection (k): ");
+            try {
+                perm.selectionSize = Math.max(0, Integer.parseInt(in.nextLine().trim()));
+            } catch (NumberFormatException e) {
+                System.out.println("Not a valid number; generating full permutations instead.");
+                perm.selection = SelectionMode.PERMUTATIONS;
+            }
+        }
+
+        // Rules are applied during generation, so permutations that break them are never produced at all
+        if(perm.selection == SelectionMode.PERMUTATIONS)
+        {
+            System.out.print("Constraints (e.g. A<B; X!@1; C~D), or blank for none: ");
+            String rules = in.nextLine().trim();
+            try {
+                perm.constraints = rules.isEmpty() ? null : Constraints.parse(rules);
+            } catch (IllegalArgumentException e) {
+                System.out.println(e.getMessage() + " Continuing without constraints.");
+                perm.constraints = null;
+            }
+        } else perm.constraints = null;
+
+        // Ask whether an interrupted run in the same folder should be picked up from its last checkpoint, for the jobs
+        // that keep one
+        perm.resume = false;
+        if(perm.resumable()) {
+            System.out.print("Resume from checkpoint if one exists? (y/n): ");
+            perm.resume = in.nextLine().trim().equalsIgnoreCase("y");
+        }
+
         System.out.println("\n" + perm.prompt);
         System.out.printf("Enter %s when done or %s to quit:\n", done, quit);
 
@@ -114,8 +172,39 @@ public class Main
         }
 
         // Pass the inputs to the permutator
+        String[] inputs = cache.toArray(new String[0]);
+
+        // Work out what the job will cost first, so that jobs too large for the disk are refused instead of filling it
+        try {
+            JobEstimate estimate = perm.estimate(inputs, dest, CALIBRATION_MILLIS);
+            System.out.println("Estimated: " + estimate + ".");
+            if(!estimate.fits()) {
+                System.out.println("The output will not fit in the free space on its volume; returning to main menu.\n");
+                return true;
+            }
+
+            String warning = estimate.warning();
+            if(warning != null) {
+                System.out.print(warning + " Continue anyway? (y/n): ");
+                if(!in.nextLine().trim().equalsIgnoreCase("y")) {
+                    System.out.println("Returning to main menu...\n");
+                    return true;
+                }
+            }
+        } catch (IOException e) {
+            System.out.println("Could not estimate the job's size (" + e.getMessage() + "); continuing without an estimate.");
+        }
+
+        System.out.println("Processing...");
         try {
-            perm.permuteAll(cache.toArray(new String[0]), dest);
+            // Print progress while the job runs, and once more when it is done
+            Closeable progress = perm.metrics.report(PROGRESS_INTERVAL, s -> System.out.println("Progress: " + s));
+            try {
+                perm.permuteAll(inputs, dest);
+            } finally {
+                progress.close();
+            }
+            if(perm.metrics.getPruning() != null) System.out.println(perm.metrics.getPruning());
             // Confirm completion
             System.out.printf("Permutations written to \"%s\".\n\n", dest.getAbsolutePath());
         } catch (IOException e) {
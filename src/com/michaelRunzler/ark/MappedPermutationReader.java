@@ -0,0 +1,124 @@
+package com.michaelRunzler.ark;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Looks up single lines of a fixed-stride text file, such as one written by {@link MappedPermutationWriter}, or any
+ * uncompressed {@link OutputFormat#TEXT} output of full permutations. Since every line is the same length, line r
+ * starts at {@code r * stride}, so each lookup reads just that line straight out of a memory-mapped window, no matter
+ * how large the file is. The stride is taken from the length of the first line when the file is opened.
+ * Lookups don't share any position state, so one reader can be used from many threads at once.
+ */
+public class MappedPermutationReader implements Closeable
+{
+    private final FileChannel channel;
+    private final MappedByteBuffer[] windows;
+    private final long windowLines;
+    private final int stride;
+    private final long lines;
+
+    /**
+     * Opens a fixed-stride file and maps it for reading.
+     * @param input the file to read
+     * @throws IOException if the file can't be read, or its length isn't a whole number of lines as long as its first
+     */
+    public MappedPermutationReader(File input) throws IOException
+    {
+        this.channel = FileChannel.open(input.toPath(), StandardOpenOption.READ);
+        try {
+            this.stride = firstLineLength(channel);
+            long length = channel.size();
+            if(stride == 0 ? length != 0 : length % stride != 0)
+                throw new IOException(input.getAbsolutePath() + " is not a fixed-stride permutation file.");
+
+            // Windows hold a whole number of lines, so that no line is split across two of them
+            this.lines = stride == 0 ? 0 : length / stride;
+            this.windowLines = stride == 0 ? 1 : Integer.MAX_VALUE / stride;
+            this.windows = new MappedByteBuffer[(int)((lines + windowLines - 1) / windowLines)];
+            for(int i = 0; i < windows.length; i++)
+            {
+                long first = i * windowLines;
+                windows[i] = channel.map(FileChannel.MapMode.READ_ONLY, first * stride,
+                        Math.min(windowLines, lines - first) * stride);
+            }
+        } catch (IOException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Gets the number of lines in the file. For the output of a rank range, line r holds the permutation with rank
+     * {@code start + r}.
+     * @return the number of lines
+     */
+    public long size() {
+        return lines;
+    }
+
+    /**
+     * Gets the length of every line in the file, including its newline.
+     * @return the line length in bytes
+     */
+    public int stride() {
+        return stride;
+    }
+
+    /**
+     * Reads a single line.
+     * @param r the zero-based number of the line to read
+     * @return the line, without its newline
+     * @throws IllegalArgumentException if the line number is out of bounds
+     * @throws IOException if the line doesn't end where the stride says it should, which means the file wasn't
+     * written with a fixed stride after all
+     */
+    public String line(long r) throws IOException
+    {
+        if(r < 0 || r >= lines) throw new IllegalArgumentException("Line " + r + " is out of bounds for " + lines + " lines.");
+
+        ByteBuffer window = windows[(int)(r / windowLines)].duplicate();
+        window.position((int)(r % windowLines) * stride);
+        byte[] line = new byte[stride - 1];
+        window.get(line);
+        if(window.get() != '\n') throw new IOException("Line " + r + " is not " + stride + " bytes long.");
+        return new String(line, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Closes the underlying file. Mapped windows stay valid until they are garbage collected, but must not be used.
+     */
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+
+    // Finds the length of the first line, newline included, or zero for an empty file
+    private static int firstLineLength(FileChannel channel) throws IOException
+    {
+        ByteBuffer buffer = ByteBuffer.allocate(1 << 12);
+        long position = 0;
+        while(channel.read(buffer, position) > 0)
+        {
+            buffer.flip();
+            while(buffer.hasRemaining())
+            {
+                position++;
+                if(buffer.get() == '\n') {
+                    if(position > Integer.MAX_VALUE) throw new IOException("Lines are too long to map.");
+                    return (int)position;
+                }
+            }
+            buffer.clear();
+        }
+
+        if(position != 0) throw new IOException("The file does not end with a newline.");
+        return 0;
+    }
+}
@@ -0,0 +1,156 @@
+package com.michaelRunzler.ark;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.function.BooleanSupplier;
+
+/**
+ * Writes full permutations as text into a pre-sized file through memory-mapped windows. Every permutation of the same
+ * inputs is the same entries reordered, so every line has the same length, and the line for rank r starts at
+ * {@code (r - start) * stride}. The file is sized up front, and the rank range is split into one contiguous region
+ * per thread; each thread unranks its first permutation and fills its own region straight through the mapping, with
+ * no coordination with the others and no channel writes. The result is byte-for-byte the same as {@link OutputFormat#TEXT}
+ * output, and can be read back a line at a time in constant time with {@link MappedPermutationReader}.
+ */
+public class MappedPermutationWriter
+{
+    // The most of a region that is mapped at once. Windows always hold a whole number of lines.
+    private static final long WINDOW_SIZE = 1L << 26;
+
+    // How many permutations a region writes between updates to the job's counters and checks for cancellation
+    private static final int PUBLISH_MASK = (1 << 12) - 1;
+
+    private MappedPermutationWriter() {}
+
+    /**
+     * Gets the length of every line written for the permutations of an index array, including the newline.
+     * @param dictionary the dictionary that the indices refer to
+     * @param sorted the index array being permuted
+     * @param separator the string written between each entry on a line
+     * @return the line length in bytes
+     */
+    public static long stride(String[] dictionary, int[] sorted, String separator)
+    {
+        long stride = 1 + Math.max(0, sorted.length - 1) * (long)separator.getBytes(StandardCharsets.UTF_8).length;
+        for(int v : sorted) stride += dictionary[v].getBytes(StandardCharsets.UTF_8).length;
+        return stride;
+    }
+
+    /**
+     * Writes a contiguous range of the permutations of an index array to a new fixed-stride text file, in parallel.
+     * If the job fails or is cancelled, the output file is deleted, since the regions that were not finished leave
+     * gaps that can't be resumed.
+     * @param sorted the sorted index array to permute. This array is not modified.
+     * @param dictionary the dictionary that the indices refer to
+     * @param separator the string to write between each entry on a line
+     * @param output the file to write to, which is replaced if it already exists
+     * @param start the rank of the first permutation to write
+     * @param length the number of permutations to write
+     * @param parallelism the number of regions to split the file into, each written by its own thread
+     * @param metrics the counters to add written permutations and bytes to
+     * @param cancelled reports whether the job has been cancelled, in which case every region stops at its next check
+     *                  and an {@link InterruptedIOException} is thrown
+     */
+    public static void write(int[] sorted, String[] dictionary, String separator, File output, long start, long length,
+                             int parallelism, PermutationMetrics metrics, BooleanSupplier cancelled) throws IOException
+    {
+        long stride = stride(dictionary, sorted, separator);
+        long size;
+        try {
+            size = Math.multiplyExact(length, stride);
+        } catch (ArithmeticException e) {
+            throw new IOException("Output of " + length + " lines of " + stride + " bytes is too large for one file.", e);
+        }
+
+        byte[][] entries = new byte[dictionary.length][];
+        for(int i = 0; i < dictionary.length; i++) entries[i] = dictionary[i].getBytes(StandardCharsets.UTF_8);
+        byte[] sep = separator.getBytes(StandardCharsets.UTF_8);
+
+        boolean complete = false;
+        try(FileChannel channel = FileChannel.open(output.toPath(), StandardOpenOption.CREATE, StandardOpenOption.READ,
+                StandardOpenOption.WRITE))
+        {
+            // Size the file up front, so that every region can be mapped before the ones before it are written
+            channel.truncate(0);
+            if(size > 0) channel.write(ByteBuffer.wrap(new byte[1]), size - 1);
+
+            int regions = (int)Math.max(1, Math.min(length, parallelism));
+            List<Callable<Void>> tasks = new ArrayList<>();
+            for(int i = 0; i < regions; i++)
+            {
+                // Spread the remainder over the first few regions so that region sizes differ by at most one
+                long from = (length / regions) * i + Math.min(i, length % regions);
+                long lines = length / regions + (i < length % regions ? 1 : 0);
+                tasks.add(() -> {
+                    writeRegion(channel, sorted, entries, sep, stride, start + from, from * stride, lines, metrics, cancelled);
+                    return null;
+                });
+            }
+
+            ParallelPermutations.invokeAll(tasks, parallelism);
+            complete = true;
+        } finally {
+            if(!complete) output.delete();
+        }
+    }
+
+    // Fills one region of the file, mapping it a window at a time
+    private static void writeRegion(FileChannel channel, int[] sorted, byte[][] entries, byte[] separator, long stride,
+                                    long rank, long offset, long lines, PermutationMetrics metrics,
+                                    BooleanSupplier cancelled) throws IOException
+    {
+        if(lines == 0) return;
+
+        long windowLines = Math.max(1, WINDOW_SIZE / stride);
+        int[] p = Permutator.unrank(rank, sorted);
+
+        // Lines are assembled on the heap and copied into the window in one go, which is much cheaper than a bounds
+        // checked put into the mapping for every entry
+        byte[] line = new byte[(int)stride];
+        line[line.length - 1] = '\n';
+        long remaining = lines;
+        long pending = 0;
+        while(remaining > 0)
+        {
+            long count = Math.min(remaining, windowLines);
+            MappedByteBuffer window = channel.map(FileChannel.MapMode.READ_WRITE, offset, count * stride);
+            for(long i = 0; i < count; i++)
+            {
+                int pos = 0;
+                for(int j = 0; j < p.length; j++)
+                {
+                    if(j > 0) {
+                        System.arraycopy(separator, 0, line, pos, separator.length);
+                        pos += separator.length;
+                    }
+                    byte[] entry = entries[p[j]];
+                    System.arraycopy(entry, 0, line, pos, entry.length);
+                    pos += entry.length;
+                }
+                window.put(line);
+                Permutator.nextPermutation(p);
+
+                if((++pending & PUBLISH_MASK) == 0) {
+                    metrics.add(pending, pending * stride);
+                    pending = 0;
+                    if(cancelled.getAsBoolean()) throw new InterruptedIOException("The job was cancelled.");
+                }
+            }
+
+            window.force();
+            offset += count * stride;
+            remaining -= count;
+        }
+
+        metrics.add(pending, pending * stride);
+    }
+}
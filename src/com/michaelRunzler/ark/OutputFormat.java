@@ -0,0 +1,24 @@
+package com.michaelRunzler.ark;
+
+/**
+ * The file formats that text permutators can write their output in.
+ */
+public enum OutputFormat
+{
+    /**
+     * One permutation per line, with each entry written out in full. See {@link PermutationWriter}.
+     */
+    TEXT(".txt"),
+
+    /**
+     * A compact binary format holding the dictionary once, followed by each permutation as a varint-packed delta from
+     * the one before it. See {@link DeltaPermutationWriter}, and {@link DeltaPermutationReader} to expand it to text.
+     */
+    DELTA(".pdelta");
+
+    public final String extension;
+
+    OutputFormat(String extension) {
+        this.extension = extension;
+    }
+}
@@ -0,0 +1,212 @@
+package com.michaelRunzler.ark;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.Future;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+
+/**
+ * A channel that gzip-compresses everything written to it in independent blocks on a pool of worker threads, as
+ * described by {@link BlockCompression}. Finished blocks are written to the underlying file in the order they were
+ * filled. Only a small, fixed number of blocks are compressed ahead of the oldest unwritten one, so the producer is
+ * held back if compression falls behind, and memory use stays bounded.
+ * <p>
+ * Every channel shares one compression pool with a thread per available processor, so writing many compressed files
+ * at once, such as the segments of a parallel job, never runs more compression threads than there are processors.
+ * This class is not thread-safe; it expects a single producer.
+ */
+public class ParallelGzipChannel implements WritableByteChannel
+{
+    // How many blocks may be queued per thread before the producer waits for the oldest one to be written
+    private static final int BLOCKS_PER_THREAD = 2;
+
+    // Fixed gzip member header: deflate, no flags, no timestamp, no extra flags, unknown OS
+    private static final byte[] HEADER = {0x1f, (byte)0x8b, 8, 0, 0, 0, 0, 0, 0, (byte)0xff};
+
+    // How long an idle compression thread waits for work before it exits
+    private static final long IDLE_SECONDS = 30;
+
+    // Shared by every channel; its threads exit when idle, so it costs nothing while nothing is being compressed
+    private static final ExecutorService POOL = createPool();
+
+    private final FileChannel file;
+    private final int level;
+    private final int blockSize;
+    private final int maxInFlight;
+    private final Deque<Future<ByteBuffer>> inFlight = new ArrayDeque<>();
+    private final ConcurrentLinkedQueue<byte[]> spare = new ConcurrentLinkedQueue<>();
+
+    private byte[] block;
+    private int filled;
+    private boolean open = true;
+
+    /**
+     * Default constructor.
+     * @param file the file to write compressed output to, at its current position
+     * @param settings the compression level, block size and thread count to use
+     */
+    public ParallelGzipChannel(FileChannel file, BlockCompression settings)
+    {
+        this.file = file;
+        this.level = settings.level;
+        this.blockSize = Math.max(1, settings.blockSize);
+        int threads = Math.max(1, settings.threads);
+        this.maxInFlight = threads * BLOCKS_PER_THREAD;
+        this.block = new byte[blockSize];
+    }
+
+    /**
+     * Gets roughly how much memory an open channel with the provided settings holds at most: the block being filled,
+     * and every block queued for compression.
+     * @param settings the compression settings
+     * @return the number of bytes
+     */
+    public static long bufferedBytes(BlockCompression settings) {
+        return (Math.max(1, settings.threads) * (long)BLOCKS_PER_THREAD + 1) * Math.max(1, settings.blockSize);
+    }
+
+    /**
+     * Copies the provided bytes into the current block, handing each block off for compression as soon as it is full.
+     */
+    @Override
+    public int write(ByteBuffer src) throws IOException
+    {
+        if(!open) throw new IOException("Channel is closed.");
+
+        int written = src.remaining();
+        while(src.hasRemaining())
+        {
+            int n = Math.min(src.remaining(), blockSize - filled);
+            src.get(block, filled, n);
+            filled += n;
+            if(filled == blockSize) submit();
+        }
+
+        return written;
+    }
+
+    /**
+     * Ends the current block, even if it is not full, and waits for every block to be compressed and written. The
+     * underlying file then ends on a gzip member boundary, so it is safe to truncate it to its current length and
+     * append more members later.
+     */
+    public void flush() throws IOException
+    {
+        if(filled > 0) submit();
+        while(!inFlight.isEmpty()) writeOldest();
+    }
+
+    @Override
+    public boolean isOpen() {
+        return open;
+    }
+
+    /**
+     * Writes out any remaining blocks. The underlying file is not closed. If the file would otherwise be empty, a single
+     * empty member is written so that it is still a valid gzip file.
+     */
+    @Override
+    public void close() throws IOException
+    {
+        if(!open) return;
+        try {
+            if(filled == 0 && inFlight.isEmpty() && file.position() == 0) submit();
+            flush();
+        } finally {
+            open = false;
+
+            // Anything still queued after a failure will never be written, so don't leave it for the shared pool
+            for(Future<ByteBuffer> f : inFlight) f.cancel(true);
+            inFlight.clear();
+        }
+    }
+
+    // Hands the current block to the pool, first waiting for the oldest one to be written if too many are queued
+    private void submit() throws IOException
+    {
+        if(inFlight.size() >= maxInFlight) writeOldest();
+
+        byte[] data = block;
+        int length = filled;
+        inFlight.add(POOL.submit(() -> compress(data, length)));
+
+        byte[] next = spare.poll();
+        block = next == null ? new byte[blockSize] : next;
+        filled = 0;
+    }
+
+    // Waits for the oldest queued block to finish compressing, and writes it to the file
+    private void writeOldest() throws IOException
+    {
+        ByteBuffer member;
+        try {
+            member = inFlight.poll().get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while waiting for a block to compress.", e);
+        } catch (ExecutionException e) {
+            throw new IOException("Failed to compress block.", e.getCause());
+        }
+
+        while(member.hasRemaining()) file.write(member);
+    }
+
+    // Compresses a single block into a complete gzip member, and returns the block's buffer for reuse. Runs on a
+    // worker thread.
+    private ByteBuffer compress(byte[] data, int length)
+    {
+        Deflater deflater = new Deflater(level, true);
+        try {
+            ByteArrayOutputStream out = new ByteArrayOutputStream(length / 4 + 64);
+            out.write(HEADER, 0, HEADER.length);
+
+            deflater.setInput(data, 0, length);
+            deflater.finish();
+            byte[] buf = new byte[1 << 16];
+            while(!deflater.finished()) out.write(buf, 0, deflater.deflate(buf));
+
+            CRC32 crc = new CRC32();
+            crc.update(data, 0, length);
+            writeIntLE(out, (int)crc.getValue());
+            writeIntLE(out, length);
+
+            spare.add(data);
+            return ByteBuffer.wrap(out.toByteArray());
+        } finally {
+            deflater.end();
+        }
+    }
+
+    private static ExecutorService createPool()
+    {
+        int threads = Runtime.getRuntime().availableProcessors();
+        ThreadPoolExecutor pool = new ThreadPoolExecutor(threads, threads, IDLE_SECONDS, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<>(), r -> {
+            Thread t = new Thread(r, "gzip-block-compressor");
+            t.setDaemon(true);
+            return t;
+        });
+        pool.allowCoreThreadTimeOut(true);
+        return pool;
+    }
+
+    private static void writeIntLE(ByteArrayOutputStream out, int v)
+    {
+        out.write(v);
+        out.write(v >>> 8);
+        out.write(v >>> 16);
+        out.write(v >>> 24);
+    }
+}
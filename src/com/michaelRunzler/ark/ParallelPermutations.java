@@ -0,0 +1,291 @@
+package com.michaelRunzler.ark;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinWorkerThread;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Generates permutations on a {@link ForkJoinPool}. The permutation space is split into independent subtrees by fixing
+ * one or more leading entries, and each subtree is written to its own segment file. Because subtrees are enumerated in
+ * the same order that their prefixes sort in, concatenating the segments in order produces output that is identical to
+ * a sequential run. In formats with a file header, only the first segment gets one unless the segments are being left
+ * as separate files.
+ */
+public class ParallelPermutations
+{
+    // How many subtrees to aim for per worker thread, so that uneven subtrees still balance out across the pool
+    private static final int SUBTREES_PER_THREAD = 8;
+
+    // The most threads the shared pool will run at once, across every job
+    private static final int MAX_POOL_THREADS = 256;
+
+    // Shared by every parallel job in the process. It only starts threads as work arrives and retires them once they
+    // go idle, so a large limit costs nothing; each call to invokeAll keeps to its own parallelism within it.
+    private static final ForkJoinPool POOL = new ForkJoinPool(Math.max(MAX_POOL_THREADS, Runtime.getRuntime().availableProcessors()),
+            pool -> {
+        ForkJoinWorkerThread t = ForkJoinPool.defaultForkJoinWorkerThreadFactory.newThread(pool);
+        t.setName("permutation-worker-" + t.getPoolIndex());
+        return t;
+    }, null, false);
+
+    /**
+     * Writes every permutation of the provided index array to the output file in parallel.
+     * @param sorted the sorted index array to permute. This array is not modified.
+     * @param sinks opens the sink that each segment is written to
+     * @param output the file to write to. If {@code segmented} is {@code true}, this is only used to name the segments.
+     * @param parallelism the number of worker threads to use
+     * @param segmented {@code true} to leave the output in numbered segment files rather than concatenating them
+     * @return the list of files that were written, in lexicographical order
+     */
+    public static List<File> write(int[] sorted, PermutationSink.Factory sinks, File output, int parallelism,
+                                   boolean segmented) throws IOException
+    {
+        List<int[]> prefixes = new ArrayList<>();
+        int depth = split(sorted, parallelism * SUBTREES_PER_THREAD, prefixes);
+
+        // Each subtree writes its own segment, named by its position in the overall ordering
+        List<File> segments = new ArrayList<>();
+        List<Callable<Void>> tasks = new ArrayList<>();
+        for(int i = 0; i < prefixes.size(); i++)
+        {
+            File segment = segmentFile(output, i + 1, prefixes.size());
+            int[] p = prefixes.get(i);
+            boolean header = segmented || i == 0;
+            segments.add(segment);
+            tasks.add(() -> {
+                try(PermutationSink out = sinks.open(segment, 0, header)) {
+                    do out.write(p); while(Permutator.nextPermutation(p, depth));
+                }
+                return null;
+            });
+        }
+
+        return run(tasks, segments, output, parallelism, segmented);
+    }
+
+    /**
+     * Writes a contiguous range of the permutations of the provided index array to the output file in parallel. The
+     * range is split into equally-sized rank ranges, each of which starts from its own unranked permutation.
+     * @param sorted the sorted index array to permute. This array is not modified.
+     * @param sinks opens the sink that each segment is written to
+     * @param output the file to write to. If {@code segmented} is {@code true}, this is only used to name the segments.
+     * @param parallelism the number of worker threads to use
+     * @param segmented {@code true} to leave the output in numbered segment files rather than concatenating them
+     * @param start the rank of the first permutation to write
+     * @param length the number of permutations to write
+     * @return the list of files that were written, in lexicographical order
+     */
+    public static List<File> write(int[] sorted, PermutationSink.Factory sinks, File output, int parallelism,
+                                   boolean segmented, long start, long length) throws IOException
+    {
+        int chunks = (int)Math.max(1, Math.min(length, (long)parallelism * SUBTREES_PER_THREAD));
+
+        List<File> segments = new ArrayList<>();
+        List<Callable<Void>> tasks = new ArrayList<>();
+        for(int i = 0; i < chunks; i++)
+        {
+            // Spread the remainder over the first few chunks so that chunk sizes differ by at most one
+            long from = start + (length / chunks) * i + Math.min(i, length % chunks);
+            long size = length / chunks + (i < length % chunks ? 1 : 0);
+            File segment = segmentFile(output, i + 1, chunks);
+            boolean header = segmented || i == 0;
+            segments.add(segment);
+            tasks.add(() -> {
+                try(PermutationSink out = sinks.open(segment, 0, header)) {
+                    if(size == 0) return null;
+                    int[] p = Permutator.unrank(from, sorted);
+                    long remaining = size;
+                    do out.write(p); while(--remaining > 0 && Permutator.nextPermutation(p));
+                }
+                return null;
+            });
+        }
+
+        return run(tasks, segments, output, parallelism, segmented);
+    }
+
+    // Runs the provided segment tasks on the shared pool, and concatenates their output unless asked not to. If any task
+    // fails or is cancelled, every segment is deleted, since a partial set of segments can't be resumed.
+    static List<File> run(List<Callable<Void>> tasks, List<File> segments, File output, int parallelism,
+                          boolean segmented) throws IOException
+    {
+        boolean complete = false;
+        try {
+            invokeAll(tasks, parallelism);
+            complete = true;
+        } finally {
+            if(!complete) for(File segment : segments) segment.delete();
+        }
+
+        if(segmented) return segments;
+
+        concatenate(segments, output);
+        List<File> result = new ArrayList<>();
+        result.add(output);
+        return result;
+    }
+
+    /**
+     * Runs tasks on the shared fork-join pool, no more than {@code parallelism} of them at once, and waits for them to
+     * finish. Once a task fails, the tasks that haven't started yet are skipped, and only the ones already running are
+     * waited for, since they can't be stopped safely part way through a write. The first failure is then rethrown as it
+     * was thrown by the task: I/O errors as {@link IOException}s (including those wrapped in an
+     * {@link UncheckedIOException}), and other unchecked exceptions unchanged.
+     * This must not be called from one of the pool's own tasks.
+     * @param tasks the tasks to run
+     * @param parallelism the most tasks to run at once
+     */
+    public static void invokeAll(List<Callable<Void>> tasks, int parallelism) throws IOException
+    {
+        CompletionService<Void> done = new ExecutorCompletionService<>(POOL);
+        AtomicBoolean stopped = new AtomicBoolean();
+        Iterator<Callable<Void>> next = tasks.iterator();
+        int running = 0;
+        Throwable failure = null;
+        try {
+            while(failure == null && (next.hasNext() || running > 0))
+            {
+                // Keep the window full, so that this call never has more than its share of the pool's threads
+                while(next.hasNext() && running < Math.max(1, parallelism)) {
+                    Callable<Void> task = next.next();
+                    done.submit(() -> stopped.get() ? null : task.call());
+                    running++;
+                }
+
+                Future<Void> f = done.take();
+                running--;
+                try {
+                    f.get();
+                } catch (ExecutionException e) {
+                    failure = unwrap(e.getCause());
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            failure = new IOException("Interrupted while waiting for permutation tasks to complete.", e);
+        } finally {
+            // Anything still queued returns as soon as it starts; anything already running is left to finish, so that
+            // the caller can clean up after it
+            stopped.set(true);
+            try {
+                for(; running > 0; running--) done.take();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+
+        if(failure instanceof IOException) throw (IOException)failure;
+        if(failure instanceof UncheckedIOException) throw ((UncheckedIOException)failure).getCause();
+        if(failure instanceof RuntimeException) throw (RuntimeException)failure;
+        if(failure instanceof Error) throw (Error)failure;
+        if(failure != null) throw new IOException("Permutation task failed.", failure);
+    }
+
+    // The pool wraps checked exceptions thrown by a task in a RuntimeException, and rethrows exceptions on the waiting
+    // thread wrapped in a fresh copy of themselves, so peel both of those off to get back what the task threw
+    private static Throwable unwrap(Throwable t)
+    {
+        while(t.getCause() != null && (t.getClass() == RuntimeException.class || (t.getClass() == t.getCause().getClass()
+                && t.getCause().toString().equals(t.getMessage()))))
+            t = t.getCause();
+        return t;
+    }
+
+    /**
+     * Splits the permutation space of a sorted index array into subtrees, by fixing successively more leading entries
+     * until there are at least {@code target} subtrees or only one entry is left to permute in each.
+     * @param sorted the sorted index array to split. This array is not modified.
+     * @param target the minimum number of subtrees to aim for
+     * @return the starting permutation of each subtree, in lexicographical order. Every array in the list has the same
+     * number of fixed leading entries, and a sorted suffix.
+     */
+    public static List<int[]> split(int[] sorted, int target)
+    {
+        List<int[]> prefixes = new ArrayList<>();
+        split(sorted, target, prefixes);
+        return prefixes;
+    }
+
+    // Splits the permutation space into the provided list, and returns the number of leading entries that were fixed
+    private static int split(int[] sorted, int target, List<int[]> result)
+    {
+        List<int[]> prefixes = new ArrayList<>();
+        prefixes.add(sorted.clone());
+
+        int depth = 0;
+        for(; depth < sorted.length - 1 && prefixes.size() < target; depth++)
+        {
+            List<int[]> next = new ArrayList<>();
+            for(int[] prefix : prefixes)
+            {
+                // Fix each distinct remaining entry in turn; moving it to the front keeps the rest of the suffix sorted
+                for(int i = depth; i < prefix.length; i++)
+                {
+                    if(i > depth && prefix[i] == prefix[i - 1]) continue;
+
+                    int[] child = prefix.clone();
+                    System.arraycopy(prefix, depth, child, depth + 1, i - depth);
+                    child[depth] = prefix[i];
+                    next.add(child);
+                }
+            }
+
+            prefixes = next;
+        }
+
+        result.addAll(prefixes);
+        return depth;
+    }
+
+    /**
+     * Gets the numbered segment file that a given subtree is written to.
+     * @param output the final output file
+     * @param index the one-based position of the segment in the overall ordering
+     * @param total the total number of segments
+     * @return a file in the same folder as the output file, with the segment number inserted before its first extension
+     */
+    public static File segmentFile(File output, int index, int total)
+    {
+        String name = output.getName();
+        int ext = name.indexOf('.');
+        String number = String.format("%0" + String.valueOf(total).length() + "d", index);
+
+        if(ext < 0) return new File(output.getParentFile(), name + "-" + number);
+        else return new File(output.getParentFile(), name.substring(0, ext) + "-" + number + name.substring(ext));
+    }
+
+    /**
+     * Concatenates the provided segment files into one output file in order, deleting each segment once it is copied.
+     * @param segments the segments to concatenate, in order
+     * @param output the file to write to, which is replaced if it already exists
+     */
+    public static void concatenate(List<File> segments, File output) throws IOException
+    {
+        try(FileChannel out = FileChannel.open(output.toPath(), StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING))
+        {
+            for(File segment : segments)
+            {
+                try(FileChannel in = FileChannel.open(segment.toPath(), StandardOpenOption.READ)) {
+                    long size = in.size();
+                    for(long pos = 0; pos < size; ) pos += in.transferTo(pos, size - pos, out);
+                }
+
+                if(!segment.delete()) throw new IOException("Could not delete segment file " + segment.getAbsolutePath());
+            }
+        }
+    }
+}
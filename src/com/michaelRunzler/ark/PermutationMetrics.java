@@ -0,0 +1,415 @@
+package com.michaelRunzler.ark;
+
+import javax.management.InstanceAlreadyExistsException;
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.lang.management.ManagementFactory;
+import java.math.BigInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.BooleanSupplier;
+import java.util.function.Consumer;
+
+/**
+ * Live progress counters for a {@link Permutator}'s current job. Writers only ever add to striped {@link LongAdder}s,
+ * and only in batches, so counting stays off the hot path even when many segments are written at once; readers take a
+ * consistent-enough {@link Snapshot} whenever they like, usually from a reporter thread started with
+ * {@link #report(long, Consumer)}.
+ * The same counters can also be published as a JMX MBean with {@link #register(String)}.
+ */
+public class PermutationMetrics implements PermutationMetricsMBean
+{
+    // How many permutations a counting sink writes between updates to the shared counters
+    private static final int PUBLISH_MASK = (1 << 12) - 1;
+
+    private final LongAdder emitted = new LongAdder();
+    private final LongAdder skipped = new LongAdder();
+    private final LongAdder bytes = new LongAdder();
+    private volatile long startNanos;
+    private volatile long endNanos;
+    private volatile BigInteger total;
+    private volatile boolean running;
+    private ConstrainedPermutations.Stats pruning;
+
+    /**
+     * Resets every counter and starts timing a new job.
+     * @param total the exact number of permutations the job will produce, or {@code null} if it is not known in
+     *              advance (as with constrained jobs, where pruning decides how many are produced)
+     */
+    public void start(BigInteger total)
+    {
+        emitted.reset();
+        skipped.reset();
+        bytes.reset();
+        this.total = total;
+        this.endNanos = 0;
+        this.startNanos = System.nanoTime();
+        this.running = true;
+        synchronized(this) {
+            this.pruning = null;
+        }
+    }
+
+    /**
+     * Stops timing the current job. Counters keep their final values until the next call to {@link #start(BigInteger)}.
+     */
+    public void finish()
+    {
+        endNanos = System.nanoTime();
+        running = false;
+    }
+
+    /**
+     * Records permutations that count towards the job's total without being written by this run, such as those
+     * already written before a resumed job was interrupted. They are included in the progress and ETA, but not the
+     * rate.
+     * @param count the number of permutations to record
+     */
+    public void skip(long count) {
+        skipped.add(count);
+    }
+
+    /**
+     * Records permutations and bytes that have been written.
+     * @param permutations the number of permutations written since the last call
+     * @param written the number of bytes written since the last call
+     */
+    public void add(long permutations, long written)
+    {
+        if(permutations != 0) emitted.add(permutations);
+        if(written != 0) bytes.add(written);
+    }
+
+    /**
+     * Records how much of the permutation space a constrained search pruned. Jobs that search several times, such as
+     * one per input string, add up the results of every search.
+     * @param stats the results of a single search
+     */
+    public synchronized void addPruning(ConstrainedPermutations.Stats stats)
+    {
+        if(pruning == null) pruning = new ConstrainedPermutations.Stats();
+        pruning.generated += stats.generated;
+        pruning.prunedSubtrees += stats.prunedSubtrees;
+        pruning.prunedPermutations = pruning.prunedPermutations.add(stats.prunedPermutations);
+    }
+
+    /**
+     * Gets how much of the permutation space constraints pruned in the current or last job.
+     * @return a copy of the totals so far, or {@code null} if the job was not constrained
+     */
+    public synchronized ConstrainedPermutations.Stats getPruning()
+    {
+        if(pruning == null) return null;
+        ConstrainedPermutations.Stats copy = new ConstrainedPermutations.Stats();
+        copy.generated = pruning.generated;
+        copy.prunedSubtrees = pruning.prunedSubtrees;
+        copy.prunedPermutations = pruning.prunedPermutations;
+        return copy;
+    }
+
+    /**
+     * Wraps a sink so that everything written to it is counted. Permutations are counted locally and added to the
+     * shared counters every few thousand writes, and once more when the sink is closed. Each time the counters are
+     * updated after a write, the job is also checked for cancellation, so that every generator loop that writes
+     * through the sink stops promptly without having to check for itself.
+     * @param sink the sink to count writes to
+     * @param output the file that the sink writes to, which is measured when the sink is closed to get the exact
+     *               number of bytes written, even when the output is compressed
+     * @param offset the offset in the file that the sink started writing at
+     * @param cancelled reports whether the job has been cancelled. If it has, the write that found out throws an
+     *                  {@link InterruptedIOException} once the permutation it was given has been written in full.
+     * @return the counting sink
+     */
+    public PermutationSink counting(PermutationSink sink, File output, long offset, BooleanSupplier cancelled) {
+        return new CountingSink(sink, output, offset, cancelled);
+    }
+
+    /**
+     * Takes a snapshot of the current job's progress.
+     * @return the snapshot
+     */
+    public Snapshot snapshot()
+    {
+        long start = startNanos;
+        long end = running ? System.nanoTime() : endNanos;
+        return new Snapshot(emitted.sum(), skipped.sum(), bytes.sum(), start == 0 ? 0 : Math.max(0, end - start),
+                total, running);
+    }
+
+    /**
+     * Starts a daemon thread that passes a snapshot to a consumer at a fixed interval, and once more when it is
+     * closed. Nothing else needs to synchronize with the job being measured.
+     * @param intervalMillis the time between snapshots, in milliseconds
+     * @param consumer receives each snapshot. Called on the reporter thread, except for the final call, which is made
+     *                 by the thread that closes the reporter.
+     * @return a handle that stops the reporter when closed
+     */
+    public Closeable report(long intervalMillis, Consumer<Snapshot> consumer)
+    {
+        Thread reporter = new Thread(() -> {
+            try {
+                while(!Thread.currentThread().isInterrupted()) {
+                    Thread.sleep(intervalMillis);
+                    consumer.accept(snapshot());
+                }
+            } catch (InterruptedException ignored) {}
+        }, "permutation-metrics");
+        reporter.setDaemon(true);
+        reporter.start();
+
+        return () -> {
+            reporter.interrupt();
+            try {
+                reporter.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            consumer.accept(snapshot());
+        };
+    }
+
+    /**
+     * Publishes these counters to the platform MBean server, so that they can be watched with JConsole, VisualVM or
+     * any other JMX client. Registering the same name again replaces the previous registration.
+     * @param name the value of the {@code name} key in the MBean's object name, usually the Permutator's description
+     * @return the object name the counters were registered under
+     * @throws IllegalStateException if the MBean could not be registered
+     */
+    public ObjectName register(String name)
+    {
+        try {
+            ObjectName on = new ObjectName("com.michaelRunzler.ark:type=Permutator,name=" + ObjectName.quote(name));
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            try {
+                server.registerMBean(this, on);
+            } catch (InstanceAlreadyExistsException e) {
+                server.unregisterMBean(on);
+                server.registerMBean(this, on);
+            }
+            return on;
+        } catch (JMException e) {
+            throw new IllegalStateException("Could not register permutation metrics MBean.", e);
+        }
+    }
+
+    @Override
+    public long getPermutationsEmitted() {
+        return emitted.sum();
+    }
+
+    @Override
+    public long getPermutationsSkipped() {
+        return skipped.sum();
+    }
+
+    @Override
+    public long getBytesWritten() {
+        return bytes.sum();
+    }
+
+    @Override
+    public String getTotalPermutations()
+    {
+        BigInteger t = total;
+        return t == null ? null : t.toString();
+    }
+
+    @Override
+    public double getPermutationsPerSecond() {
+        return snapshot().rate();
+    }
+
+    @Override
+    public long getElapsedMillis() {
+        return snapshot().elapsedNanos / 1_000_000L;
+    }
+
+    @Override
+    public long getEtaMillis()
+    {
+        long eta = snapshot().etaNanos();
+        return eta < 0 ? -1 : eta / 1_000_000L;
+    }
+
+    @Override
+    public double getFractionComplete() {
+        return snapshot().fraction();
+    }
+
+    @Override
+    public boolean isRunning() {
+        return running;
+    }
+
+    /**
+     * The state of a job at a single point in time.
+     */
+    public static class Snapshot
+    {
+        /**
+         * The number of permutations written by this run.
+         */
+        public final long emitted;
+
+        /**
+         * The number of permutations that were already complete when this run started.
+         */
+        public final long skipped;
+
+        /**
+         * The number of bytes written by this run.
+         */
+        public final long bytes;
+
+        /**
+         * The time since the job started, in nanoseconds.
+         */
+        public final long elapsedNanos;
+
+        /**
+         * The exact number of permutations in the job, or {@code null} if it is not known.
+         */
+        public final BigInteger total;
+
+        /**
+         * Whether the job was still running when the snapshot was taken.
+         */
+        public final boolean running;
+
+        Snapshot(long emitted, long skipped, long bytes, long elapsedNanos, BigInteger total, boolean running)
+        {
+            this.emitted = emitted;
+            this.skipped = skipped;
+            this.bytes = bytes;
+            this.elapsedNanos = elapsedNanos;
+            this.total = total;
+            this.running = running;
+        }
+
+        /**
+         * Gets the average number of permutations written per second since the job started.
+         * @return the rate, or zero if no time has passed yet
+         */
+        public double rate() {
+            return elapsedNanos == 0 ? 0.0 : emitted * 1e9 / elapsedNanos;
+        }
+
+        /**
+         * Gets how much of the job is complete.
+         * @return a value from zero to one, or -1 if the total is not known
+         */
+        public double fraction()
+        {
+            if(total == null) return -1;
+            if(total.signum() == 0) return 1.0;
+            return Math.min(1.0, (emitted + skipped) / total.doubleValue());
+        }
+
+        /**
+         * Estimates how long the rest of the job will take at the average rate so far.
+         * @return the estimate in nanoseconds, or -1 if the total or the rate is not known yet. Jobs too large to
+         * finish within {@link Long#MAX_VALUE} nanoseconds report that value.
+         */
+        public long etaNanos()
+        {
+            if(total == null || emitted == 0) return -1;
+            double left = total.doubleValue() - emitted - skipped;
+            if(left <= 0) return 0;
+            double eta = left * elapsedNanos / emitted;
+            return eta >= Long.MAX_VALUE ? Long.MAX_VALUE : (long)eta;
+        }
+
+        /**
+         * Gets a one-line summary, suitable for periodic console output.
+         * @return the summary
+         */
+        @Override
+        public String toString()
+        {
+            StringBuilder sb = new StringBuilder();
+            sb.append(String.format("%,d", emitted + skipped));
+            if(total != null) sb.append(String.format(" of %,d (%.1f%%)", total, fraction() * 100));
+            sb.append(String.format(", %s/s, %s written, %s elapsed", scaled(rate()), Units.bytes(bytes), Units.duration(elapsedNanos)));
+
+            long eta = etaNanos();
+            if(running && eta >= 0) sb.append(", ETA ").append(Units.duration(eta));
+            return sb.toString();
+        }
+
+        private static String scaled(double v)
+        {
+            if(v >= 1e9) return String.format("%.2fG", v / 1e9);
+            if(v >= 1e6) return String.format("%.2fM", v / 1e6);
+            if(v >= 1e3) return String.format("%.1fk", v / 1e3);
+            return String.format("%.0f", v);
+        }
+    }
+
+    // Counts writes to a sink, publishing them to the shared counters in batches
+    private class CountingSink implements PermutationSink
+    {
+        private final PermutationSink sink;
+        private final File output;
+        private final long offset;
+        private final BooleanSupplier cancelled;
+        private long pending;
+        private long published;
+
+        CountingSink(PermutationSink sink, File output, long offset, BooleanSupplier cancelled)
+        {
+            this.sink = sink;
+            this.output = output;
+            this.offset = offset;
+            this.cancelled = cancelled;
+        }
+
+        @Override
+        public void write(int[] p) throws IOException {
+            write(p, 0);
+        }
+
+        @Override
+        public void write(int[] p, int unchanged) throws IOException
+        {
+            sink.write(p, unchanged);
+            if((++pending & PUBLISH_MASK) == 0) {
+                publish(sink.position() - offset);
+                if(cancelled.getAsBoolean()) throw new InterruptedIOException("The job was cancelled.");
+            }
+        }
+
+        @Override
+        public long position() throws IOException {
+            return sink.position();
+        }
+
+        @Override
+        public void flush() throws IOException
+        {
+            sink.flush();
+            publish(sink.position() - offset);
+        }
+
+        @Override
+        public void close() throws IOException
+        {
+            try {
+                sink.close();
+            } finally {
+                publish(output.length() - offset);
+            }
+        }
+
+        // Adds everything since the last update to the shared counters
+        private void publish(long written)
+        {
+            add(pending, Math.max(0, written - published));
+            published = Math.max(published, written);
+            pending = 0;
+        }
+    }
+}
@@ -0,0 +1,52 @@
+package com.michaelRunzler.ark;
+
+/**
+ * The JMX view of a {@link PermutationMetrics} object.
+ */
+public interface PermutationMetricsMBean
+{
+    /**
+     * @return the number of permutations written by the current or last job
+     */
+    long getPermutationsEmitted();
+
+    /**
+     * @return the number of permutations that were already complete when the current or last job was resumed
+     */
+    long getPermutationsSkipped();
+
+    /**
+     * @return the number of bytes written by the current or last job
+     */
+    long getBytesWritten();
+
+    /**
+     * @return the exact number of permutations in the current or last job, or {@code null} if it is not known
+     */
+    String getTotalPermutations();
+
+    /**
+     * @return the average number of permutations written per second
+     */
+    double getPermutationsPerSecond();
+
+    /**
+     * @return the time since the job started, in milliseconds
+     */
+    long getElapsedMillis();
+
+    /**
+     * @return the estimated time left, in milliseconds, or -1 if it is not known
+     */
+    long getEtaMillis();
+
+    /**
+     * @return how much of the job is complete, from zero to one, or -1 if the total is not known
+     */
+    double getFractionComplete();
+
+    /**
+     * @return whether a job is currently running
+     */
+    boolean isRunning();
+}
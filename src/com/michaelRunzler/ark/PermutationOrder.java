@@ -0,0 +1,26 @@
+package com.michaelRunzler.ark;
+
+/**
+ * The orders in which a {@link Permutator} can enumerate permutations.
+ */
+public enum PermutationOrder
+{
+    /**
+     * Ascending lexicographical order. Each distinct arrangement of repeated entries is only produced once, and this is
+     * the only order that supports rank ranges, parallel generation and checkpoints. A single step may reverse an
+     * arbitrarily long suffix.
+     */
+    LEXICOGRAPHIC,
+
+    /**
+     * Heap's algorithm. Every step swaps exactly two entries, which need not be adjacent. Every position is treated as
+     * distinct, so all n! arrangements are produced even if some entries are equal.
+     */
+    HEAP,
+
+    /**
+     * The Steinhaus-Johnson-Trotter algorithm, with Even's speedup. Every step swaps exactly two adjacent entries.
+     * Every position is treated as distinct, so all n! arrangements are produced even if some entries are equal.
+     */
+    SJT
+}
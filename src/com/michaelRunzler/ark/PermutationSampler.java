@@ -0,0 +1,313 @@
+package com.michaelRunzler.ark;
+
+import java.io.File;
+import java.io.IOException;
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.SplittableRandom;
+import java.util.concurrent.Callable;
+
+/**
+ * Writes a uniformly random sample of the permutations (or selections) of an index array, without enumerating the
+ * rest of them, so the cost of a sample depends only on its size: a million permutations of 20 entries take no longer
+ * than a million of 12.
+ * <p>
+ * Full permutations are drawn with a Fisher-Yates shuffle of the sorted array, which picks every distinct arrangement
+ * of a multiset with the same probability. Selections are drawn as uniformly random ranks, and unranked. When a sample
+ * must not repeat itself, every rank is drawn up front with Floyd's algorithm, which takes exactly one random draw per
+ * sample however many of them collide, and the ranks are then shuffled so that they are written in random order.
+ * Ranks already drawn are tracked in a bitmap if the permutation space is small enough for that to be compact, and in
+ * a hash set otherwise.
+ * <p>
+ * Random numbers come from {@link SplittableRandom}s split off one seeded generator, one per fixed-size chunk of the
+ * sample, so the same seed always produces the same sample, however many threads write it.
+ */
+public class PermutationSampler
+{
+    // How many samples are drawn from each split generator
+    private static final int CHUNK_SIZE = 1 << 16;
+
+    // How many segments to aim for per worker thread, so that uneven segments still balance out across the pool
+    private static final int SEGMENTS_PER_THREAD = 8;
+
+    // A bitmap is used to track drawn ranks if it takes no more than this many bits per sample
+    private static final long BITMAP_BITS_PER_SAMPLE = 64;
+
+    private PermutationSampler() {}
+
+    /**
+     * Writes a random sample of the permutations or selections of an index array, in parallel.
+     * @param mode the kind of selection to sample
+     * @param sorted the sorted index array to sample from. This array is not modified.
+     * @param k the number of entries in each selection
+     * @param sinks opens the sink that each segment is written to
+     * @param output the file to write to. If {@code segmented} is {@code true}, this is only used to name the segments.
+     * @param count the number of samples to write
+     * @param seed the seed to draw samples with
+     * @param distinct {@code true} to write every sample at most once
+     * @param parallelism the number of worker threads to use
+     * @param segmented {@code true} to leave the output in numbered segment files rather than concatenating them
+     * @return the list of files that were written, in order
+     * @throws IllegalArgumentException if more distinct samples are asked for than there are permutations to draw
+     * @throws UnsupportedOperationException if there are too many distinct samples to keep track of
+     */
+    public static List<File> write(SelectionMode mode, int[] sorted, int k, PermutationSink.Factory sinks, File output,
+                                   long count, long seed, boolean distinct, int parallelism, boolean segmented) throws IOException
+    {
+        BigInteger total = Selections.count(mode, sorted, k);
+        if(count > 0 && total.signum() == 0) throw new IllegalArgumentException("There are no permutations to sample.");
+        if(distinct && total.compareTo(BigInteger.valueOf(count)) < 0)
+            throw new IllegalArgumentException("Can't draw " + count + " distinct samples from " + total + " permutations.");
+
+        SplittableRandom random = new SplittableRandom(seed);
+        Sampler sampler;
+        if(distinct) sampler = distinctRanks(random, total, count, mode, sorted, k);
+        else if(mode == SelectionMode.PERMUTATIONS) sampler = (rng, i) -> shuffle(rng, sorted.clone());
+        else sampler = (rng, i) -> Arrays.copyOf(Selections.unrank(mode, below(rng, total), sorted, k), k);
+
+        // Each chunk gets its own generator, split off in order, so that which thread writes it makes no difference
+        int chunks = (int)Math.min(Integer.MAX_VALUE, (count + CHUNK_SIZE - 1) / CHUNK_SIZE);
+        SplittableRandom[] generators = new SplittableRandom[chunks];
+        for(int c = 0; c < chunks; c++) generators[c] = random.split();
+
+        if(parallelism <= 1 && !segmented) {
+            try(PermutationSink out = sinks.open(output, 0, true)) {
+                writeChunks(out, sampler, generators, 0, chunks, count);
+            } catch (IOException | RuntimeException e) {
+                output.delete();
+                throw e;
+            }
+            List<File> result = new ArrayList<>();
+            result.add(output);
+            return result;
+        }
+
+        // Split the chunks into contiguous segments, each written by its own task
+        int segments = Math.max(1, Math.min(chunks, parallelism * SEGMENTS_PER_THREAD));
+        List<File> files = new ArrayList<>();
+        List<Callable<Void>> tasks = new ArrayList<>();
+        for(int i = 0; i < segments; i++)
+        {
+            int from = (chunks / segments) * i + Math.min(i, chunks % segments);
+            int to = from + chunks / segments + (i < chunks % segments ? 1 : 0);
+            File segment = ParallelPermutations.segmentFile(output, i + 1, segments);
+            boolean header = segmented || i == 0;
+            files.add(segment);
+            tasks.add(() -> {
+                try(PermutationSink out = sinks.open(segment, 0, header)) {
+                    writeChunks(out, sampler, generators, from, to, count);
+                }
+                return null;
+            });
+        }
+
+        return ParallelPermutations.run(tasks, files, output, parallelism, segmented);
+    }
+
+    // Writes the samples in a contiguous run of chunks
+    private static void writeChunks(PermutationSink out, Sampler sampler, SplittableRandom[] generators, int from,
+                                    int to, long count) throws IOException
+    {
+        for(int c = from; c < to; c++)
+        {
+            SplittableRandom rng = generators[c];
+            long last = Math.min(count, (c + 1L) * CHUNK_SIZE);
+            for(long i = (long)c * CHUNK_SIZE; i < last; i++) out.write(sampler.draw(rng, i));
+        }
+    }
+
+    // Draws every rank of a sample without repeats, in random order, and returns a sampler that unranks them in turn
+    private static Sampler distinctRanks(SplittableRandom random, BigInteger total, long count, SelectionMode mode,
+                                         int[] sorted, int k)
+    {
+        if(count > Integer.MAX_VALUE - 8)
+            throw new UnsupportedOperationException("Can't keep track of more than " + (Integer.MAX_VALUE - 8) + " distinct samples.");
+        int size = (int)count;
+
+        // Ranks of permutations of distinct entries can be decoded as Lehmer codes, which is far cheaper than the
+        // general multiset unranking
+        boolean plain = mode == SelectionMode.PERMUTATIONS && isStrictlyIncreasing(sorted);
+        BigInteger[] factorials = new BigInteger[sorted.length];
+        for(int m = 0; m < factorials.length; m++) factorials[m] = m == 0 ? BigInteger.ONE : factorials[m - 1].multiply(BigInteger.valueOf(m));
+
+        // Ranks of large permutation spaces don't fit in a long, but then again they almost never collide either
+        if(total.bitLength() >= 63)
+        {
+            BigInteger[] ranks = new BigInteger[size];
+            Set<BigInteger> drawn = new HashSet<>();
+            BigInteger j = total.subtract(BigInteger.valueOf(count));
+            for(int i = 0; i < size; i++, j = j.add(BigInteger.ONE))
+            {
+                // Floyd's algorithm: take a rank at or below j, or j itself if that rank was already taken
+                BigInteger r = below(random, j.add(BigInteger.ONE));
+                if(!drawn.add(r)) {
+                    r = j;
+                    drawn.add(j);
+                }
+                ranks[i] = r;
+            }
+
+            for(int i = size - 1; i > 0; i--) {
+                int s = random.nextInt(i + 1);
+                BigInteger t = ranks[i];
+                ranks[i] = ranks[s];
+                ranks[s] = t;
+            }
+            return (rng, i) -> plain ? unrankDistinct(ranks[(int)i], sorted, factorials) : unrank(mode, ranks[(int)i], sorted, k);
+        }
+
+        long n = total.longValue();
+        long[] ranks = new long[size];
+        RankSet drawn = n <= Integer.MAX_VALUE && n <= count * BITMAP_BITS_PER_SAMPLE ? new RankBitmap((int)n) : new RankHashSet();
+        for(long i = 0, j = n - count; i < size; i++, j++)
+        {
+            // Floyd's algorithm: take a rank at or below j, or j itself if that rank was already taken
+            long r = random.nextLong(j + 1);
+            if(!drawn.add(r)) {
+                r = j;
+                drawn.add(j);
+            }
+            ranks[(int)i] = r;
+        }
+
+        for(int i = size - 1; i > 0; i--) {
+            int s = random.nextInt(i + 1);
+            long t = ranks[i];
+            ranks[i] = ranks[s];
+            ranks[s] = t;
+        }
+
+        return (rng, i) -> plain ? unrankDistinct(BigInteger.valueOf(ranks[(int)i]), sorted, factorials)
+                : unrank(mode, BigInteger.valueOf(ranks[(int)i]), sorted, k);
+    }
+
+    // Decodes the rank of a permutation of distinct entries as a Lehmer code, switching to long arithmetic as soon as
+    // what is left of the rank is sure to fit in one
+    private static int[] unrankDistinct(BigInteger rank, int[] sorted, BigInteger[] factorials)
+    {
+        int n = sorted.length;
+        int[] remaining = sorted.clone();
+        int[] p = new int[n];
+        long small = -1;
+        for(int i = 0; i < n; i++)
+        {
+            // What is left of the rank is below (m + 1)!, which fits in a long once m is below 20
+            int m = n - 1 - i;
+            int digit;
+            if(m < 20) {
+                if(small < 0) small = rank.longValue();
+                long f = Permutator.factorial(m);
+                digit = (int)(small / f);
+                small %= f;
+            } else {
+                BigInteger[] qr = rank.divideAndRemainder(factorials[m]);
+                digit = qr[0].intValue();
+                rank = qr[1];
+            }
+
+            p[i] = remaining[digit];
+            System.arraycopy(remaining, digit + 1, remaining, digit, m - digit);
+        }
+
+        return p;
+    }
+
+    // Gets the entries of the selection with the provided rank
+    private static int[] unrank(SelectionMode mode, BigInteger rank, int[] sorted, int k)
+    {
+        int[] p = Selections.unrank(mode, rank, sorted, k);
+        return mode == SelectionMode.PERMUTATIONS ? p : Arrays.copyOf(p, k);
+    }
+
+    // Shuffles an array in place into a uniformly random arrangement, and returns it
+    private static int[] shuffle(SplittableRandom rng, int[] p)
+    {
+        for(int i = p.length - 1; i > 0; i--)
+        {
+            int j = rng.nextInt(i + 1);
+            int t = p[i];
+            p[i] = p[j];
+            p[j] = t;
+        }
+
+        return p;
+    }
+
+    /**
+     * Draws a uniformly random number from zero up to, but not including, a bound of any size.
+     * @param rng the generator to draw with
+     * @param bound the exclusive upper bound, which must be positive
+     * @return the number
+     */
+    static BigInteger below(SplittableRandom rng, BigInteger bound)
+    {
+        if(bound.bitLength() < 63) return BigInteger.valueOf(rng.nextLong(bound.longValue()));
+
+        // Draw as many random bits as the bound has until the result falls under it, which takes two tries at worst
+        // on average
+        int bits = bound.bitLength();
+        byte[] bytes = new byte[(bits + 7) / 8];
+        while(true)
+        {
+            for(int i = 0; i < bytes.length; i += 8)
+            {
+                long r = rng.nextLong();
+                for(int b = i; b < Math.min(bytes.length, i + 8); b++, r >>>= 8) bytes[b] = (byte)r;
+            }
+
+            bytes[0] &= (byte)(0xFF >>> (bytes.length * 8 - bits));
+            BigInteger r = new BigInteger(1, bytes);
+            if(r.compareTo(bound) < 0) return r;
+        }
+    }
+
+    private static boolean isStrictlyIncreasing(int[] sorted)
+    {
+        for(int i = 1; i < sorted.length; i++) if(sorted[i] == sorted[i - 1]) return false;
+        return true;
+    }
+
+    // Draws the sample with a given position in the overall sample
+    private interface Sampler {
+        int[] draw(SplittableRandom rng, long index);
+    }
+
+    // The set of ranks already drawn for a sample without repeats
+    private interface RankSet {
+        boolean add(long rank);
+    }
+
+    // One bit per rank in the permutation space
+    private static class RankBitmap implements RankSet
+    {
+        private final BitSet bits;
+
+        RankBitmap(int size) {
+            this.bits = new BitSet(size);
+        }
+
+        @Override
+        public boolean add(long rank)
+        {
+            if(bits.get((int)rank)) return false;
+            bits.set((int)rank);
+            return true;
+        }
+    }
+
+    // Ranks that have been drawn, for permutation spaces too large for a bitmap
+    private static class RankHashSet implements RankSet
+    {
+        private final Set<Long> ranks = new HashSet<>();
+
+        @Override
+        public boolean add(long rank) {
+            return ranks.add(rank);
+        }
+    }
+}
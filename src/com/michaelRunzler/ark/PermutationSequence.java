@@ -0,0 +1,190 @@
+package com.michaelRunzler.ark;
+
+/**
+ * Steps an index array through its permutations in a given {@link PermutationOrder}. The array is mutated in place;
+ * every call to {@link #next()} moves it on to the next permutation in the sequence.
+ * For the minimal-change orders, {@link #swapA()} and {@link #swapB()} give the two positions exchanged by the most
+ * recent step, so that consumers can update only what changed instead of reprocessing the whole permutation.
+ */
+public abstract class PermutationSequence
+{
+    protected final int[] p;
+
+    // The lower of the two positions swapped by the most recent step, or -1 if it was not a single swap
+    private int swapA = -1;
+
+    // The higher of the two positions swapped by the most recent step, or -1 if it was not a single swap
+    private int swapB = -1;
+
+    protected PermutationSequence(int[] p) {
+        this.p = p;
+    }
+
+    /**
+     * Creates a new sequence that steps the provided array through its permutations.
+     * @param order the order to enumerate permutations in
+     * @param p the array to permute, in its starting arrangement. For the minimal-change orders, the sequence always
+     *          covers all n! arrangements from wherever it starts; for lexicographical order, it ends once the array is
+     *          in descending order.
+     * @return the new sequence
+     */
+    public static PermutationSequence create(PermutationOrder order, int[] p)
+    {
+        switch(order) {
+            case HEAP: return new Heap(p);
+            case SJT: return new JohnsonTrotter(p);
+            default: return new Lexicographic(p);
+        }
+    }
+
+    /**
+     * Gets the array being permuted. This is always the same array, in its current arrangement.
+     * @return the current permutation
+     */
+    public int[] current() {
+        return p;
+    }
+
+    /**
+     * Moves the array on to the next permutation in the sequence.
+     * @return {@code true} if a new permutation has been generated; {@code false} if the sequence is complete
+     */
+    public abstract boolean next();
+
+    /**
+     * Gets the lower of the two positions exchanged by the most recent call to {@link #next()}. Every other entry of
+     * {@link #current()} is unchanged by that step.
+     * @return the position, or -1 if nothing has been stepped yet or the last step was not a single swap (as is always
+     * the case for lexicographical order)
+     */
+    public int swapA() {
+        return swapA;
+    }
+
+    /**
+     * Gets the higher of the two positions exchanged by the most recent call to {@link #next()}. See {@link #swapA()}.
+     * @return the position, or -1 if nothing has been stepped yet or the last step was not a single swap
+     */
+    public int swapB() {
+        return swapB;
+    }
+
+    /**
+     * Gets the number of leading entries of {@link #current()} that the most recent call to {@link #next()} left as
+     * they were.
+     * @return the number of unchanged leading entries; zero if that isn't known
+     */
+    public int unchangedPrefix() {
+        return swapA < 0 ? 0 : swapA;
+    }
+
+    // Exchanges two entries, recording them as the only change made by this step
+    protected void swap(int a, int b)
+    {
+        int temp = p[a];
+        p[a] = p[b];
+        p[b] = temp;
+        swapA = Math.min(a, b);
+        swapB = Math.max(a, b);
+    }
+
+    // Records that this step changed the array in some other way than a single swap
+    protected void clearSwap() {
+        swapA = swapB = -1;
+    }
+
+    // Lexicographical successor, as implemented by Permutator.nextPermutation
+    private static class Lexicographic extends PermutationSequence
+    {
+        Lexicographic(int[] p) {
+            super(p);
+        }
+
+        @Override
+        public boolean next()
+        {
+            clearSwap();
+            return Permutator.nextPermutation(p);
+        }
+    }
+
+    // Iterative form of Heap's algorithm
+    private static class Heap extends PermutationSequence
+    {
+        private final int[] c;
+        private int i = 1;
+
+        Heap(int[] p)
+        {
+            super(p);
+            c = new int[p.length];
+        }
+
+        @Override
+        public boolean next()
+        {
+            while(i < p.length)
+            {
+                if(c[i] < i) {
+                    swap(i % 2 == 0 ? 0 : c[i], i);
+                    c[i]++;
+                    i = 1;
+                    return true;
+                }
+
+                c[i] = 0;
+                i++;
+            }
+
+            return false;
+        }
+    }
+
+    // Steinhaus-Johnson-Trotter with Even's speedup. Works on a parallel array of distinct labels, so that repeated
+    // entries in the permuted array don't affect which element is mobile. Labels are checked from the largest down,
+    // and the largest label is mobile on all but one step in n, so each step takes amortized constant time.
+    private static class JohnsonTrotter extends PermutationSequence
+    {
+        private final int[] labels;
+        private final int[] position;
+        private final int[] direction;
+
+        JohnsonTrotter(int[] p)
+        {
+            super(p);
+            labels = new int[p.length];
+            position = new int[p.length];
+            direction = new int[p.length];
+            for(int i = 0; i < p.length; i++) {
+                labels[i] = i;
+                position[i] = i;
+                direction[i] = -1;
+            }
+        }
+
+        @Override
+        public boolean next()
+        {
+            // Find the largest mobile label: one that points at a smaller neighbour
+            for(int label = labels.length - 1; label > 0; label--)
+            {
+                int from = position[label];
+                int to = from + direction[label];
+                if(to < 0 || to >= labels.length || labels[to] > label) continue;
+
+                // Move it one step in its direction, then reverse the direction of every larger label
+                int other = labels[to];
+                labels[to] = label;
+                labels[from] = other;
+                position[label] = to;
+                position[other] = from;
+                swap(from, to);
+
+                for(int l = label + 1; l < labels.length; l++) direction[l] = -direction[l];
+                return true;
+            }
+
+            return false;
+        }
+    }
+}
@@ -0,0 +1,77 @@
+package com.michaelRunzler.ark;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+
+/**
+ * A destination that index permutations are written to, one at a time, in the order they are generated.
+ */
+public interface PermutationSink extends Closeable
+{
+    /**
+     * Opens sinks for a particular job, so that code that splits a job across several files does not need to know
+     * what format they are written in.
+     */
+    interface Factory {
+        /**
+         * Opens a new sink.
+         * @param output the file to write to
+         * @param offset the byte offset to truncate the file to and continue writing from; zero for a new file
+         * @param header {@code false} to leave out any file header, for segments that will be appended to another file
+         * @return the new sink
+         */
+        PermutationSink open(File output, long offset, boolean header) throws IOException;
+    }
+
+    /**
+     * Writes a single permutation.
+     * @param p the index array to write. Each index refers to an entry in the sink's dictionary. The sink must not
+     *          keep a reference to this array, since the caller will go on to mutate it.
+     */
+    void write(int[] p) throws IOException;
+
+    /**
+     * Writes a single permutation that is known to share a number of leading entries with the previous one written to
+     * this sink, so that formats which only store what changed don't have to look for it. By default, this is the same
+     * as {@link #write(int[])}.
+     * @param p the index array to write. See {@link #write(int[])}.
+     * @param unchanged how many leading entries of {@code p} are the same as in the previous permutation. Ignored for
+     *                  the first permutation written to the sink.
+     */
+    default void write(int[] p, int unchanged) throws IOException {
+        write(p);
+    }
+
+    /**
+     * Gets the number of bytes in the output file once everything written so far has been flushed. Truncating the
+     * file to this length and resuming with the next permutation must produce a valid output file.
+     * @return the current logical length of the output file
+     */
+    long position() throws IOException;
+
+    /**
+     * Writes any buffered output to the file, and forces it out to the storage device.
+     */
+    void flush() throws IOException;
+
+    /**
+     * Opens a sink for the provided output format.
+     * @param format the format to write
+     * @param output the file to write to
+     * @param dictionary the dictionary that permutation indices refer to
+     * @param separator the string to write between each entry, for formats that expand entries as text
+     * @param offset the byte offset to truncate the file to and continue writing from; zero for a new file
+     * @param header {@code false} to leave out any file header, for segments that will be appended to another file
+     * @param compression the settings to compress output with, or {@code null} to write it uncompressed
+     * @return the new sink
+     */
+    static PermutationSink open(OutputFormat format, File output, String[] dictionary, String separator, long offset,
+                                boolean header, BlockCompression compression) throws IOException
+    {
+        switch(format) {
+            case DELTA: return new DeltaPermutationWriter(output, dictionary, separator, offset, header, compression);
+            default: return new PermutationWriter(output, dictionary, separator, offset, compression);
+        }
+    }
+}
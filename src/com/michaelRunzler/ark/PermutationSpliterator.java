@@ -0,0 +1,133 @@
+package com.michaelRunzler.ark;
+
+import java.math.BigInteger;
+import java.util.Spliterator;
+import java.util.function.Consumer;
+
+/**
+ * A {@link Spliterator} over a contiguous range of the lexicographical permutations of a sorted index array. Splitting
+ * divides the remaining rank range in half, and the new half starts from its own unranked permutation, so parallel
+ * streams scale across cores without any coordination between halves.
+ * <p>
+ * Every element is the same array, updated in place, so traversal does not allocate. Consumers that need to keep a
+ * permutation past the call that receives it must copy it, and must not modify it.
+ */
+public class PermutationSpliterator implements Spliterator<int[]>
+{
+    // Ranges smaller than this are not worth the O(n^2) cost of unranking a new starting permutation
+    private static final long MIN_SPLIT = 1024;
+
+    private static final BigInteger LONG_MAX = BigInteger.valueOf(Long.MAX_VALUE);
+
+    private final int[] sorted;
+    private final BigInteger fence;
+    private BigInteger origin;
+
+    // Traversal only counts down a long. It starts from the size of the rank range, capped to a long, and the range
+    // is only brought up to date when the spliterator is split.
+    private long budget;
+    private long remaining;
+    private int[] p;
+
+    /**
+     * Creates a spliterator over every permutation of a sorted index array.
+     * @param sorted the sorted index array to permute. This array is not modified.
+     */
+    public PermutationSpliterator(int[] sorted) {
+        this(sorted, BigInteger.ZERO, Permutator.countPermutations(sorted));
+    }
+
+    /**
+     * Creates a spliterator over a range of the permutations of a sorted index array.
+     * @param sorted the sorted index array to permute. This array is not modified.
+     * @param start the rank of the first permutation to produce (inclusive)
+     * @param end the rank at which to stop (exclusive). Values past the end of the sequence are treated as the end.
+     */
+    public PermutationSpliterator(int[] sorted, BigInteger start, BigInteger end)
+    {
+        this.sorted = sorted.clone();
+        this.fence = end.min(Permutator.countPermutations(sorted)).max(BigInteger.ZERO);
+        reset(start.max(BigInteger.ZERO).min(fence));
+    }
+
+    private PermutationSpliterator(int[] sorted, BigInteger start, BigInteger end, int[] p)
+    {
+        this.sorted = sorted;
+        this.fence = end;
+        this.p = p;
+        reset(start);
+    }
+
+    @Override
+    public boolean tryAdvance(Consumer<? super int[]> action)
+    {
+        if(remaining <= 0) return false;
+
+        if(p == null) p = Permutator.unrank(origin, sorted);
+        else Permutator.nextPermutation(p);
+
+        remaining--;
+        action.accept(p);
+        return true;
+    }
+
+    @Override
+    public void forEachRemaining(Consumer<? super int[]> action)
+    {
+        if(remaining <= 0) return;
+
+        if(p == null) {
+            p = Permutator.unrank(origin, sorted);
+            remaining--;
+            action.accept(p);
+        }
+
+        while(remaining > 0 && Permutator.nextPermutation(p)) {
+            remaining--;
+            action.accept(p);
+        }
+
+        remaining = 0;
+    }
+
+    /**
+     * Splits off the first half of the remaining range. The returned spliterator covers lower ranks than this one, so
+     * encounter order is preserved.
+     */
+    @Override
+    public Spliterator<int[]> trySplit()
+    {
+        BigInteger next = origin.add(BigInteger.valueOf(budget - remaining));
+        BigInteger size = fence.subtract(next);
+        if(size.compareTo(BigInteger.valueOf(MIN_SPLIT)) < 0) return null;
+
+        // The first half carries on from the current permutation; this one starts again from the midpoint
+        BigInteger mid = next.add(size.shiftRight(1));
+        PermutationSpliterator prefix = new PermutationSpliterator(sorted, next, mid, p);
+        p = null;
+        reset(mid);
+        return prefix;
+    }
+
+    @Override
+    public long estimateSize() {
+        return remaining;
+    }
+
+    /**
+     * {@inheritDoc}
+     * Ranges with more than {@link Long#MAX_VALUE} permutations are not sized until they have been split down.
+     */
+    @Override
+    public int characteristics() {
+        return budget == Long.MAX_VALUE ? ORDERED | NONNULL : ORDERED | SIZED | SUBSIZED | NONNULL;
+    }
+
+    // Moves the start of the range to the provided rank
+    private void reset(BigInteger start)
+    {
+        this.origin = start;
+        this.budget = fence.subtract(start).min(LONG_MAX).longValue();
+        this.remaining = budget;
+    }
+}
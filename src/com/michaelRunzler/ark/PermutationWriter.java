@@ -0,0 +1,88 @@
+package com.michaelRunzler.ark;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Writes index permutations to a file as lines of text. Every dictionary entry is encoded to UTF-8 exactly once when
+ * the writer is created, and each line is then assembled directly into a reusable direct buffer that is drained through
+ * a {@link java.nio.channels.FileChannel} whenever it fills up. Writing a permutation does not allocate.
+ */
+public class PermutationWriter extends BufferedChannelSink
+{
+    private static final byte NEWLINE = '\n';
+
+    private final byte[][] entries;
+    private final byte[] separator;
+
+    /**
+     * Opens a new writer, replacing the output file if it already exists.
+     * @param output the file to write permutations to
+     * @param dictionary the dictionary that permutation indices refer to
+     * @param separator the string to write between each entry on a line; may be empty
+     */
+    public PermutationWriter(File output, String[] dictionary, String separator) throws IOException {
+        this(output, dictionary, separator, 0);
+    }
+
+    /**
+     * Opens a writer that continues an existing output file from the provided offset. Anything in the file past the
+     * offset is discarded; this is used to resume a job from a {@link Checkpoint}.
+     * @param output the file to write permutations to
+     * @param dictionary the dictionary that permutation indices refer to
+     * @param separator the string to write between each entry on a line; may be empty
+     * @param offset the byte offset to truncate the file to and continue writing from
+     */
+    public PermutationWriter(File output, String[] dictionary, String separator, long offset) throws IOException {
+        this(output, dictionary, separator, offset, null);
+    }
+
+    /**
+     * Opens a writer that continues an existing output file from the provided offset, optionally compressing it.
+     * @param output the file to write permutations to
+     * @param dictionary the dictionary that permutation indices refer to
+     * @param separator the string to write between each entry on a line; may be empty
+     * @param offset the byte offset to truncate the file to and continue writing from
+     * @param compression the settings to compress output with, or {@code null} to write plain text
+     */
+    public PermutationWriter(File output, String[] dictionary, String separator, long offset, BlockCompression compression) throws IOException
+    {
+        super(output, offset, longestEntry(dictionary, separator), compression);
+        this.separator = separator.getBytes(StandardCharsets.UTF_8);
+
+        // Pre-encode the dictionary
+        this.entries = new byte[dictionary.length][];
+        for(int i = 0; i < dictionary.length; i++)
+            entries[i] = dictionary[i].getBytes(StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Writes a single permutation as one line, terminated by a newline.
+     * @param p the index array to write. Each index refers to an entry in this writer's dictionary.
+     */
+    @Override
+    public void write(int[] p) throws IOException
+    {
+        for(int i = 0; i < p.length; i++)
+        {
+            byte[] entry = entries[p[i]];
+            if(buffer.remaining() < entry.length + separator.length + 1) drain();
+
+            if(i > 0) buffer.put(separator);
+            buffer.put(entry);
+        }
+
+        if(!buffer.hasRemaining()) drain();
+        buffer.put(NEWLINE);
+    }
+
+    // Works out how much buffer space the largest single entry needs, so that the buffer can always hold one
+    private static int longestEntry(String[] dictionary, String separator)
+    {
+        int sep = separator.getBytes(StandardCharsets.UTF_8).length;
+        int longest = sep + 1;
+        for(String s : dictionary) longest = Math.max(longest, s.getBytes(StandardCharsets.UTF_8).length + sep + 1);
+        return longest;
+    }
+}
@@ -0,0 +1,460 @@
+package com.michaelRunzler.ark;
+
+import java.math.BigInteger;
+import java.util.AbstractList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.RandomAccess;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.function.Supplier;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+/**
+ * Lazy, pull-based access to permutations, for consumers that want to process them in memory rather than have them
+ * written to a file. Nothing is generated until it is asked for, and none of the iterators, spliterators or streams
+ * returned here allocate per permutation: every element is the same index array or list view, updated in place.
+ * Consumers that keep a permutation past the call that receives it must copy it.
+ * <p>
+ * Arrays of primitive values can be permuted directly, either in place with the {@code next} methods or as streams.
+ * Arbitrary objects are permuted through a {@link Ranking}.
+ */
+public class Permutations
+{
+    private Permutations() {}
+
+    /**
+     * Gets a spliterator over the permutations of a sorted index array. Lexicographical order is split by rank range,
+     * so parallel streams scale across cores; the minimal-change orders can only be traversed sequentially.
+     * @param sorted the sorted index array to permute. This array is not modified.
+     * @param order the order to enumerate permutations in
+     * @return the new spliterator
+     */
+    public static Spliterator<int[]> spliterator(int[] sorted, PermutationOrder order)
+    {
+        if(order == PermutationOrder.LEXICOGRAPHIC) return new PermutationSpliterator(sorted);
+        return new SequenceSpliterator(PermutationSequence.create(order, sorted.clone()), Permutator.factorialBig(sorted.length));
+    }
+
+    /**
+     * Gets a lazy iterator over the permutations of a sorted index array, in lexicographical order.
+     * @param sorted the sorted index array to permute. This array is not modified.
+     * @return the new iterator. Every call to {@link Iterator#next()} returns the same array.
+     */
+    public static Iterator<int[]> iterator(int[] sorted) {
+        return Spliterators.iterator(new PermutationSpliterator(sorted));
+    }
+
+    /**
+     * Gets a stream of the permutations of a sorted index array.
+     * @param sorted the sorted index array to permute. This array is not modified.
+     * @param order the order to enumerate permutations in
+     * @param parallel {@code true} for a parallel stream
+     * @return the new stream. Every element is the same array for a given thread.
+     */
+    public static Stream<int[]> indices(int[] sorted, PermutationOrder order, boolean parallel) {
+        return StreamSupport.stream(spliterator(sorted, order), parallel);
+    }
+
+    /**
+     * Gets a stream of the permutations of a sorted index array, with each one presented as a list of the dictionary
+     * entries that its indices refer to.
+     * @param dictionary the dictionary that the indices refer to
+     * @param sorted the sorted index array to permute. This array is not modified.
+     * @param order the order to enumerate permutations in
+     * @param parallel {@code true} for a parallel stream
+     * @param <T> the type of the dictionary entries
+     * @return the new stream. Elements are unmodifiable views that are reused for every permutation in the same part of
+     * the stream; use {@code new ArrayList<>(list)} to keep one.
+     */
+    public static <T> Stream<List<T>> stream(T[] dictionary, int[] sorted, PermutationOrder order, boolean parallel)
+    {
+        return StreamSupport.stream(new MappedSpliterator<>(spliterator(sorted, order), () -> {
+            View<T> view = new View<>(dictionary);
+            return p -> {
+                view.p = p;
+                return view;
+            };
+        }), parallel);
+    }
+
+    /**
+     * Gets a sequential stream of the k-permutations or combinations of a sorted index array, in lexicographical order,
+     * with each one presented as a list of the dictionary entries that its indices refer to. The stream is split by
+     * rank range, like {@link PermutationSpliterator}, so it can be made parallel with {@link Stream#parallel()}.
+     * @param dictionary the dictionary that the indices refer to
+     * @param sorted the sorted index array to select from. This array is not modified.
+     * @param mode the kind of selection
+     * @param k the number of entries in each selection
+     * @param <T> the type of the dictionary entries
+     * @return the new stream. Elements are unmodifiable views that are reused for every selection in the same part of
+     * the stream.
+     */
+    public static <T> Stream<List<T>> stream(T[] dictionary, int[] sorted, SelectionMode mode, int k)
+    {
+        BigInteger total = Selections.count(mode, sorted, k);
+        if(total.signum() == 0) return Stream.empty();
+
+        return StreamSupport.stream(new MappedSpliterator<>(new SelectionSpliterator(mode, sorted.clone(), k, BigInteger.ZERO, total), () -> {
+            View<T> view = new View<>(dictionary);
+            return p -> {
+                view.p = p;
+                return view;
+            };
+        }), false);
+    }
+
+    /**
+     * Gets a stream of the distinct permutations of an array of values, in ascending lexicographical order. The values
+     * are ranked once up front, and each permutation is then copied out of its index array into a reused value array,
+     * so nothing is boxed.
+     * @param values the values to permute. This array is not modified.
+     * @param parallel {@code true} for a parallel stream
+     * @return the new stream. Elements are arrays that are reused for every permutation in the same part of the stream.
+     */
+    public static Stream<int[]> stream(int[] values, boolean parallel)
+    {
+        int[] dict = distinct(values);
+        int[] sorted = new int[values.length];
+        for(int i = 0; i < values.length; i++) sorted[i] = Arrays.binarySearch(dict, values[i]);
+        Arrays.sort(sorted);
+
+        return StreamSupport.stream(new MappedSpliterator<>(new PermutationSpliterator(sorted), () -> {
+            int[] out = new int[sorted.length];
+            return p -> {
+                for(int i = 0; i < p.length; i++) out[i] = dict[p[i]];
+                return out;
+            };
+        }), parallel);
+    }
+
+    /**
+     * Gets a stream of the distinct permutations of an array of values, in ascending lexicographical order.
+     * See {@link #stream(int[], boolean)}.
+     * @param values the values to permute. This array is not modified.
+     * @param parallel {@code true} for a parallel stream
+     * @return the new stream. Elements are arrays that are reused for every permutation in the same part of the stream.
+     */
+    public static Stream<long[]> stream(long[] values, boolean parallel)
+    {
+        long[] dict = values.clone();
+        Arrays.sort(dict);
+        int count = 0;
+        for(int i = 0; i < dict.length; i++) if(i == 0 || dict[i] != dict[count - 1]) dict[count++] = dict[i];
+        long[] distinct = Arrays.copyOf(dict, count);
+
+        int[] sorted = new int[values.length];
+        for(int i = 0; i < values.length; i++) sorted[i] = Arrays.binarySearch(distinct, values[i]);
+        Arrays.sort(sorted);
+
+        return StreamSupport.stream(new MappedSpliterator<>(new PermutationSpliterator(sorted), () -> {
+            long[] out = new long[sorted.length];
+            return p -> {
+                for(int i = 0; i < p.length; i++) out[i] = distinct[p[i]];
+                return out;
+            };
+        }), parallel);
+    }
+
+    /**
+     * Gets a stream of the distinct permutations of an array of bytes, in ascending lexicographical order of their
+     * signed values. See {@link #stream(int[], boolean)}.
+     * @param values the bytes to permute. This array is not modified.
+     * @param parallel {@code true} for a parallel stream
+     * @return the new stream. Elements are arrays that are reused for every permutation in the same part of the stream.
+     */
+    public static Stream<byte[]> stream(byte[] values, boolean parallel)
+    {
+        int[] widened = new int[values.length];
+        for(int i = 0; i < values.length; i++) widened[i] = values[i];
+        int[] dict = distinct(widened);
+
+        int[] sorted = new int[values.length];
+        for(int i = 0; i < values.length; i++) sorted[i] = Arrays.binarySearch(dict, values[i]);
+        Arrays.sort(sorted);
+
+        return StreamSupport.stream(new MappedSpliterator<>(new PermutationSpliterator(sorted), () -> {
+            byte[] out = new byte[sorted.length];
+            return p -> {
+                for(int i = 0; i < p.length; i++) out[i] = (byte)dict[p[i]];
+                return out;
+            };
+        }), parallel);
+    }
+
+    /**
+     * Rearranges an array of values into the next permutation in ascending lexicographical order, in place. Repeated
+     * values are handled naturally, so each distinct arrangement is produced once.
+     * @param a the array to permute
+     * @return {@code false} if the array was already in its last (descending) arrangement
+     */
+    public static boolean next(int[] a) {
+        return Permutator.nextPermutation(a);
+    }
+
+    /**
+     * Rearranges an array of values into the next permutation in ascending lexicographical order, in place.
+     * See {@link #next(int[])}.
+     * @param a the array to permute
+     * @return {@code false} if the array was already in its last (descending) arrangement
+     */
+    public static boolean next(long[] a)
+    {
+        // Find the rightmost ascent, then swap its left side with the smallest larger entry to its right
+        int i = a.length - 2;
+        while(i >= 0 && a[i] >= a[i + 1]) i--;
+        if(i < 0) return false;
+
+        int j = a.length - 1;
+        while(a[j] <= a[i]) j--;
+        long temp = a[i];
+        a[i] = a[j];
+        a[j] = temp;
+
+        // The suffix is in descending order, so reversing it sorts it
+        for(int l = i + 1, r = a.length - 1; l < r; l++, r--) {
+            temp = a[l];
+            a[l] = a[r];
+            a[r] = temp;
+        }
+
+        return true;
+    }
+
+    /**
+     * Rearranges an array of bytes into the next permutation in ascending lexicographical order of their signed values,
+     * in place. See {@link #next(int[])}.
+     * @param a the array to permute
+     * @return {@code false} if the array was already in its last (descending) arrangement
+     */
+    public static boolean next(byte[] a)
+    {
+        int i = a.length - 2;
+        while(i >= 0 && a[i] >= a[i + 1]) i--;
+        if(i < 0) return false;
+
+        int j = a.length - 1;
+        while(a[j] <= a[i]) j--;
+        byte temp = a[i];
+        a[i] = a[j];
+        a[j] = temp;
+
+        for(int l = i + 1, r = a.length - 1; l < r; l++, r--) {
+            temp = a[l];
+            a[l] = a[r];
+            a[r] = temp;
+        }
+
+        return true;
+    }
+
+    // Gets the distinct values in an array, in ascending order
+    private static int[] distinct(int[] values)
+    {
+        int[] dict = values.clone();
+        Arrays.sort(dict);
+        int count = 0;
+        for(int i = 0; i < dict.length; i++) if(i == 0 || dict[i] != dict[count - 1]) dict[count++] = dict[i];
+        return Arrays.copyOf(dict, count);
+    }
+
+    /**
+     * An unmodifiable list of dictionary entries, backed by an index array that may change underneath it.
+     * @param <T> the type of the dictionary entries
+     */
+    private static class View<T> extends AbstractList<T> implements RandomAccess
+    {
+        private final T[] dictionary;
+        int[] p;
+
+        View(T[] dictionary) {
+            this.dictionary = dictionary;
+        }
+
+        @Override
+        public T get(int index) {
+            return dictionary[p[index]];
+        }
+
+        @Override
+        public int size() {
+            return p.length;
+        }
+    }
+
+    // Maps each index array from another spliterator to an element that is reused for the whole traversal. Each split
+    // gets its own mapping function, and therefore its own element, so that parallel traversal never shares one
+    // between threads.
+    private static class MappedSpliterator<E> implements Spliterator<E>
+    {
+        private final Spliterator<int[]> source;
+        private final Supplier<Function<int[], E>> mappers;
+        private final Function<int[], E> mapper;
+
+        MappedSpliterator(Spliterator<int[]> source, Supplier<Function<int[], E>> mappers)
+        {
+            this.source = source;
+            this.mappers = mappers;
+            this.mapper = mappers.get();
+        }
+
+        @Override
+        public boolean tryAdvance(Consumer<? super E> action) {
+            return source.tryAdvance(p -> action.accept(mapper.apply(p)));
+        }
+
+        @Override
+        public void forEachRemaining(Consumer<? super E> action) {
+            source.forEachRemaining(p -> action.accept(mapper.apply(p)));
+        }
+
+        @Override
+        public Spliterator<E> trySplit()
+        {
+            Spliterator<int[]> split = source.trySplit();
+            return split == null ? null : new MappedSpliterator<>(split, mappers);
+        }
+
+        @Override
+        public long estimateSize() {
+            return source.estimateSize();
+        }
+
+        @Override
+        public int characteristics() {
+            return source.characteristics();
+        }
+    }
+
+    // Traverses one of the minimal-change sequences, which can't be split. Splitting is refused outright rather than
+    // left to Spliterators.spliterator, whose batching would copy references to the one array that every step reuses.
+    private static class SequenceSpliterator implements Spliterator<int[]>
+    {
+        private final PermutationSequence seq;
+        private final boolean sized;
+        private long remaining;
+        private boolean started;
+
+        SequenceSpliterator(PermutationSequence seq, BigInteger total)
+        {
+            this.seq = seq;
+            this.sized = total.bitLength() < Long.SIZE;
+            this.remaining = sized ? total.longValue() : Long.MAX_VALUE;
+        }
+
+        @Override
+        public boolean tryAdvance(Consumer<? super int[]> action)
+        {
+            if(remaining <= 0) return false;
+
+            // The sequence is only stepped once the previous permutation has been handed out, so that it is never
+            // changed underneath the consumer
+            if(started && !seq.next()) {
+                remaining = 0;
+                return false;
+            }
+
+            started = true;
+            if(sized) remaining--;
+            action.accept(seq.current());
+            return true;
+        }
+
+        @Override
+        public Spliterator<int[]> trySplit() {
+            return null;
+        }
+
+        @Override
+        public long estimateSize() {
+            return remaining;
+        }
+
+        @Override
+        public int characteristics() {
+            return sized ? ORDERED | SIZED | NONNULL : ORDERED | NONNULL;
+        }
+    }
+
+    // A range of the lexicographical selections of a sorted index array. Like PermutationSpliterator, splitting divides
+    // the remaining rank range in half, and the new half starts from its own unranked selection.
+    private static class SelectionSpliterator implements Spliterator<int[]>
+    {
+        // Ranges smaller than this are not worth the cost of unranking a new starting selection
+        private static final long MIN_SPLIT = 1024;
+
+        private static final BigInteger LONG_MAX = BigInteger.valueOf(Long.MAX_VALUE);
+
+        private final SelectionMode mode;
+        private final int[] sorted;
+        private final int k;
+        private final BigInteger fence;
+        private BigInteger origin;
+        private long budget;
+        private long remaining;
+        private PermutationSequence seq;
+
+        SelectionSpliterator(SelectionMode mode, int[] sorted, int k, BigInteger start, BigInteger end)
+        {
+            this.mode = mode;
+            this.sorted = sorted;
+            this.k = k;
+            this.fence = end;
+            reset(start);
+        }
+
+        @Override
+        public boolean tryAdvance(Consumer<? super int[]> action)
+        {
+            if(remaining <= 0) return false;
+
+            if(seq == null) seq = Selections.sequence(mode, sorted, k, origin);
+            else if(!seq.next()) {
+                remaining = 0;
+                return false;
+            }
+
+            remaining--;
+            action.accept(seq.current());
+            return true;
+        }
+
+        // Splits off the first half of the remaining range, which carries on from the current selection
+        @Override
+        public Spliterator<int[]> trySplit()
+        {
+            BigInteger next = origin.add(BigInteger.valueOf(budget - remaining));
+            BigInteger size = fence.subtract(next);
+            if(size.compareTo(BigInteger.valueOf(MIN_SPLIT)) < 0) return null;
+
+            BigInteger mid = next.add(size.shiftRight(1));
+            SelectionSpliterator prefix = new SelectionSpliterator(mode, sorted, k, next, mid);
+            prefix.seq = seq;
+            seq = null;
+            reset(mid);
+            return prefix;
+        }
+
+        @Override
+        public long estimateSize() {
+            return remaining;
+        }
+
+        @Override
+        public int characteristics() {
+            return budget == Long.MAX_VALUE ? ORDERED | NONNULL : ORDERED | SIZED | SUBSIZED | NONNULL;
+        }
+
+        // Moves the start of the range to the provided rank
+        private void reset(BigInteger start)
+        {
+            this.origin = start;
+            this.budget = fence.subtract(start).min(LONG_MAX).longValue();
+            this.remaining = budget;
+        }
+    }
+}
@@ -2,6 +2,16 @@ package com.michaelRunzler.ark;
 
 import java.io.File;
 import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.math.BigInteger;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.SplittableRandom;
+import java.util.stream.Stream;
 
 /**
  * The superclass for all Permutator objects. Allows permutation of every possible reorganization of a given sequence
@@ -13,6 +23,116 @@ public abstract class Permutator
     public String description;
     public String prompt;
 
+    /**
+     * The number of worker threads to generate permutations with. If this is greater than one, subclasses that support
+     * it will split the permutation space into independent subtrees and generate them on a shared fork-join pool.
+     */
+    public int parallelism = 1;
+
+    /**
+     * If {@code true} and {@link #parallelism} is greater than one, the output of each subtree is left in its own
+     * numbered segment file instead of being concatenated into a single output file once all subtrees are complete.
+     * Segment files are numbered in lexicographical order.
+     */
+    public boolean segmented = false;
+
+    /**
+     * The order to enumerate permutations in. Rank ranges, parallel generation and checkpoints are only available in
+     * {@link PermutationOrder#LEXICOGRAPHIC} order; the minimal-change orders always run sequentially over the full
+     * sequence.
+     */
+    public PermutationOrder order = PermutationOrder.LEXICOGRAPHIC;
+
+    /**
+     * What to select from the inputs: every full-length arrangement (the default), ordered selections of
+     * {@link #selectionSize} inputs, or unordered subsets of that size. Selections are enumerated directly, so each
+     * one costs the same as a full permutation rather than (n-k)! times as much. Selection modes only support
+     * lexicographical order, and always run sequentially; ranks, ranges and checkpoints count selections.
+     */
+    public SelectionMode selection = SelectionMode.PERMUTATIONS;
+
+    /**
+     * The number of inputs in each selection, for {@link SelectionMode#K_PERMUTATIONS} and
+     * {@link SelectionMode#COMBINATIONS}. Selections larger than the number of inputs produce no output.
+     */
+    public int selectionSize = 2;
+
+    /**
+     * If {@code true}, and a checkpoint left behind by an interrupted run of the same job exists next to the output
+     * file, the output is truncated back to the checkpoint and generation continues from there instead of starting over.
+     * Only jobs that keep checkpoints can be resumed; see {@link #resumable()}. Setting this for any other job makes it
+     * fail with an {@link UnsupportedOperationException} instead of silently starting over.
+     */
+    public boolean resume = false;
+
+    /**
+     * How often, in milliseconds, sequential text output jobs write a {@link Checkpoint} next to their output file.
+     * Zero disables checkpointing.
+     */
+    public long checkpointInterval = 10_000;
+
+    /**
+     * The file format that text permutators write their output in. {@link OutputFormat#DELTA} files are usually a
+     * small fraction of the size of the equivalent text, and can be expanded back to it with
+     * {@link DeltaPermutationReader}.
+     */
+    public OutputFormat format = OutputFormat.TEXT;
+
+    /**
+     * If set, text permutators compress their output as multi-member gzip, in blocks that are compressed in parallel.
+     * Compressed output files get an extra {@link BlockCompression#EXTENSION}. {@code null} (the default) writes
+     * uncompressed output.
+     */
+    public BlockCompression compression = null;
+
+    /**
+     * The order that inputs are sorted in before they are permuted, which decides both the lexicographical order of the
+     * output and which inputs count as repeats of each other. Inputs that compare as equal are collapsed into a single
+     * dictionary entry, so with {@link String#CASE_INSENSITIVE_ORDER}, "a" and "A" are arranged as the same input.
+     */
+    public Comparator<String> comparator = Comparator.naturalOrder();
+
+    /**
+     * Rules that every permutation written by text permutators must follow, or {@code null} (the default) to write
+     * every permutation. Prefixes that break a rule are pruned along with everything below them, rather than being
+     * generated and filtered out. Constrained jobs always run sequentially over the full sequence in lexicographical
+     * order, since rank ranges and parallel splits are defined in terms of the unconstrained sequence.
+     */
+    public Constraints<String> constraints = null;
+
+    /**
+     * If greater than zero, text permutators write this many permutations drawn uniformly at random (per input string,
+     * for permutators that permute each string on its own), instead of every permutation in order. The cost of a
+     * sample depends only on its size, not on the number of permutations it is drawn from. Samples can't be combined
+     * with rank ranges or constraints, and are never checkpointed; the same {@link #sampleSeed} simply draws the same
+     * sample again. See {@link PermutationSampler}.
+     */
+    public long sampleSize = 0;
+
+    /**
+     * The seed that samples are drawn with. The same seed, inputs and settings always produce the same sample, whatever
+     * the {@link #parallelism}. Defaults to a different random seed for every Permutator.
+     */
+    public long sampleSeed = new SplittableRandom().nextLong();
+
+    /**
+     * If {@code true}, no permutation appears in a sample more than once, and asking for more permutations than there
+     * are is an error. Every rank drawn is kept in memory until the sample is written.
+     */
+    public boolean sampleDistinct = false;
+
+    /**
+     * Live progress counters for the job that is currently running, or the last one that ran. Every permutation
+     * written through {@link #sinks} is counted, so these stay up to date whichever output path a job takes. Sample
+     * them with {@link PermutationMetrics#report}, or publish them over JMX with {@link PermutationMetrics#register}.
+     */
+    public final PermutationMetrics metrics = new PermutationMetrics();
+
+    private volatile boolean cancelled;
+
+    // The clock is only read when the number of remaining permutations is a multiple of this plus one
+    private static final long CHECKPOINT_CHECK_MASK = 0xFFFF;
+
     /**
      * Default constructor.
      */
@@ -21,6 +141,56 @@ public abstract class Permutator
         prompt = "This isn't a valid Permutator type";
     }
 
+    /**
+     * Asks the job that this Permutator is running to stop. Generation stops cooperatively at the next check, which
+     * happens every few thousand permutations (or before every file, for permutators that write one file per
+     * permutation), and {@link #permuteAll} then throws an {@link InterruptedIOException}. Output is left in a clean
+     * state: sequential lexicographical jobs keep every complete line written so far, along with a checkpoint that
+     * {@link #resume} can pick up from, and jobs that can't be resumed delete their partial output.
+     * Cancellation is permanent, so a new Permutator is needed for each job that may be cancelled.
+     */
+    public void cancel() {
+        cancelled = true;
+    }
+
+    /**
+     * Checks whether this Permutator's job has been cancelled, either with {@link #cancel()} or by interrupting the
+     * thread that is checking.
+     * @return {@code true} if the job should stop
+     */
+    public boolean isCancelled() {
+        return cancelled || Thread.currentThread().isInterrupted();
+    }
+
+    /**
+     * Throws an exception if this Permutator's job has been cancelled. Generator loops that don't write through
+     * {@link #sinks}, which check for themselves, should call this before each unit of work.
+     * @throws InterruptedIOException if the job has been cancelled
+     */
+    protected void checkCancelled() throws InterruptedIOException {
+        if(isCancelled()) throw new InterruptedIOException(description + " job was cancelled.");
+    }
+
+    /**
+     * Checks whether a job with the current settings keeps the checkpoints that {@link #resume} picks up from. Only
+     * sequential jobs in lexicographical order do; parallel, sampled and constrained jobs, and the minimal-change
+     * orders, always start over.
+     * @return {@code true} if the job can be resumed
+     */
+    public boolean resumable() {
+        return order == PermutationOrder.LEXICOGRAPHIC && !parallel() && !sampling() && !constrained();
+    }
+
+    /**
+     * Refuses to start a job that was asked to {@link #resume} but keeps no checkpoints to resume from.
+     * @throws UnsupportedOperationException if {@link #resume} is set and the job is not {@link #resumable()}
+     */
+    protected void checkResumable()
+    {
+        if(resume && !resumable())
+            throw new UnsupportedOperationException(description + " jobs with these settings keep no checkpoints, so they can't be resumed.");
+    }
+
     /**
      * Gets all possible permutations of the provided input array's contents. The exact result of each permutation varies
      * depending on the type of Permutator object that this is being called on, but in all cases, results are written to
@@ -31,6 +201,509 @@ public abstract class Permutator
      */
     public abstract void permuteAll(String[] inputs, File targetFolder) throws IOException;
 
+    /**
+     * Gets the exact number of permutations that {@link #permuteAll(String[], File)} would produce for the provided
+     * inputs. By default, this treats the inputs as a multiset, so equal inputs are only arranged once; subclasses that
+     * split or otherwise transform their inputs should override this.
+     * @param inputs the inputs that would be passed to {@link #permuteAll(String[], File)}
+     * @return the number of permutations that would be produced
+     */
+    public BigInteger count(String[] inputs) {
+        return sampled(total(rank(inputs).sorted()));
+    }
+
+    /**
+     * Gets the exact number of permutations that {@link #permuteAll(String[], File, long, long)} would produce for the
+     * provided inputs and rank range. By default, the range applies to the whole sequence counted by
+     * {@link #count(String[])}; subclasses that apply it differently should override this.
+     * @param inputs the inputs that would be passed to {@link #permuteAll(String[], File, long, long)}
+     * @param start the rank of the first permutation
+     * @param end the rank after the last permutation
+     * @return the number of permutations that would be produced
+     */
+    protected BigInteger count(String[] inputs, long start, long end) {
+        return clamp(count(inputs), start, end);
+    }
+
+    /**
+     * Gets how many of a sequence of permutations fall inside a rank range.
+     * @param total the number of permutations in the sequence
+     * @param start the rank of the first permutation in the range
+     * @param end the rank after the last permutation in the range
+     * @return the number of permutations in the range
+     */
+    protected static BigInteger clamp(BigInteger total, long start, long end) {
+        return total.min(BigInteger.valueOf(end)).subtract(BigInteger.valueOf(start)).max(BigInteger.ZERO);
+    }
+
+    /**
+     * Works out what a job will cost before it is started: exactly how many permutations it will produce, how many
+     * bytes it will write, and roughly how long it will take. Uncompressed text sizes are computed exactly from the
+     * encoded size of each input; other sizes, and the time, are extrapolated from a calibration run that writes
+     * successively longer prefixes of the job to a scratch folder inside the output folder until one takes a
+     * noticeable share of the calibration budget. The scratch folder is deleted afterwards.
+     * @param inputs the inputs that would be passed to {@link #permuteAll(String[], File)}
+     * @param targetFolder the folder the job would write to
+     * @param calibrationMillis roughly how long to spend calibrating, in milliseconds. Zero skips calibration, which
+     *                          leaves the time (and any size that can't be computed exactly) unknown.
+     * @return the estimate
+     */
+    public JobEstimate estimate(String[] inputs, File targetFolder, long calibrationMillis) throws IOException {
+        return estimate(inputs, targetFolder, calibrationMillis, 0, Long.MAX_VALUE);
+    }
+
+    /**
+     * Works out what a rank range of a job will cost, as {@link #estimate(String[], File, long)} does for the whole
+     * job. Sizes of ranges are scaled down from the size of the whole job, so they are only exact for the whole job.
+     * @param inputs the inputs that would be passed to {@link #permuteAll(String[], File, long, long)}
+     * @param targetFolder the folder the job would write to
+     * @param calibrationMillis roughly how long to spend calibrating, in milliseconds
+     * @param start the rank of the first permutation the job would write
+     * @param end the rank after the last permutation the job would write
+     * @return the estimate
+     */
+    public JobEstimate estimate(String[] inputs, File targetFolder, long calibrationMillis, long start, long end) throws IOException
+    {
+        checkResumable();
+        BigInteger whole = count(inputs);
+        BigInteger count = count(inputs, start, end);
+        BigInteger bytes = outputBytes(inputs);
+        boolean exact = bytes != null && count.equals(whole);
+        if(bytes != null && !exact) bytes = whole.signum() == 0 ? BigInteger.ZERO : bytes.multiply(count).divide(whole);
+        long nanos = -1;
+
+        if(calibrationMillis > 0 && count.signum() > 0)
+        {
+            File scratch = Files.createTempDirectory(targetFolder.toPath(), "calibration-").toFile();
+            try {
+                long budget = calibrationMillis * 1_000_000L;
+                long lastEmitted = 0;
+                long lastElapsed = 0;
+                for(long n = 1; ; n *= 2)
+                {
+                    long begin = System.nanoTime();
+                    permuteAll(inputs, scratch, start, start > Long.MAX_VALUE - n ? Long.MAX_VALUE : Math.min(end, start + n));
+                    long elapsed = System.nanoTime() - begin;
+
+                    // Runs that finish the whole job, or take a quarter of the budget, are long enough to go on
+                    long emitted = metrics.getPermutationsEmitted();
+                    if(emitted == 0) break;
+                    if(BigInteger.valueOf(emitted).compareTo(count) >= 0 || elapsed >= budget / 4 || n > Long.MAX_VALUE / 2)
+                    {
+                        // Extrapolate at the marginal cost between the last two runs, so that fixed costs such as
+                        // opening and syncing files are only counted once. Timing noise can make the margin look far
+                        // cheaper than it is, in which case the average cost of the last run is the safer guess.
+                        long cost = elapsed - lastElapsed;
+                        long more = emitted - lastEmitted;
+                        if(lastEmitted == 0 || cost <= 0 || (double)cost / more < elapsed / 2.0 / emitted) {
+                            cost = elapsed;
+                            more = emitted;
+                        }
+                        long fixed = Math.max(0, elapsed - (long)((double)cost * emitted / more));
+                        BigInteger scaled = BigInteger.valueOf(cost).multiply(count).divide(BigInteger.valueOf(more))
+                                .add(BigInteger.valueOf(fixed));
+                        nanos = scaled.bitLength() < 63 ? scaled.longValue() : Long.MAX_VALUE;
+                        if(!exact) bytes = BigInteger.valueOf(metrics.getBytesWritten()).multiply(count).divide(BigInteger.valueOf(emitted));
+                        break;
+                    }
+
+                    lastEmitted = emitted;
+                    lastElapsed = elapsed;
+                    clear(scratch);
+                }
+            } catch (UnsupportedOperationException e) {
+                // This job can't be split into a short prefix, so it can only be sized exactly or not at all
+            } finally {
+                clear(scratch);
+                if(!scratch.delete()) scratch.deleteOnExit();
+            }
+        }
+
+        return new JobEstimate(count, constrained(), bytes, exact, nanos, targetFolder.getUsableSpace());
+    }
+
+    /**
+     * Gets the exact number of bytes that {@link #permuteAll(String[], File)} would write for the provided inputs, if
+     * that can be worked out without writing anything. The default implementation can't; text permutators override
+     * this with {@link #textBytes}.
+     * @param inputs the inputs that would be passed to {@link #permuteAll(String[], File)}
+     * @return the number of bytes, or {@code null} if it is not known in advance
+     */
+    protected BigInteger outputBytes(String[] inputs) {
+        return null;
+    }
+
+    /**
+     * Gets the exact size of the uncompressed text output for an index array in this Permutator's current
+     * {@link #order} and {@link #selection} mode. Each line is every selected entry in UTF-8, with separators between
+     * them and a newline after, so the total follows from how often each entry appears across all lines.
+     * @param dictionary the dictionary that the indices refer to
+     * @param sorted the sorted index array to permute
+     * @param separator the string written between each entry on a line
+     * @return the number of bytes, or {@code null} if the output is compressed, in another format, or constrained, none
+     * of which can be sized without generating it
+     */
+    protected BigInteger textBytes(String[] dictionary, int[] sorted, String separator)
+    {
+        if(format != OutputFormat.TEXT || compression != null || constrained()) return null;
+
+        // The minimal-change orders arrange every position as if it were distinct, so each entry appears equally often
+        boolean lexicographic = order == PermutationOrder.LEXICOGRAPHIC;
+        SelectionMode mode = lexicographic ? selection : SelectionMode.PERMUTATIONS;
+
+        // Every full permutation in a sample holds every entry, but which entries a sampled selection holds is random
+        if(sampling() && mode != SelectionMode.PERMUTATIONS) return null;
+        boolean uniform = !lexicographic || sampling();
+        BigInteger lines = sampled(total(sorted));
+        BigInteger bytes = BigInteger.ZERO;
+        int[] copies = new int[dictionary.length];
+        for(int v : sorted) copies[v]++;
+        for(int v = 0; v < dictionary.length; v++)
+        {
+            if(copies[v] == 0) continue;
+            BigInteger appearances = uniform ? lines.multiply(BigInteger.valueOf(copies[v]))
+                    : Selections.occurrences(mode, sorted, selectionSize, v);
+            bytes = bytes.add(appearances.multiply(BigInteger.valueOf(dictionary[v].getBytes(StandardCharsets.UTF_8).length)));
+        }
+
+        int width = mode == SelectionMode.PERMUTATIONS ? sorted.length : selectionSize;
+        long perLine = Math.max(0, width - 1) * (long)separator.getBytes(StandardCharsets.UTF_8).length + 1;
+        return bytes.add(lines.multiply(BigInteger.valueOf(perLine)));
+    }
+
+    // Deletes everything inside a folder, leaving the folder itself
+    private static void clear(File folder) throws IOException
+    {
+        try(Stream<Path> paths = Files.walk(folder.toPath())) {
+            paths.sorted(Comparator.reverseOrder()).map(Path::toFile).filter(f -> !f.equals(folder)).forEach(File::delete);
+        }
+    }
+
+    /**
+     * Gets the permutations that {@link #permuteAll(String[], File)} would produce as a lazy stream, without writing
+     * anything to disk. Call {@link Stream#parallel()} on the result to spread the work across cores; only lexicographical
+     * order can be split, so the minimal-change orders still run on one thread. By default, this arranges the inputs
+     * themselves as a multiset in the current {@link #order}; subclasses that split or otherwise transform their inputs
+     * should override this.
+     * @param inputs the inputs that would be passed to {@link #permuteAll(String[], File)}
+     * @return a stream of permutations. Each element is an unmodifiable view that is reused for the next permutation,
+     * so it must be copied if it is kept.
+     */
+    public Stream<List<String>> stream(String[] inputs)
+    {
+        Ranking<String> ranking = rank(inputs);
+        return stream(ranking.dictionary(), ranking.sorted());
+    }
+
+    /**
+     * Gets a contiguous range of the permutations that {@link #permuteAll(String[], File)} would produce, by
+     * lexicographical rank. The first permutation in the range is located directly with
+     * {@link #unrank(long, int[])}, so starting at an arbitrary offset costs O(n^2) rather than O(N!). Ranges are
+     * written to output files named after their bounds, so that several ranges can be written to the same folder.
+     * The default implementation only supports the full range; subclasses that support partial ranges override this.
+     * @param inputs an array of either arbitrary strings or file paths in UNIX-type format
+     * @param targetFolder the destination folder to which the results should be written
+     * @param start the rank of the first permutation to produce (inclusive)
+     * @param end the rank at which to stop producing permutations (exclusive). Values past the end of the permutation
+     *            sequence are treated as the end of the sequence.
+     */
+    public void permuteAll(String[] inputs, File targetFolder, long start, long end) throws IOException
+    {
+        if(start == 0 && BigInteger.valueOf(end).compareTo(count(inputs)) >= 0) permuteAll(inputs, targetFolder);
+        else throw new UnsupportedOperationException(description + " permutator does not support rank ranges.");
+    }
+
+    /**
+     * Writes a contiguous range of the permutations of an index array to a file in the current {@link #format}. This is
+     * the sequential generation loop shared by the built-in text permutators. A {@link Checkpoint} is kept next to the
+     * output file while the job runs, and removed once it completes; if {@link #resume} is set and a checkpoint for
+     * the same job exists, the output is truncated back to it and the job continues from there.
+     * @param sorted the sorted index array to permute
+     * @param dictionary the dictionary that the indices refer to
+     * @param separator the string to write between each entry on a line
+     * @param output the file to write to
+     * @param start the rank of the first permutation to write
+     * @param length the number of permutations to write
+     */
+    protected void writeRange(int[] sorted, String[] dictionary, String separator, File output, long start, long length) throws IOException
+    {
+        if(order != PermutationOrder.LEXICOGRAPHIC) {
+            writeMinimalChange(sorted, dictionary, separator, output, start, length);
+            return;
+        }
+
+        String variant = selection == SelectionMode.PERMUTATIONS ? "" : selection + ":" + selectionSize;
+        String hash = Checkpoint.hash(dictionary, sorted, separator, start, length, variant);
+        File checkpointFile = Checkpoint.fileFor(output);
+
+        // Pick up where a previous run left off, if asked to and if that run was for the same job
+        long first = start;
+        long offset = 0;
+        Checkpoint last = resume ? Checkpoint.read(checkpointFile) : null;
+        if(last != null)
+        {
+            if(!last.inputHash.equals(hash))
+                throw new IOException("Checkpoint " + checkpointFile.getAbsolutePath() + " belongs to a different job.");
+            if(last.offset > output.length())
+                throw new IOException("Output file " + output.getAbsolutePath() + " is shorter than its checkpoint.");
+
+            first = last.rank;
+            offset = last.offset;
+            metrics.skip(first - start);
+        }
+
+        try(PermutationSink out = sinks(dictionary, separator).open(output, offset, offset == 0))
+        {
+            long remaining = start + length - first;
+            if(remaining > 0)
+            {
+                PermutationSequence seq = sequence(sorted, first);
+                int[] p = seq.current();
+                long lastCheckpoint = System.nanoTime();
+                boolean running = true;
+                while(running)
+                {
+                    try {
+                        out.write(p);
+                    } catch (InterruptedIOException e) {
+                        // Cancelled, but only once this permutation was written in full, so checkpoint just after it
+                        out.flush();
+                        new Checkpoint(start + length - remaining + 1, out.position(), hash).write(checkpointFile);
+                        throw e;
+                    }
+
+                    running = --remaining > 0 && seq.next();
+
+                    // Only read the clock every so often, so that checkpointing stays off the hot path
+                    if(running && checkpointInterval > 0 && (remaining & CHECKPOINT_CHECK_MASK) == 0
+                            && System.nanoTime() - lastCheckpoint >= checkpointInterval * 1_000_000L) {
+                        out.flush();
+                        new Checkpoint(start + length - remaining, out.position(), hash).write(checkpointFile);
+                        lastCheckpoint = System.nanoTime();
+                    }
+                }
+            }
+        }
+
+        // The job is complete, so there is nothing left to resume
+        if(checkpointFile.exists() && !checkpointFile.delete())
+            throw new IOException("Could not delete checkpoint file " + checkpointFile.getAbsolutePath());
+    }
+
+    // Writes the full sequence of permutations in one of the minimal-change orders. These have no ranking, so they
+    // can't start part-way through or be checkpointed.
+    private void writeMinimalChange(int[] sorted, String[] dictionary, String separator, File output, long start,
+                                    long length) throws IOException
+    {
+        if(start != 0) throw new UnsupportedOperationException("Rank ranges are only supported in lexicographical order.");
+
+        try(PermutationSink out = sinks(dictionary, separator).open(output, 0, true))
+        {
+            if(length == 0) return;
+
+            // Each step only swaps two entries, so the sink can skip straight past the ones in front of them
+            PermutationSequence seq = sequence(sorted, 0);
+            long remaining = length;
+            do out.write(seq.current(), seq.unchangedPrefix()); while(--remaining > 0 && seq.next());
+        } catch (InterruptedIOException e) {
+            discard(output);
+            throw e;
+        }
+    }
+
+    /**
+     * Checks whether {@link #sampleSize} is set, so that a random sample is written instead of the full sequence.
+     * @return {@code true} if permutations must be generated with {@link #writeSample}
+     */
+    protected boolean sampling() {
+        return sampleSize > 0;
+    }
+
+    /**
+     * Gets the number of permutations a job writes out of a sequence of a given length: all of them, or
+     * {@link #sampleSize} if it is sampling.
+     * @param total the number of permutations in the full sequence
+     * @return the number of permutations written
+     */
+    protected BigInteger sampled(BigInteger total) {
+        return sampling() ? BigInteger.valueOf(sampleSize) : total;
+    }
+
+    /**
+     * Writes a random sample of {@link #sampleSize} permutations of an index array to a file, using
+     * {@link #parallelism} threads.
+     * @param sorted the sorted index array to sample from
+     * @param dictionary the dictionary that the indices refer to
+     * @param separator the string to write between each entry on a line
+     * @param output the file to write to
+     * @param full whether the job covers the full permutation sequence
+     * @param threads the number of threads to write the sample with
+     * @throws UnsupportedOperationException if the job is for a partial range, is constrained, or uses a selection
+     * mode outside of lexicographical order
+     */
+    protected void writeSample(int[] sorted, String[] dictionary, String separator, File output, boolean full,
+                               int threads) throws IOException
+    {
+        if(!full) throw new UnsupportedOperationException("Samples are always drawn from the full sequence, not a rank range.");
+        if(constrained()) throw new UnsupportedOperationException("Constrained jobs can't be sampled.");
+        if(order != PermutationOrder.LEXICOGRAPHIC && selection != SelectionMode.PERMUTATIONS)
+            throw new UnsupportedOperationException("Selection modes are only supported in lexicographical order.");
+
+        // Order only decides how the full sequence is enumerated, so it makes no difference to which permutations a
+        // uniform sample holds
+        PermutationSampler.write(selection, sorted, selectionSize, sinks(dictionary, separator), output, sampleSize,
+                sampleSeed, sampleDistinct, threads, segmented);
+    }
+
+    /**
+     * Gets the name of the output file for a sample, with the sample size inserted before its first extension.
+     * @param name the name of the output file for the full sequence
+     * @return the name of the output file for the sample
+     */
+    protected String sampleName(String name)
+    {
+        int ext = name.indexOf('.');
+        String suffix = "-sample-" + sampleSize;
+        return ext < 0 ? name + suffix : name.substring(0, ext) + suffix + name.substring(ext);
+    }
+
+    /**
+     * Checks whether {@link #constraints} are set and contain at least one rule.
+     * @return {@code true} if permutations must be generated with {@link #writeConstrained}
+     */
+    protected boolean constrained() {
+        return constraints != null && !constraints.isEmpty();
+    }
+
+    /**
+     * Writes every permutation of an index array that satisfies the current {@link #constraints} to a file, and adds
+     * how much of the permutation space was pruned to {@link PermutationMetrics#getPruning()}.
+     * @param sorted the sorted index array to permute
+     * @param dictionary the dictionary that the indices refer to
+     * @param separator the string to write between each entry on a line
+     * @param output the file to write to
+     * @param full whether the job covers the full permutation sequence
+     * @return the number of permutations generated and pruned
+     * @throws UnsupportedOperationException if the job is for a partial range, not in lexicographical order, or uses a
+     * selection mode
+     */
+    protected ConstrainedPermutations.Stats writeConstrained(int[] sorted, String[] dictionary, String separator,
+                                                             File output, boolean full) throws IOException
+    {
+        if(!full || order != PermutationOrder.LEXICOGRAPHIC)
+            throw new UnsupportedOperationException("Constraints are only supported over the full sequence in lexicographical order.");
+        if(selection != SelectionMode.PERMUTATIONS)
+            throw new UnsupportedOperationException("Constraints are only supported for full permutations.");
+
+        ConstrainedPermutations search = new ConstrainedPermutations(sorted, constraints.resolve(dictionary, comparator));
+        ConstrainedPermutations.Stats stats;
+        try(PermutationSink out = sinks(dictionary, separator).open(output, 0, true)) {
+            stats = search.write(out);
+        } catch (InterruptedIOException e) {
+            discard(output);
+            throw e;
+        }
+
+        metrics.addPruning(stats);
+        return stats;
+    }
+
+    /**
+     * Deletes the partial output of a cancelled job that can't be resumed, so that it isn't mistaken for a complete
+     * one.
+     * @param output the output file to delete
+     * @throws IOException if the file exists and could not be deleted
+     */
+    protected void discard(File output) throws IOException {
+        if(output.exists() && !output.delete())
+            throw new IOException("Could not delete partial output file " + output.getAbsolutePath());
+    }
+
+    /**
+     * Gets a factory that opens sinks in this Permutator's current {@link #format}, with its current
+     * {@link #compression} settings. Everything written to the sinks is counted in {@link #metrics}.
+     * @param dictionary the dictionary that permutation indices refer to
+     * @param separator the string to write between each entry on a line
+     * @return the factory
+     */
+    protected PermutationSink.Factory sinks(String[] dictionary, String separator)
+    {
+        OutputFormat format = this.format;
+        BlockCompression compression = this.compression;
+        return (output, offset, header) -> metrics.counting(
+                PermutationSink.open(format, output, dictionary, separator, offset, header, compression), output, offset,
+                this::isCancelled);
+    }
+
+    /**
+     * Gets the full name of a text output file, with the extensions for this Permutator's current {@link #format} and
+     * {@link #compression} settings.
+     * @param base the name of the file without any extension
+     * @return the name with extensions appended
+     */
+    protected String outputName(String base) {
+        return base + format.extension + (compression == null ? "" : BlockCompression.EXTENSION);
+    }
+
+    /**
+     * Gets a sequence that steps through this Permutator's current {@link #order} and {@link #selection}, starting from
+     * a given rank.
+     * @param sorted the sorted index array to permute. This array is not modified.
+     * @param start the rank of the first permutation or selection
+     * @return the new sequence
+     * @throws UnsupportedOperationException if the start is not zero, or a selection mode is in use, outside of
+     * lexicographical order
+     */
+    protected PermutationSequence sequence(int[] sorted, long start)
+    {
+        if(order != PermutationOrder.LEXICOGRAPHIC) {
+            if(selection != SelectionMode.PERMUTATIONS)
+                throw new UnsupportedOperationException("Selection modes are only supported in lexicographical order.");
+            if(start != 0) throw new UnsupportedOperationException("Rank ranges are only supported in lexicographical order.");
+            return PermutationSequence.create(order, sorted.clone());
+        }
+
+        return Selections.sequence(selection, sorted, selectionSize, BigInteger.valueOf(start));
+    }
+
+    /**
+     * Gets a stream of the permutations of an index array in this Permutator's current {@link #order} and
+     * {@link #selection} mode, presented as lists of dictionary entries.
+     * @param dictionary the dictionary that the indices refer to
+     * @param sorted the sorted index array to permute. This array is not modified.
+     * @return the new stream
+     * @throws UnsupportedOperationException if a selection mode is in use outside of lexicographical order
+     */
+    protected Stream<List<String>> stream(String[] dictionary, int[] sorted)
+    {
+        if(selection == SelectionMode.PERMUTATIONS) return Permutations.stream(dictionary, sorted, order, false);
+        if(order != PermutationOrder.LEXICOGRAPHIC)
+            throw new UnsupportedOperationException("Selection modes are only supported in lexicographical order.");
+        return Permutations.stream(dictionary, sorted, selection, selectionSize);
+    }
+
+    /**
+     * Checks whether a job can be split across {@link #parallelism} threads by {@link ParallelPermutations}, which
+     * needs full permutations in lexicographical order.
+     * @return {@code true} if the job should be generated in parallel
+     */
+    protected boolean parallel() {
+        return parallelism > 1 && order == PermutationOrder.LEXICOGRAPHIC && selection == SelectionMode.PERMUTATIONS;
+    }
+
+    /**
+     * Gets the number of permutations of an index array in this Permutator's current {@link #order} and
+     * {@link #selection} mode.
+     * @param sorted the sorted index array to count permutations for
+     * @return the number of distinct arrangements or selections in lexicographical order, or n! in the minimal-change
+     * orders
+     */
+    protected BigInteger total(int[] sorted)
+    {
+        if(order != PermutationOrder.LEXICOGRAPHIC) return factorialBig(sorted.length);
+        return Selections.count(selection, sorted, selectionSize);
+    }
+
     /**
      * Gets the next permutation of the provided array.
      * WARNING: If the input array is NOT in lexicographical order, the permutation algorithm will likely miss some
@@ -87,4 +760,338 @@ public abstract class Permutator
 
         return true;
     }
+
+    /**
+     * Gets the next permutation of the provided index array. This is the primitive equivalent of
+     * {@link #nextPermutation(String[])}, and is what all built-in Permutators use internally; inputs are ranked once
+     * with {@link #rank(String[])}, permuted as plain {@code int}s, and mapped back to their elements
+     * through the dictionary only when output is written.
+     * The same ordering caveats apply: the array should start in ascending order, and equal indices are treated as
+     * identical elements (so each distinct arrangement is only produced once).
+     * @param p the index array to permute
+     * @return {@code true} if a new permutation has been generated; {@code false} if the array is not permutable
+     * or all possible permutations have already been produced.
+     */
+    protected static boolean nextPermutation(int[] p) {
+        return nextPermutation(p, 0);
+    }
+
+    /**
+     * Gets the next permutation of the provided index array, leaving every entry before {@code from} untouched.
+     * Starting from a sorted suffix, repeatedly calling this method visits every arrangement of the suffix that
+     * shares the fixed prefix, in the same order that {@link #nextPermutation(int[])} would visit them. This is how
+     * the permutation space is split into independent subtrees for parallel generation.
+     * @param p the index array to permute
+     * @param from the index of the first entry that may be permuted
+     * @return {@code true} if a new permutation has been generated; {@code false} if the suffix is already in
+     * descending order (i.e all arrangements sharing the prefix have been produced).
+     */
+    protected static boolean nextPermutation(int[] p, int from)
+    {
+        // find the rightmost entry that is smaller than the one after it
+        int n1 = p.length - 2;
+        while(n1 >= from && p[n1] >= p[n1 + 1]) n1--;
+
+        // if there is no such entry, the suffix is in descending order and we're done
+        if(n1 < from) return false;
+
+        // find the rightmost entry that is larger than the one we just found
+        int n2 = p.length - 1;
+        while(p[n2] <= p[n1]) n2--;
+
+        // swap the two entries
+        int temp = p[n1];
+        p[n1] = p[n2];
+        p[n2] = temp;
+
+        // reverse the sequence of entries between the first marker and the end of the array
+        for(int i = n1 + 1, j = p.length - 1; i < j; i++, j--){
+            temp = p[i];
+            p[i] = p[j];
+            p[j] = temp;
+        }
+
+        return true;
+    }
+
+    /**
+     * Gets the exact number of distinct permutations of the provided index array. Equal indices are counted as
+     * identical elements, so the result is the multinomial coefficient n!/(k1! * k2! * ...), where each k is the number of
+     * times a distinct index appears. This is also exactly the number of times {@link #nextPermutation(int[])} will
+     * succeed (plus one for the starting arrangement) on a sorted copy of the array.
+     * @param ranks the index array to count permutations for. This array does not need to be sorted.
+     * @return the number of distinct permutations of the array, or {@link BigInteger#ONE} if it is empty
+     */
+    public static BigInteger countPermutations(int[] ranks)
+    {
+        int[] sorted = ranks.clone();
+        Arrays.sort(sorted);
+
+        // Build the coefficient as a product of binomials; each intermediate division is exact
+        BigInteger result = BigInteger.ONE;
+        int run = 0;
+        for(int i = 0; i < sorted.length; i++) {
+            run = (i > 0 && sorted[i] == sorted[i - 1]) ? run + 1 : 1;
+            result = result.multiply(BigInteger.valueOf(i + 1)).divide(BigInteger.valueOf(run));
+        }
+
+        return result;
+    }
+
+    /**
+     * Gets the factorial of the provided number.
+     * @param n the number to get the factorial of, between 0 and 20 inclusive
+     * @return n!
+     * @throws ArithmeticException if n! would overflow a {@code long}
+     */
+    public static long factorial(int n)
+    {
+        if(n < 0) throw new IllegalArgumentException("Factorial is undefined for negative numbers.");
+        if(n > 20) throw new ArithmeticException(n + "! does not fit in a long; use factorialBig instead.");
+
+        long result = 1;
+        for(int i = 2; i <= n; i++) result *= i;
+        return result;
+    }
+
+    /**
+     * Gets the factorial of the provided number with arbitrary precision.
+     * @param n the number to get the factorial of
+     * @return n!
+     */
+    public static BigInteger factorialBig(int n)
+    {
+        if(n < 0) throw new IllegalArgumentException("Factorial is undefined for negative numbers.");
+
+        BigInteger result = BigInteger.ONE;
+        for(int i = 2; i <= n; i++) result = result.multiply(BigInteger.valueOf(i));
+        return result;
+    }
+
+    /**
+     * Gets the permutation of {@code 0..n-1} with the provided lexicographical rank, by decoding the rank as a Lehmer
+     * code in the factorial number system. This runs in O(n^2), regardless of the rank.
+     * @param index the rank of the permutation to get, from 0 (ascending order) to n!-1 (descending order)
+     * @param n the number of entries in the permutation, up to 20
+     * @return the permutation with the provided rank
+     */
+    public static int[] unrank(long index, int n)
+    {
+        if(index < 0 || index >= factorial(n))
+            throw new IllegalArgumentException("Rank " + index + " is out of bounds for " + n + " entries.");
+
+        int[] remaining = new int[n];
+        for(int i = 0; i < n; i++) remaining[i] = i;
+
+        // Each Lehmer digit is the position of the next entry within the entries that have not been used yet
+        int[] p = new int[n];
+        for(int i = 0; i < n; i++)
+        {
+            long f = factorial(n - 1 - i);
+            int digit = (int)(index / f);
+            index %= f;
+
+            p[i] = remaining[digit];
+            System.arraycopy(remaining, digit + 1, remaining, digit, n - 1 - i - digit);
+        }
+
+        return p;
+    }
+
+    /**
+     * Arbitrary-precision variant of {@link #unrank(long, int)}, for permutations of more than 20 entries.
+     * @param index the rank of the permutation to get, from 0 to n!-1
+     * @param n the number of entries in the permutation
+     * @return the permutation with the provided rank
+     */
+    public static int[] unrank(BigInteger index, int n)
+    {
+        int[] sorted = new int[n];
+        for(int i = 0; i < n; i++) sorted[i] = i;
+        return unrank(index, sorted);
+    }
+
+    /**
+     * Gets the arrangement of a sorted index array with the provided lexicographical rank. Equal indices are treated as
+     * identical, so ranks count distinct arrangements in the same order that {@link #nextPermutation(int[])} visits
+     * them, and the highest valid rank is {@link #countPermutations(int[])} - 1.
+     * @param index the rank of the arrangement to get
+     * @param sorted the sorted index array to arrange. This array is not modified.
+     * @return a new array containing the arrangement with the provided rank
+     */
+    public static int[] unrank(long index, int[] sorted) {
+        return unrank(BigInteger.valueOf(index), sorted);
+    }
+
+    /**
+     * Arbitrary-precision variant of {@link #unrank(long, int[])}.
+     * @param index the rank of the arrangement to get
+     * @param sorted the sorted index array to arrange. This array is not modified.
+     * @return a new array containing the arrangement with the provided rank
+     */
+    public static int[] unrank(BigInteger index, int[] sorted)
+    {
+        BigInteger total = countPermutations(sorted);
+        if(index.signum() < 0 || index.compareTo(total) >= 0)
+            throw new IllegalArgumentException("Rank " + index + " is out of bounds for " + total + " arrangements.");
+
+        int[] values = distinct(sorted);
+        int[] counts = multiplicities(sorted, values);
+        int[] p = new int[sorted.length];
+
+        for(int i = 0; i < p.length; i++)
+        {
+            // Of the arrangements left, the fraction starting with a given entry is proportional to its multiplicity
+            BigInteger remaining = BigInteger.valueOf(p.length - i);
+            for(int v = 0; v < values.length; v++)
+            {
+                if(counts[v] == 0) continue;
+
+                BigInteger block = total.multiply(BigInteger.valueOf(counts[v])).divide(remaining);
+                if(index.compareTo(block) < 0) {
+                    p[i] = values[v];
+                    counts[v]--;
+                    total = block;
+                    break;
+                }
+
+                index = index.subtract(block);
+            }
+        }
+
+        return p;
+    }
+
+    /**
+     * Gets the lexicographical rank of the provided permutation. This is the inverse of {@link #unrank(long, int)}
+     * and {@link #unrank(long, int[])}: permutations of distinct entries are ranked by their Lehmer code, and
+     * permutations with repeated entries are ranked among the distinct arrangements of their entries.
+     * @param perm the permutation to rank. This array is not modified.
+     * @return the rank of the permutation
+     * @throws ArithmeticException if the rank does not fit in a {@code long}; use {@link #rankBig(int[])} instead
+     */
+    public static long rank(int[] perm)
+    {
+        if(perm.length > 20 || distinct(perm).length != perm.length) return rankBig(perm).longValueExact();
+
+        // Each Lehmer digit is the number of entries after the current one that are smaller than it
+        long rank = 0;
+        for(int i = 0; i < perm.length; i++)
+        {
+            int digit = 0;
+            for(int j = i + 1; j < perm.length; j++)
+                if(perm[j] < perm[i]) digit++;
+
+            rank += digit * factorial(perm.length - 1 - i);
+        }
+
+        return rank;
+    }
+
+    /**
+     * Arbitrary-precision variant of {@link #rank(int[])}.
+     * @param perm the permutation to rank. This array is not modified.
+     * @return the rank of the permutation
+     */
+    public static BigInteger rankBig(int[] perm)
+    {
+        int[] sorted = perm.clone();
+        Arrays.sort(sorted);
+        int[] values = distinct(sorted);
+        int[] counts = multiplicities(sorted, values);
+
+        BigInteger total = countPermutations(sorted);
+        BigInteger rank = BigInteger.ZERO;
+
+        for(int i = 0; i < perm.length; i++)
+        {
+            // Skip past every arrangement that starts with a smaller entry than this one
+            BigInteger remaining = BigInteger.valueOf(perm.length - i);
+            int current = Arrays.binarySearch(values, perm[i]);
+            for(int v = 0; v < current; v++)
+                if(counts[v] > 0) rank = rank.add(total.multiply(BigInteger.valueOf(counts[v])).divide(remaining));
+
+            total = total.multiply(BigInteger.valueOf(counts[current])).divide(remaining);
+            counts[current]--;
+        }
+
+        return rank;
+    }
+
+    /**
+     * Works out how many permutations a ranged call to {@link #permuteAll(String[], File, long, long)} should produce.
+     * @param sorted the sorted index array that is being permuted
+     * @param start the rank of the first permutation to produce
+     * @param end the requested end rank. {@link Long#MAX_VALUE} always means the end of the permutation sequence.
+     * @return the number of permutations in the range, after clamping it to the end of the permutation sequence
+     */
+    protected long rangeLength(int[] sorted, long start, long end)
+    {
+        if(start < 0 || end < start) throw new IllegalArgumentException("Invalid rank range " + start + " to " + end + ".");
+
+        BigInteger total = total(sorted);
+        if(total.compareTo(BigInteger.valueOf(end)) < 0) end = total.longValue();
+        return Math.max(0, end - start);
+    }
+
+    /**
+     * Gets the name of the output file for a ranged call to {@link #permuteAll(String[], File, long, long)}.
+     * @param name the name that the output file would have for a full run, including extensions. The bounds are
+     *             inserted before the first extension, so that compound extensions such as ".txt.gz" stay intact.
+     * @param sorted the sorted index array that is being permuted
+     * @param start the rank of the first permutation in the range
+     * @param end the rank at which the range stops
+     * @return the unmodified name if the range covers the whole permutation sequence, or the name with the range
+     * bounds appended otherwise
+     */
+    protected String rangeName(String name, int[] sorted, long start, long end)
+    {
+        if(isFullRange(sorted, start, end)) return name;
+
+        int ext = name.indexOf('.');
+        String bounds = String.format("-%d-to-%d", start, start + rangeLength(sorted, start, end));
+        return ext < 0 ? name + bounds : name.substring(0, ext) + bounds + name.substring(ext);
+    }
+
+    /**
+     * Checks whether a rank range covers the whole permutation sequence of an index array.
+     * @param sorted the sorted index array that is being permuted
+     * @param start the rank of the first permutation in the range
+     * @param end the rank at which the range stops. {@link Long#MAX_VALUE} always means the end of the sequence.
+     * @return {@code true} if the range starts at zero and runs to the end of the sequence
+     */
+    protected boolean isFullRange(int[] sorted, long start, long end) {
+        return start == 0 && (end == Long.MAX_VALUE || total(sorted).compareTo(BigInteger.valueOf(end)) <= 0);
+    }
+
+    // Gets the distinct values in an array, in ascending order
+    private static int[] distinct(int[] arr)
+    {
+        int[] values = arr.clone();
+        Arrays.sort(values);
+        int count = 0;
+        for(int i = 0; i < values.length; i++)
+            if(i == 0 || values[i] != values[count - 1]) values[count++] = values[i];
+
+        return Arrays.copyOf(values, count);
+    }
+
+    // Gets the number of times each distinct value appears in a sorted array
+    private static int[] multiplicities(int[] sorted, int[] values)
+    {
+        int[] counts = new int[values.length];
+        for(int v : sorted) counts[Arrays.binarySearch(values, v)]++;
+        return counts;
+    }
+
+    /**
+     * Ranks the provided inputs with this Permutator's current {@link #comparator}. This is the entry point from
+     * string inputs into the typed permutation engine; subclasses permute the resulting index array and only convert
+     * back to strings when writing output.
+     * @param inputs the raw input array. This array is not modified.
+     * @return the ranking of the inputs
+     */
+    protected Ranking<String> rank(String[] inputs) {
+        return Ranking.of(inputs, comparator);
+    }
 }
@@ -1,39 +1,72 @@
 package com.michaelRunzler.ark;
 
 import org.reflections.Reflections;
+import org.reflections.util.ClasspathHelper;
+import org.reflections.util.ConfigurationBuilder;
 
 import java.lang.reflect.InvocationTargetException;
 import java.util.HashMap;
+import java.util.Map;
+import java.util.ServiceConfigurationError;
+import java.util.ServiceLoader;
 import java.util.Set;
 
 /**
  * Stores a publicly accessible registry of all active Permutator objects for use by other classes.
+ * Permutators are discovered through {@link ServiceLoader}: each one is listed by class name in a
+ * {@code META-INF/services/com.michaelRunzler.ark.Permutator} file on the classpath, so third-party permutators only
+ * need to ship that file in their jar to be picked up. Nothing is loaded until the registry is first used.
+ * The old classpath scan is still available by setting {@code -Dpermutator.scan=true}, for plugins that were built
+ * without a services file, but it reads every class on the classpath and is many times slower.
  */
 public class PermutatorRegister
 {
     public static final HashMap<String, Permutator> registry = new HashMap<>();
 
+    private static boolean populated = false;
+
     /**
-     * Populates the registry from all loaded subclasses of the Permutator abstract class.
+     * Populates the registry from every Permutator listed in a services file on the classpath, and from a full
+     * classpath scan if {@code -Dpermutator.scan=true} is set. Only the first call does any work, so it is safe to
+     * call this from every entry point.
      */
-    public static void populateRegistry()
+    public static synchronized void populateRegistry()
     {
-        // Index all subclasses of the Permutator abstract class
-        Reflections rf = new Reflections();
-        Set<Class<? extends Permutator>> classes = rf.getSubTypesOf(Permutator.class);
+        if(populated) return;
+        populated = true;
 
-        // Iterate through each class and add it to the registry
-        for(Class<? extends Permutator> c : classes)
+        // Each provider is only instantiated as the iterator reaches it
+        try {
+            for(Permutator p : ServiceLoader.load(Permutator.class)) registerPermutator(p);
+        } catch (ServiceConfigurationError e) {
+            System.out.println("Failure indexing permutators:");
+            e.printStackTrace();
+        }
+
+        if(Boolean.getBoolean("permutator.scan")) scanClasspath();
+    }
+
+    /**
+     * Creates a new instance of a registered Permutator, so that a job gets its own settings, progress counters and
+     * cancellation state instead of sharing the registry's copy.
+     * @param description the description of the Permutator to create, ignoring case
+     * @return the new Permutator
+     * @throws IllegalArgumentException if no registered Permutator has that description, or it can't be created
+     */
+    public static Permutator create(String description)
+    {
+        populateRegistry();
+        for(Map.Entry<String, Permutator> e : registry.entrySet())
         {
+            if(!e.getKey().equalsIgnoreCase(description)) continue;
             try {
-                // Call the constructor and add the resulting object (cast appropriately) to the registry
-                Permutator o = c.getDeclaredConstructor().newInstance();
-                registerPermutator(o);
-            } catch (InstantiationException | IllegalAccessException | InvocationTargetException | NoSuchMethodException e) {
-                System.out.println("Failure indexing permutators:");
-                e.printStackTrace();
+                return e.getValue().getClass().getDeclaredConstructor().newInstance();
+            } catch (ReflectiveOperationException ex) {
+                throw new IllegalArgumentException("Could not create a " + e.getKey() + " permutator.", ex);
             }
         }
+
+        throw new IllegalArgumentException("No permutator named " + description + "; expected one of " + registry.keySet() + ".");
     }
 
     /**
@@ -43,4 +76,25 @@ public class PermutatorRegister
     public static void registerPermutator(Permutator obj) {
         registry.put(obj.description, obj);
     }
+
+    // Indexes every subclass of Permutator on the classpath, for permutators that don't have a services file
+    private static void scanClasspath()
+    {
+        Reflections rf = new Reflections(new ConfigurationBuilder().setUrls(ClasspathHelper.forJavaClassPath()));
+        Set<Class<? extends Permutator>> classes = rf.getSubTypesOf(Permutator.class);
+
+        // Iterate through each class and add it to the registry, unless the services file already has
+        for(Class<? extends Permutator> c : classes)
+        {
+            if(registry.values().stream().anyMatch(p -> p.getClass() == c)) continue;
+            try {
+                // Call the constructor and add the resulting object (cast appropriately) to the registry
+                Permutator o = c.getDeclaredConstructor().newInstance();
+                registerPermutator(o);
+            } catch (InstantiationException | IllegalAccessException | InvocationTargetException | NoSuchMethodException e) {
+                System.out.println("Failure indexing permutators:");
+                e.printStackTrace();
+            }
+        }
+    }
 }
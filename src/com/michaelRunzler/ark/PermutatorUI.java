@@ -6,6 +6,7 @@ import core.UI.InterfaceDialogs.ARKInterfaceAlert;
 import core.UI.InterfaceDialogs.ARKInterfaceDialogYN;
 import core.UI.ModeLocal.ModeLocal;
 import core.UI.ModeLocal.ModeSwitchController;
+import javafx.concurrent.Task;
 import javafx.geometry.Side;
 import javafx.scene.control.*;
 import javafx.scene.layout.HBox;
@@ -13,10 +14,15 @@ import javafx.stage.DirectoryChooser;
 import javafx.stage.FileChooser;
 import javafx.stage.Screen;
 
+import java.io.Closeable;
 import java.io.File;
 import java.io.IOException;
+import java.io.InterruptedIOException;
 import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
 
 public class PermutatorUI extends ARKManagerBase
 {
@@ -29,6 +35,27 @@ public class PermutatorUI extends ARKManagerBase
     private static final int MODE_STRING = 1;
     private static final int MODE_CHARACTER = 0;
 
+    // How often to refresh the progress bar while a job runs, in milliseconds
+    private static final long PROGRESS_INTERVAL = 250;
+
+    // Roughly how long to spend timing a short sample of each job before confirming it, in milliseconds
+    private static final long CALIBRATION_MILLIS = 500;
+
+    // Runs queued jobs off the JavaFX application thread, so that the window stays responsive while they run. Worker
+    // threads are not daemons, so closing the window lets running jobs stop cleanly instead of killing them mid-write.
+    private final ThreadPoolExecutor executor = new ThreadPoolExecutor(1, 1, 1, TimeUnit.SECONDS,
+            new LinkedBlockingQueue<>(), r -> new Thread(r, "permutator-job"));
+    private int jobCount;
+
+    // Estimates each job before it is confirmed, off the JavaFX application thread, and separately from the job
+    // executor so that an estimate never waits behind a running job
+    private final ThreadPoolExecutor estimator = new ThreadPoolExecutor(1, 1, 1, TimeUnit.SECONDS,
+            new LinkedBlockingQueue<>(), r -> {
+        Thread t = new Thread(r, "permutator-estimate");
+        t.setDaemon(true);
+        return t;
+    });
+
     // Main node group
     private TabPane modeSelect;
     private ListView<String> items;
@@ -37,12 +64,23 @@ public class PermutatorUI extends ARKManagerBase
     private Button clear;
     private Button remove;
     private ProgressIndicator loading;
+    private ProgressBar progress;
+    private Label progressText;
+    private ComboBox<PermutationJob> jobs;
+    private Button cancel;
+    private Spinner<Integer> concurrency;
     private Button info;
 
     // Output selection
     private HBox outputSelectContainer;
     private Button selectOutputPath;
     private TextField outputPath;
+    private CheckBox resume;
+    private CheckBox compact;
+    private CheckBox gzip;
+    private TextField constraintInput;
+    private ChoiceBox<SelectionMode> selectionMode;
+    private TextField selectionSize;
 
     // Input selection
     @ModeLocal(MODE_FILE)
@@ -88,7 +126,12 @@ public class PermutatorUI extends ARKManagerBase
         clear = new Button("Clear List");
         remove = new Button("Remove");
         loading = new ProgressIndicator();
-        mainButtons = new HBox(remove, clear, process, loading);
+        progress = new ProgressBar(0.0);
+        progressText = new Label();
+        jobs = new ComboBox<>();
+        cancel = new Button("Cancel");
+        concurrency = new Spinner<>(1, Runtime.getRuntime().availableProcessors(), 1);
+        mainButtons = new HBox(remove, clear, process, loading, concurrency, jobs, cancel, progress, progressText);
         info = new Button("Program Info...");
 
         // Grab permutators and generate tabs for each
@@ -107,7 +150,14 @@ public class PermutatorUI extends ARKManagerBase
         // Set up mode-specific nodes
         selectOutputPath = new Button("Output Folder...");
         outputPath = new TextField();
-        outputSelectContainer = new HBox(selectOutputPath, outputPath);
+        resume = new CheckBox("Resume");
+        compact = new CheckBox("Compact");
+        gzip = new CheckBox("Gzip");
+        constraintInput = new TextField();
+        selectionMode = new ChoiceBox<>();
+        selectionSize = new TextField();
+        outputSelectContainer = new HBox(selectOutputPath, outputPath, resume, compact, gzip, constraintInput,
+                selectionMode, selectionSize);
 
         selectFile = new Button("Select File...");
         filePathDisplay = new TextField();
@@ -162,7 +212,19 @@ public class PermutatorUI extends ARKManagerBase
         strInput.setPromptText("Enter text...");
         outputPath.setEditable(true);
         outputPath.setPromptText("Folder path...");
+        constraintInput.setEditable(true);
+        constraintInput.setPromptText("Constraints...");
+        selectionMode.getItems().addAll(SelectionMode.values());
+        selectionMode.setValue(SelectionMode.PERMUTATIONS);
+        selectionSize.setEditable(true);
+        selectionSize.setPromptText("k");
+        selectionSize.setPrefColumnCount(3);
+        selectionSize.disableProperty().bind(selectionMode.valueProperty().isEqualTo(SelectionMode.PERMUTATIONS));
         loading.setProgress(0.0);
+        executor.allowCoreThreadTimeOut(true);
+        estimator.allowCoreThreadTimeOut(true);
+        jobs.setPromptText("No jobs");
+        cancel.disableProperty().bind(jobs.valueProperty().isNull());
 
         fileSelectContainer.setSpacing(5 * JFXUtil.SCALE);
         stringSelectContainer.setSpacing(5 * JFXUtil.SCALE);
@@ -184,6 +246,17 @@ public class PermutatorUI extends ARKManagerBase
         remove.setTooltip(new Tooltip("Remove the selected item from the list"));
         info.setTooltip(new Tooltip("Show program version and copyright information"));
         selectOutputPath.setTooltip(new Tooltip("Set where the permuted output files will go"));
+        resume.setTooltip(new Tooltip("Continue an interrupted sequential run from its last checkpoint in the output folder"));
+        compact.setTooltip(new Tooltip("Write text output in the compact delta format instead of plain text"));
+        gzip.setTooltip(new Tooltip("Compress text output with gzip, using every available processor"));
+        constraintInput.setTooltip(new Tooltip("Only generate permutations that follow these rules, separated by " +
+                "semicolons: A<B (A before B), X@1 (X first), X!@1 (X never first), C~D (C and D never adjacent)"));
+        selectionMode.setTooltip(new Tooltip("Generate full permutations, ordered selections of k inputs, or " +
+                "combinations of k inputs"));
+        selectionSize.setTooltip(new Tooltip("The number of inputs in each selection"));
+        concurrency.setTooltip(new Tooltip("How many jobs can run at once. Jobs beyond this wait in a queue."));
+        jobs.setTooltip(new Tooltip("Choose a job to show its progress"));
+        cancel.setTooltip(new Tooltip("Stop the selected job. Output that can be resumed is left with a checkpoint."));
         selectFile.setTooltip(new Tooltip("Choose an input file"));
         addFile.setTooltip(new Tooltip("Add the displayed file path to the list"));
         addStr.setTooltip(new Tooltip("Add the displayed string to the list"));
@@ -249,6 +322,42 @@ public class PermutatorUI extends ARKManagerBase
             if(idx >= 0) items.getItems().remove(idx);
         });
 
+        // Grow or shrink the pool in an order that keeps the core size no larger than the maximum
+        concurrency.valueProperty().addListener((observable, oldValue, newValue) -> {
+            if(newValue > executor.getMaximumPoolSize()) {
+                executor.setMaximumPoolSize(newValue);
+                executor.setCorePoolSize(newValue);
+            } else {
+                executor.setCorePoolSize(newValue);
+                executor.setMaximumPoolSize(newValue);
+            }
+        });
+
+        // Show the progress of whichever job is selected
+        jobs.valueProperty().addListener((observable, oldValue, newValue) -> {
+            progress.progressProperty().unbind();
+            progressText.textProperty().unbind();
+            if(newValue == null) {
+                progress.setProgress(0.0);
+                progressText.setText("");
+            } else {
+                progress.progressProperty().bind(newValue.progressProperty());
+                progressText.textProperty().bind(newValue.messageProperty());
+            }
+        });
+
+        cancel.setOnAction(e -> {
+            PermutationJob job = jobs.getValue();
+            if(job != null) job.cancel();
+        });
+
+        // Stop every job when the window closes. Their worker threads finish the current write and exit on their own.
+        window.setOnCloseRequest(e -> {
+            for(PermutationJob job : jobs.getItems()) job.cancel();
+            executor.shutdown();
+            estimator.shutdownNow();
+        });
+
         process.setOnAction(e ->
         {
             // Validate output path (again, done later, but we need visual warnings)
@@ -258,42 +367,171 @@ public class PermutatorUI extends ARKManagerBase
                 return;
             }
 
-            // Get permutator from the registry and format the item list
+            // Each job gets its own permutator, so that jobs can run side by side and be cancelled separately
             String id = modeSelect.getSelectionModel().getSelectedItem().getText();
-            Permutator perm = registry.get(id);
+            Permutator perm;
+            try {
+                perm = PermutatorRegister.create(id);
+            } catch (IllegalArgumentException ex) {
+                new ARKInterfaceAlert("Error", ex.getMessage()).display();
+                return;
+            }
             String[] inputs = items.getItems().toArray(new String[0]);
-            // Set the loading indicator so that it's obvious that the program hasn't just frozen
-            loading.setProgress(ProgressIndicator.INDETERMINATE_PROGRESS);
-            // Calculate how many permutations there will be
-            int numPermutations = fac(items.getItems().size());
 
-            // Confirm so that the user knows roughly how long to expect to wait
-            if(!new ARKInterfaceDialogYN("Confirm", "Processing " + numPermutations + " permutations.", "Yes", "No").display()) {
-                loading.setProgress(0.0);
+            // Parse any constraints before doing anything else, so that typos don't waste a long run
+            try {
+                String rules = constraintInput.getText().trim();
+                perm.constraints = rules.isEmpty() ? null : Constraints.parse(rules);
+            } catch (IllegalArgumentException ex) {
+                new ARKInterfaceAlert("Error", ex.getMessage()).display();
                 return;
             }
 
-            // Permute
-            try {
-                perm.permuteAll(inputs, output);
-                new ARKInterfaceAlert("Info", "Permutations succeeded.").display();
-            } catch (IOException ioException) {
-                new ARKInterfaceAlert("Error", "Encountered I/O error while permuting: " +
-                        (ioException.getCause() == null ? ioException.getMessage() : ioException.getCause().getMessage())).display();
-                ioException.printStackTrace();
+            // The selection mode has to be set before counting, since it changes how many results there are
+            perm.selection = selectionMode.getValue();
+            if(perm.selection != SelectionMode.PERMUTATIONS)
+            {
+                try {
+                    perm.selectionSize = Integer.parseInt(selectionSize.getText().trim());
+                    if(perm.selectionSize < 0) throw new NumberFormatException();
+                } catch (NumberFormatException ex) {
+                    new ARKInterfaceAlert("Error", "Invalid selection size. Please specify a non-negative number.").display();
+                    return;
+                }
+
+                if(perm.constraints != null) {
+                    new ARKInterfaceAlert("Error", "Constraints are only supported for full permutations.").display();
+                    return;
+                }
+            }
+
+            // Every output option has to be set before the estimate, since the format and compression decide the size
+            perm.resume = resume.isSelected();
+            perm.format = compact.isSelected() ? OutputFormat.DELTA : OutputFormat.TEXT;
+            perm.compression = gzip.isSelected() ? new BlockCompression() : null;
+            if(perm.resume && !perm.resumable()) {
+                new ARKInterfaceAlert("Error", "Jobs with these settings keep no checkpoints, so they can't be resumed. " +
+                        "Clear Resume to start over.").display();
+                return;
             }
 
-            // Set indicator back to 0%
-            loading.setProgress(0.0);
+            // Set the loading indicator so that it's obvious that the program hasn't just frozen
+            loading.setProgress(ProgressIndicator.INDETERMINATE_PROGRESS);
+            process.setDisable(true);
+
+            // Work out what the job will cost, so that jobs too large for the disk are refused instead of filling it.
+            // Calibration runs a real sample of the job, which can take a while (a full sox merge for audio), so it
+            // runs in the background and only the dialogs come back to the application thread.
+            Task<JobEstimate> estimating = new Task<JobEstimate>() {
+                @Override
+                protected JobEstimate call() throws IOException {
+                    return perm.estimate(inputs, output, CALIBRATION_MILLIS);
+                }
+            };
+            estimating.setOnSucceeded(ev -> {
+                process.setDisable(false);
+                loading.setProgress(0.0);
+                confirmAndQueue(perm, inputs, output, estimating.getValue());
+            });
+            estimating.setOnFailed(ev -> {
+                process.setDisable(false);
+                loading.setProgress(0.0);
+                new ARKInterfaceAlert("Error", "Could not estimate the job's size: " + estimating.getException().getMessage()).display();
+            });
+            estimator.execute(estimating);
         });
 
         info.setOnAction(e -> new ARKInterfaceAlert("Program Info", version).display());
     }
 
-    private static int fac(int num)
+    // Asks the user to confirm a job now that its estimate is in, and queues it if they do
+    private void confirmAndQueue(Permutator perm, String[] inputs, File output, JobEstimate estimate)
+    {
+        if(!estimate.fits()) {
+            new ARKInterfaceAlert("Error", estimate + ". The output will not fit in the free space on its volume.").display();
+            return;
+        }
+
+        // Confirm so that the user knows roughly how long to expect to wait
+        String warning = estimate.warning();
+        if(!new ARKInterfaceDialogYN(warning == null ? "Confirm" : "Warning", "Processing " + estimate + "." +
+                (warning == null ? "" : " " + warning + " Continue anyway?"), "Yes", "No").display()) return;
+
+        // Queue the job and show its progress
+        // Publish the job's live counters over JMX if asked to with -Dpermutator.jmx=true
+        String name = perm.description + " job " + (++jobCount);
+        if(Boolean.getBoolean("permutator.jmx")) perm.metrics.register(name);
+
+        PermutationJob job = new PermutationJob(name, perm, inputs, output);
+        job.setOnSucceeded(ev -> {
+            ConstrainedPermutations.Stats pruning = perm.metrics.getPruning();
+            new ARKInterfaceAlert("Info", job.getTitle() + " succeeded." + (pruning == null ? "" : " " + pruning)).display();
+        });
+        job.setOnFailed(ev -> {
+            Throwable ex = job.getException();
+            new ARKInterfaceAlert("Error", "Encountered I/O error while permuting: " +
+                    (ex.getCause() == null ? ex.getMessage() : ex.getCause().getMessage())).display();
+            ex.printStackTrace();
+        });
+
+        jobs.getItems().add(job);
+        jobs.setValue(job);
+        executor.execute(job);
+    }
+
+    // A single permutation run in the background. Progress comes from the permutator's counters; Task coalesces the
+    // updates, so the JavaFX application thread sees at most one pending refresh no matter how often they arrive.
+    private static class PermutationJob extends Task<Void>
     {
-        if(num == 1) return 1;
-        else if(num == 0) return 0;
-        else return num * fac(num -1);
+        private final Permutator perm;
+        private final String[] inputs;
+        private final File output;
+
+        PermutationJob(String name, Permutator perm, String[] inputs, File output)
+        {
+            this.perm = perm;
+            this.inputs = inputs;
+            this.output = output;
+            updateTitle(name);
+            updateMessage("Queued");
+        }
+
+        @Override
+        protected Void call() throws Exception
+        {
+            Closeable reporter = perm.metrics.report(PROGRESS_INTERVAL, this::update);
+            try {
+                perm.permuteAll(inputs, output);
+            } catch (InterruptedIOException e) {
+                // Cancelled part way through; the permutator has already left its output in a clean state
+                if(!isCancelled()) throw e;
+            } finally {
+                reporter.close();
+            }
+            return null;
+        }
+
+        // Stops the permutator cooperatively rather than interrupting the worker thread, since an interrupt would close
+        // any file channel it was writing to and leave a truncated file behind instead of a checkpoint
+        @Override
+        public boolean cancel(boolean mayInterruptIfRunning)
+        {
+            perm.cancel();
+            boolean cancelled = super.cancel(false);
+            if(cancelled) updateMessage("Cancelled");
+            return cancelled;
+        }
+
+        private void update(PermutationMetrics.Snapshot s)
+        {
+            if(s.total == null) updateProgress(-1, 1);
+            else updateProgress(s.emitted + s.skipped, s.total.doubleValue());
+            if(!isCancelled()) updateMessage(s.toString());
+        }
+
+        @Override
+        public String toString() {
+            return getTitle();
+        }
     }
 }
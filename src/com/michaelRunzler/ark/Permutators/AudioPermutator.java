@@ -1,20 +1,57 @@
 package com.michaelRunzler.ark.Permutators;
 
+import com.michaelRunzler.ark.PermutationSequence;
 import com.michaelRunzler.ark.Permutator;
+import com.michaelRunzler.ark.Ranking;
 import org.apache.commons.io.FileUtils;
 
+import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
-import java.net.URISyntaxException;
-import java.net.URL;
+import java.io.InterruptedIOException;
+import java.math.BigInteger;
 import java.nio.file.Files;
 import java.nio.file.Paths;
-import java.util.Arrays;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
 
 public class AudioPermutator extends Permutator
 {
+    /**
+     * The number of merge sub-processes to keep running at once. Defaults to the number of available processors.
+     * The permutation generator only ever runs a small, fixed number of jobs ahead of the oldest unfinished one, so
+     * memory use stays bounded no matter how many permutations there are.
+     */
+    public int workers = Runtime.getRuntime().availableProcessors();
+
+    /**
+     * If {@code true} (the default), and every input is an uncompressed clip that {@link WavConcatenator} can handle,
+     * permutations are concatenated in-process and written as WAV files instead of being merged by the bundled
+     * executable. Otherwise, or for compressed inputs such as MP3, each permutation is merged by a sub-process.
+     */
+    public boolean inProcess = true;
+
+    /**
+     * The disk budget, in bytes, for the {@link PrefixRenderCache} used by sub-process merges. Each permutation of
+     * more than three inputs is merged from a cached render of all but its last two inputs, and each cached prefix is
+     * itself built from the next-shortest one, so each merge only decodes a few inputs instead of all of them.
+     * Zero disables the cache.
+     */
+    public long cacheBudget = 256L * 1024 * 1024;
+
+    // How many jobs may be queued per worker before the generator waits for the oldest one to finish
+    private static final int JOBS_PER_WORKER = 2;
+
     /**
      * Default constructor.
      */
@@ -26,11 +63,32 @@ public class AudioPermutator extends Permutator
                 "as a new file.";
     }
 
+    /**
+     * {@inheritDoc}
+     * Audio jobs write each permutation to its own file and keep no checkpoints, so they are never resumable; use a
+     * rank range to redo part of a job instead.
+     */
+    @Override
+    public boolean resumable() {
+        return false;
+    }
+
+    @Override
+    public void permuteAll(String[] inputs, File targetFolder) throws IOException {
+        permuteAll(inputs, targetFolder, 0, Long.MAX_VALUE);
+    }
+
+    /**
+     * {@inheritDoc}
+     * Each permutation is written to its own file, numbered by its rank (starting from 1), so files from different
+     * ranges of the same inputs never collide. Up to {@link #workers} permutations are merged at once; a failed merge
+     * does not stop the others, and all failures are reported together once every permutation has been attempted.
+     */
     @Override
-    public void permuteAll(String[] inputs, File targetFolder) throws IOException
+    public void permuteAll(String[] inputs, File targetFolder, long start, long end) throws IOException
     {
-        int counter = 1;
-        boolean running = true;
+        if(sampling()) throw new UnsupportedOperationException("Audio jobs can't be sampled.");
+        checkResumable();
 
         // Verify that all target files are valid and readable
         boolean allValid = true;
@@ -45,8 +103,130 @@ public class AudioPermutator extends Permutator
         // If not all files are readable, throw an exception to signal to the main loop that something went wrong
         if(!allValid) throw new IOException("Could not read from one or more files.");
 
+        // Rank the inputs once and permute their indices instead of the paths themselves
+        Ranking<String> ranking = rank(inputs);
+        String[] dict = ranking.dictionary();
+        int[] sorted = ranking.sorted();
+        long remaining = rangeLength(sorted, start, end);
+        if(remaining == 0) return;
+
+        // Selection modes write clips made from k of the inputs rather than all of them
+        PermutationSequence seq = sequence(sorted, start);
+        int[] p = seq.current();
+        long counter = start + 1;
+        boolean running = true;
+
+        metrics.start(BigInteger.valueOf(remaining));
+        try {
+            // Uncompressed clips are decoded once and concatenated directly, with no sub-processes at all
+            if(inProcess && WavConcatenator.supports(dict))
+            {
+                try(WavConcatenator wav = new WavConcatenator(dict))
+                {
+                    while(running)
+                    {
+                        checkCancelled();
+                        File dst = new File(targetFolder, String.format("permutations-Audio-%d.wav", counter));
+                        System.out.printf("Processing permutation %d...", counter);
+                        try {
+                            wav.write(p, dst);
+                        } catch (IOException e) {
+                            // Don't leave a truncated clip behind, whether the write failed or was interrupted
+                            dst.delete();
+                            throw e;
+                        }
+                        metrics.add(1, dst.length());
+                        System.out.println("done.");
+
+                        running = --remaining > 0 && seq.next();
+                        counter ++;
+                    }
+                }
+            }
+            else mergeAll(seq, remaining, counter, dict, targetFolder);
+        } finally {
+            metrics.finish();
+        }
+    }
+
+    // Merges every permutation in the remaining range with sub-processes, running up to the set number of workers at once
+    private void mergeAll(PermutationSequence seq, long remaining, long counter, String[] dict, File targetFolder) throws IOException
+    {
+        int[] p = seq.current();
+        boolean running = true;
+
+        String mergeExecExtPath = extractMergeExecutable();
+
+        ExecutorService pool = Executors.newFixedThreadPool(Math.max(1, workers));
+        Deque<Future<MergeResult>> inFlight = new ArrayDeque<>();
+        List<MergeResult> failures = new ArrayList<>();
+        Map<Long, File> pending = new HashMap<>();
+        long total = remaining;
+        PrefixRenderCache cache = cacheBudget > 0 && p.length > 3 ? new PrefixRenderCache(cacheBudget) : null;
+
+        try {
+            // Produce all permutations in the requested range of the input set
+            while(running)
+            {
+                checkCancelled();
+
+                // Construct the destination path object and ensure that it doesn't already exist
+                String dstFileNameNoExt = String.format("permutations-Audio-%d", counter);
+                File dst = new File(targetFolder, dstFileNameNoExt + ".mp3");
+                if(dst.exists() && !dst.delete()) throw new IOException("Destination file " + dst.getAbsolutePath()
+                        + " already exists and could not be deleted.");
+
+                // Hand a snapshot of the permutation off to the worker pool
+                long id = counter;
+                int[] perm = p.clone();
+                pending.put(id, dst);
+                inFlight.add(pool.submit(() -> merge(id, perm, dict, mergeExecExtPath, dst, cache)));
+
+                // Apply backpressure: once enough jobs are queued, wait for the oldest before generating another
+                if(inFlight.size() >= Math.max(1, workers) * JOBS_PER_WORKER) pending.remove(collect(inFlight.poll(), failures));
+
+                // Iterate to the next permutation
+                running = --remaining > 0 && seq.next();
+                counter ++;
+            }
+
+            // Wait for the rest of the jobs, logging them in the same order that they were generated
+            while(!inFlight.isEmpty()) {
+                checkCancelled();
+                pending.remove(collect(inFlight.poll(), failures));
+            }
+        } catch (InterruptedIOException e) {
+            // Stop the merges that are still running, and delete whatever they had written so far
+            pool.shutdownNow();
+            try {
+                pool.awaitTermination(10, TimeUnit.SECONDS);
+            } catch (InterruptedException ignored) {
+                Thread.currentThread().interrupt();
+            }
+            for(File f : pending.values()) f.delete();
+            throw e;
+        } finally {
+            pool.shutdownNow();
+            if(cache != null) {
+                System.out.println(cache.stats());
+                cache.close();
+            }
+        }
+
+        if(!failures.isEmpty())
+        {
+            StringBuilder sb = new StringBuilder();
+            sb.append(failures.size()).append(" of ").append(total).append(" permutations failed:");
+            for(MergeResult r : failures) sb.append("\n  ").append(r);
+            throw new IOException(sb.toString());
+        }
+    }
+
+    // Extracts the bundled merge executable and its libraries to the temporary folder if it isn't already there
+    private String extractMergeExecutable() throws IOException
+    {
         // If the executable hasn't already been extracted:
-        String mergeExecExtPath = System.getProperty("java.io.tmpdir") + "sox" + File.separator + "sox.exe";
+        String mergeExecExtPath = new File(System.getProperty("java.io.tmpdir"), "sox" + File.separator + "sox.exe").getAbsolutePath();
         if(!new File(mergeExecExtPath).exists())
         {
             // Get the local file inventory as a list
@@ -68,48 +248,138 @@ public class AudioPermutator extends Permutator
             }
         }
 
-        // Sort the incoming array before permuting
-        Arrays.sort(inputs);
+        return mergeExecExtPath;
+    }
+
+    // Merges a single permutation, starting from a cached render of its prefix if there is a cache. Runs on a worker
+    // thread.
+    private static MergeResult merge(long id, int[] p, String[] dict, String exec, File dst, PrefixRenderCache cache)
+    {
+        int prefix = cache == null ? 0 : p.length - 2;
+        PrefixRenderCache.Lease lease = null;
+        try {
+            List<String> args = new ArrayList<>();
+            args.add(exec);
+            if(prefix > 0) {
+                lease = render(p, prefix, dict, exec, cache);
+                args.add(lease.file().getAbsolutePath());
+            }
+            for(int i = prefix; i < p.length; i++) args.add(dict[p[i]]);
+            args.add(dst.getAbsolutePath());
+
+            runMerge(args);
+            return new MergeResult(id, 0, null, dst.length());
+        } catch (MergeFailedException e) {
+            return new MergeResult(id, e.exitCode, e.getMessage(), 0);
+        } catch (IOException e) {
+            return new MergeResult(id, -1, e.getMessage(), 0);
+        } finally {
+            if(lease != null) lease.close();
+        }
+    }
 
-        // Produce all permutations of the input set
-        while(running)
+    // Gets the rendered file for the first few entries of a permutation, rendering it from the next-shortest prefix if
+    // it isn't cached. The caller must close the lease once it is done with the file.
+    private static PrefixRenderCache.Lease render(int[] p, int length, String[] dict, String exec, PrefixRenderCache cache) throws IOException
+    {
+        long sourceBytes = 0;
+        for(int i = 0; i < length; i++) sourceBytes += new File(dict[p[i]]).length();
+
+        return cache.acquire(p, length, sourceBytes, () ->
         {
-            // Construct the destination path object and ensure that it doesn't already exist
-            String dstFileNameNoExt = String.format("permutations-Audio-%d", counter);
-            File dst = new File(targetFolder, dstFileNameNoExt + ".mp3");
-            if(dst.exists() && !dst.delete()) throw new IOException("Destination file " + dst.getAbsolutePath()
-                    + " already exists and could not be deleted.");
+            // Single-entry prefixes are just the input file itself, so don't cache them
+            try(PrefixRenderCache.Lease parent = length == 2 ? null : render(p, length - 1, dict, exec, cache))
+            {
+                List<String> args = new ArrayList<>();
+                args.add(exec);
+                args.add(parent == null ? dict[p[0]] : parent.file().getAbsolutePath());
+                args.add(dict[p[length - 1]]);
+
+                File out = cache.newFile();
+                args.add(out.getAbsolutePath());
+                runMerge(args);
+                return out;
+            }
+        });
+    }
+
+    // Runs a single merge sub-process to completion, throwing an exception if it fails
+    private static void runMerge(List<String> args) throws IOException
+    {
+        // Drain the sub-process' console output as it runs so that it can never block on a full pipe
+        Process extProcess = new ProcessBuilder(args).redirectErrorStream(true).start();
+        ByteArrayOutputStream log = new ByteArrayOutputStream();
+        byte[] buf = new byte[4096];
+        try(InputStream out = extProcess.getInputStream()) {
+            for(int read; (read = out.read(buf)) > 0; ) log.write(buf, 0, read);
+        }
 
-            // Construct argument string for the executable
-            String args = String.format("\"%s\" %s \"%s\"", mergeExecExtPath, concat(inputs), dst.getAbsolutePath());
+        int result;
+        try {
+            result = extProcess.waitFor();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            extProcess.destroy();
+            throw new IOException("Interrupted before the merge could complete.", e);
+        }
 
-            System.out.printf("Processing permutation %d...", counter);
+        if(result != 0) throw new MergeFailedException(result, log.toString().trim());
+    }
 
-            // Run the executable with the arguments and wait for it to terminate
-            Process extProcess = Runtime.getRuntime().exec(args);
-            try {
-                int result = extProcess.waitFor();
-                if(result != 0) throw new IOException("MP3 manipulation sub-process terminated with nonzero exit code " + result);
-            } catch (InterruptedException ignored) {}
-            System.out.println("done.");
-
-            // Iterate to the next permutation
-            running = nextPermutation(inputs);
-            counter ++;
+    // Waits for a single job to complete, logs its result, and records it in the metrics, or as a failure if it failed.
+    // Returns the job's permutation number.
+    private long collect(Future<MergeResult> job, List<MergeResult> failures) throws IOException
+    {
+        MergeResult r;
+        try {
+            r = job.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw (InterruptedIOException)new InterruptedIOException("Interrupted while waiting for merge jobs to complete.").initCause(e);
+        } catch (ExecutionException e) {
+            throw new IOException("Merge job failed unexpectedly.", e.getCause());
+        }
+
+        System.out.printf("Processing permutation %d...%s\n", r.id, r.exitCode == 0 ? "done." : "FAILED.");
+        if(r.exitCode != 0) failures.add(r);
+        else metrics.add(1, r.bytes);
+        return r.id;
+    }
+
+    // Thrown when a merge sub-process exits with a nonzero exit code
+    private static class MergeFailedException extends IOException
+    {
+        private static final long serialVersionUID = 1L;
+
+        final int exitCode;
+
+        MergeFailedException(int exitCode, String message)
+        {
+            super(message);
+            this.exitCode = exitCode;
         }
     }
 
-    // Concatenates an array of strings into one string, separated by spaces
-    private String concat(String[] arr)
+    // The outcome of a single merge job
+    private static class MergeResult
     {
-        StringBuilder sb = new StringBuilder();
-        for(int i = 0; i < arr.length; i++) {
-            sb.append("\"");
-            sb.append(arr[i]);
-            sb.append("\"");
-            if(i != arr.length - 1) sb.append(" ");
+        final long id;
+        final int exitCode;
+        final String message;
+        final long bytes;
+
+        MergeResult(long id, int exitCode, String message, long bytes)
+        {
+            this.id = id;
+            this.exitCode = exitCode;
+            this.message = message;
+            this.bytes = bytes;
         }
 
-        return sb.toString();
+        @Override
+        public String toString() {
+            return String.format("Permutation %d: sub-process terminated with exit code %d%s", id, exitCode,
+                    message == null || message.isEmpty() ? "" : " (" + message + ")");
+        }
     }
 }
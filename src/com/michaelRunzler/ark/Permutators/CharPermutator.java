@@ -1,15 +1,44 @@
 package com.michaelRunzler.ark.Permutators;
 
+import com.michaelRunzler.ark.BlockCompression;
+import com.michaelRunzler.ark.BufferedChannelSink;
+import com.michaelRunzler.ark.ParallelPermutations;
 import com.michaelRunzler.ark.Permutator;
+import com.michaelRunzler.ark.Ranking;
 
-import java.io.BufferedOutputStream;
 import java.io.File;
-import java.io.FileOutputStream;
 import java.io.IOException;
+import java.math.BigInteger;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.stream.Stream;
 
 public class CharPermutator extends Permutator
 {
+    /**
+     * If {@code true} (the default), repeated characters within an input are treated as identical, and each distinct
+     * arrangement is produced exactly once; "aabbccdd" yields 2520 permutations. If {@code false}, every character
+     * position is treated as unique, and all n! arrangements are produced, duplicates included.
+     */
+    public boolean multiset = true;
+
+    /**
+     * The most output files to have open at once, whether several strings are written concurrently or a single string
+     * is split across threads into segment files. Each open file has its own output buffers.
+     */
+    public int maxOpenFiles = 64;
+
+    /**
+     * The most memory, in bytes, to hold in output buffers across every open file. Compressed output needs several
+     * blocks per file (see {@link BlockCompression}), so this usually limits compressed jobs to fewer files at once than
+     * {@link #maxOpenFiles}.
+     */
+    public long maxBufferedBytes = 256L << 20;
+
     /**
      * Default constructor.
      */
@@ -22,51 +51,217 @@ public class CharPermutator extends Permutator
     }
 
     @Override
-    public void permuteAll(String[] inputs, File targetFolder) throws IOException
+    public void permuteAll(String[] inputs, File targetFolder) throws IOException {
+        permuteAll(inputs, targetFolder, 0, Long.MAX_VALUE);
+    }
+
+    /**
+     * {@inheritDoc}
+     * Since each input string is permuted on its own, the range is applied to each string's permutations separately.
+     * If there is more than one string and {@link #parallelism} is greater than one, the strings are written
+     * concurrently, one string per thread, rather than each being split up in turn; see {@link #maxOpenFiles}.
+     */
+    @Override
+    public void permuteAll(String[] inputs, File targetFolder, long start, long end) throws IOException
     {
-        int counter = 1;
-        // Repeat the process for each string in the input array, writing each to its own numbered file
+        checkResumable();
+
+        // Every string's range counts towards the job's progress, so add them all up before starting
+        long[] lengths = new long[inputs.length];
+        BigInteger total = BigInteger.ZERO;
+        for(int i = 0; i < inputs.length; i++) {
+            lengths[i] = sampling() ? sampleSize : rangeLength(sorted(toStringArray(inputs[i].toCharArray())), start, end);
+            total = total.add(BigInteger.valueOf(lengths[i]));
+        }
+        metrics.start(constrained() ? null : total);
+
+        try {
+            int width = concurrency(inputs.length);
+            if(width > 1) permuteConcurrently(inputs, lengths, targetFolder, start, end, width);
+            else {
+                // Repeat the process for each string in the input array, writing each to its own numbered file
+                for(int i = 0; i < inputs.length; i++) permute(inputs[i], i + 1, targetFolder, start, end, splitThreads());
+            }
+        } finally {
+            metrics.finish();
+        }
+    }
+
+    @Override
+    public BigInteger count(String[] inputs)
+    {
+        // Each input string is permuted on its own, so the total is the sum of the per-string counts
+        BigInteger total = BigInteger.ZERO;
+        for(String s : inputs) {
+            String[] str = toStringArray(s.toCharArray());
+            total = total.add(sampled(total(sorted(str))));
+        }
+
+        return total;
+    }
+
+    @Override
+    protected BigInteger count(String[] inputs, long start, long end)
+    {
+        // The range applies to each string's permutations separately
+        BigInteger total = BigInteger.ZERO;
+        for(String s : inputs) total = total.add(clamp(sampled(total(sorted(toStringArray(s.toCharArray())))), start, end));
+        return total;
+    }
+
+    @Override
+    protected BigInteger outputBytes(String[] inputs)
+    {
+        // Each input string gets its own file, so the total is the sum of the per-string sizes
+        BigInteger total = BigInteger.ZERO;
         for(String s : inputs)
         {
-            // Write output file and ensure overwrite
-            File output = new File(targetFolder, String.format("permutations-Character-%d.txt", counter));
-            if(output.exists())
-                output.delete();
-
-            BufferedOutputStream fos;
+            String[] str = toStringArray(s.toCharArray());
+            Ranking<String> ranking = multiset ? rank(str) : null;
+            String[] dict = multiset ? ranking.dictionary() : positionalDictionary(str);
+            BigInteger bytes = textBytes(dict, multiset ? ranking.sorted() : identity(str.length), "");
+            if(bytes == null) return null;
+            total = total.add(bytes);
+        }
 
-            output.createNewFile();
-            fos = new BufferedOutputStream(new FileOutputStream(output));
+        return total;
+    }
 
+    @Override
+    public Stream<List<String>> stream(String[] inputs)
+    {
+        // Each input string is permuted on its own, so its permutations follow on from the previous string's
+        Stream<List<String>> result = Stream.empty();
+        for(String s : inputs)
+        {
             String[] str = toStringArray(s.toCharArray());
+            Ranking<String> ranking = multiset ? rank(str) : null;
+            String[] dict = multiset ? ranking.dictionary() : positionalDictionary(str);
+            int[] sorted = multiset ? ranking.sorted() : identity(str.length);
+            result = Stream.concat(result, stream(dict, sorted));
+        }
 
-            // Sort the incoming array before permuting
-            Arrays.sort(str);
+        return result;
+    }
 
-            // Write each permutation to the destination file, terminated by a newline
-            boolean running = true;
-            while(running) {
-                fos.write((concat(str) + "\n").getBytes());
-                running = nextPermutation(str);
-            }
+    // Writes a single string's permutations to its own numbered file, split across the given number of threads
+    private void permute(String s, int number, File targetFolder, long start, long end, int threads) throws IOException
+    {
+        String[] str = toStringArray(s.toCharArray());
+
+        // Rank the characters once and permute their indices instead of the strings themselves
+        Ranking<String> ranking = multiset ? rank(str) : null;
+        String[] dict = multiset ? ranking.dictionary() : positionalDictionary(str);
+        int[] sorted = multiset ? ranking.sorted() : identity(str.length);
+        long length = rangeLength(sorted, start, end);
+        boolean full = isFullRange(sorted, start, end);
+
+        String name = outputName(String.format("permutations-Character-%d", number));
+        File output = new File(targetFolder, sampling() ? sampleName(name) : rangeName(name, sorted, start, end));
+
+        if(sampling()) {
+            writeSample(sorted, dict, "", output, full, threads);
+            return;
+        }
+
+        // Constraints refer to characters, which only map onto single dictionary entries in multiset mode
+        if(constrained()) {
+            if(!multiset) throw new UnsupportedOperationException("Constraints are only supported in multiset mode.");
+            writeConstrained(sorted, dict, "", output, full);
+            return;
+        }
+
+        if(threads > 1) {
+            if(full) ParallelPermutations.write(sorted, sinks(dict, ""), output, threads, segmented);
+            else ParallelPermutations.write(sorted, sinks(dict, ""), output, threads, segmented, start, length);
+            return;
+        }
+
+        // Write each permutation to the destination file in the chosen format, resuming it if asked to
+        writeRange(sorted, dict, "", output, start, length);
+    }
+
+    // Gets the number of threads to write with: one per file, and no more files at once than the caps allow
+    private int capped()
+    {
+        long byMemory = maxBufferedBytes / BufferedChannelSink.bufferedBytes(compression);
+        return (int)Math.max(1, Math.min(parallelism, Math.min(maxOpenFiles, byMemory)));
+    }
+
+    // Gets the number of strings to write at once
+    private int concurrency(int strings) {
+        return strings <= 1 ? 1 : Math.min(capped(), strings);
+    }
+
+    // Gets the number of threads to split a single string across. Every split thread writes its own segment file, so
+    // the same caps apply.
+    private int splitThreads() {
+        return parallel() || sampling() ? capped() : 1;
+    }
+
+    // Writes every string on a shared work-stealing pool, starting with the ones that have the most permutations so
+    // that no long string is left running on its own at the end. Files keep the numbers of their input positions.
+    private void permuteConcurrently(String[] inputs, long[] lengths, File targetFolder, long start, long end,
+                                     int width) throws IOException
+    {
+        Integer[] order = new Integer[inputs.length];
+        for(int i = 0; i < order.length; i++) order[i] = i;
+        Arrays.sort(order, Comparator.comparingLong((Integer i) -> lengths[i]).reversed());
 
-            // Close out the file
-            fos.flush();
-            fos.close();
-            counter ++;
+        // A string with more than its share of the remaining work would keep one thread busy long after the others
+        // are done, so any such strings are split across every thread on their own first
+        double remaining = 0;
+        for(long l : lengths) remaining += l;
+        int first = 0;
+        while(splitThreads() > 1 && first < order.length && lengths[order[first]] * (double)width > remaining) {
+            int i = order[first++];
+            permute(inputs[i], i + 1, targetFolder, start, end, splitThreads());
+            remaining -= lengths[i];
         }
+
+        // Once one string fails, the ones that haven't started yet are skipped
+        AtomicBoolean failed = new AtomicBoolean();
+        List<Callable<Void>> tasks = new ArrayList<>();
+        for(int i : Arrays.asList(order).subList(first, order.length))
+        {
+            tasks.add(() -> {
+                if(failed.get()) return null;
+                checkCancelled();
+                try {
+                    permute(inputs[i], i + 1, targetFolder, start, end, 1);
+                } catch (IOException | RuntimeException e) {
+                    failed.set(true);
+                    throw e;
+                }
+                return null;
+            });
+        }
+
+        ParallelPermutations.invokeAll(tasks, width);
     }
 
-    // Concatenates an array of strings into one string
-    private String concat(String[] arr)
+    // Sorts a copy of the provided array without collapsing duplicates, so that each position gets its own index
+    private String[] positionalDictionary(String[] str)
     {
-        StringBuilder sb = new StringBuilder();
-        for (String s : arr) sb.append(s);
+        String[] dict = str.clone();
+        Arrays.sort(dict, comparator);
+        return dict;
+    }
+
+    // Gets the sorted index array to permute for a single string
+    private int[] sorted(String[] str) {
+        return multiset ? rank(str).sorted() : identity(str.length);
+    }
 
-        return sb.toString();
+    // Gets an index array in which every position is distinct
+    private int[] identity(int length)
+    {
+        int[] p = new int[length];
+        for(int i = 0; i < length; i++) p[i] = i;
+        return p;
     }
 
-    // Convert a character array into a string array for use by the nextPermutation method
+    // Convert a character array into a string array for use by the dictionary and ranking methods
     private String[] toStringArray(char[] c)
     {
         String[] strs = new String[c.length];
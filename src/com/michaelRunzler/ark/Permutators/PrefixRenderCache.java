@@ -0,0 +1,232 @@
+package com.michaelRunzler.ark.Permutators;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A bounded, disk-backed cache of rendered permutation prefixes. Consecutive permutations in lexicographical order
+ * share long prefixes, so once a prefix has been rendered to an intermediate file, every permutation that starts with
+ * it only needs to append its own suffix. Entries are evicted least-recently-used first once the total size of the
+ * cached files exceeds the budget, except for entries that are still being used by a running merge.
+ * This class is thread-safe; if two merges need the same missing prefix at once, it is only rendered once.
+ */
+public class PrefixRenderCache implements Closeable
+{
+    /**
+     * Renders a single prefix to a file.
+     */
+    public interface Renderer {
+        File render() throws IOException;
+    }
+
+    private final File directory;
+    private final long budget;
+    private final LinkedHashMap<String, Entry> entries = new LinkedHashMap<>(16, 0.75f, true);
+    private final AtomicLong fileCounter = new AtomicLong();
+    private long size;
+
+    private long hits;
+    private long misses;
+    private long bytesSaved;
+
+    /**
+     * Default constructor. Creates a new temporary directory to hold rendered prefixes.
+     * @param budget the total size, in bytes, that cached files may take up before older ones are evicted
+     */
+    public PrefixRenderCache(long budget) throws IOException
+    {
+        this.budget = budget;
+        this.directory = Files.createTempDirectory("permutator-prefixes").toFile();
+    }
+
+    /**
+     * Gets the rendered file for a prefix, rendering it first if it is not already cached. The file is pinned in the
+     * cache until the returned lease is closed. If this throws, nothing is left pinned.
+     * @param p the permutation that the prefix belongs to
+     * @param length the number of leading entries in the prefix
+     * @param sourceBytes the size of the source files covered by the prefix, which is counted as saved on a cache hit
+     * @param renderer renders the prefix if it is not cached. Should write to a file obtained from {@link #newFile()}.
+     * @return a lease on the rendered prefix file
+     */
+    public Lease acquire(int[] p, int length, long sourceBytes, Renderer renderer) throws IOException
+    {
+        String key = key(p, length);
+        Entry e;
+        boolean owner = false;
+
+        synchronized(this)
+        {
+            e = entries.get(key);
+            if(e != null) {
+                hits++;
+                bytesSaved += sourceBytes;
+            } else {
+                misses++;
+                e = new Entry(new FutureTask<>(renderer::render));
+                entries.put(key, e);
+                owner = true;
+            }
+            e.pins++;
+        }
+
+        // Render outside of the lock, so that unrelated prefixes can render at the same time
+        if(owner) e.task.run();
+
+        try {
+            File f = e.task.get();
+            if(owner) {
+                synchronized(this) {
+                    e.bytes = f.length();
+                    size += e.bytes;
+                    evict();
+                }
+            }
+            return new Lease(key, e, f);
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            release(key, e);
+            throw new IOException("Interrupted while waiting for a prefix to render.", ex);
+        } catch (ExecutionException ex) {
+            // Drop the failed entry so that a later request can try again
+            synchronized(this) {
+                if(entries.get(key) == e) entries.remove(key);
+            }
+            release(key, e);
+            if(ex.getCause() instanceof IOException) throw (IOException)ex.getCause();
+            throw new IOException("Failed to render prefix " + key + ".", ex.getCause());
+        }
+    }
+
+    /**
+     * Gets a new, unique file in the cache directory for a renderer to write to.
+     * @return a file that does not exist yet
+     */
+    public File newFile() {
+        return new File(directory, "prefix-" + fileCounter.incrementAndGet() + ".wav");
+    }
+
+    /**
+     * Gets a one-line summary of the cache's hit rate and savings.
+     * @return the summary
+     */
+    public synchronized String stats()
+    {
+        long total = hits + misses;
+        return String.format("Prefix cache: %d hits, %d misses (%.1f%% hit rate), %.1f MB of source audio not re-merged, " +
+                "%.1f of %.1f MB in use.", hits, misses, total == 0 ? 0.0 : 100.0 * hits / total, bytesSaved / 1048576.0,
+                size / 1048576.0, budget / 1048576.0);
+    }
+
+    /**
+     * Deletes every cached file and the cache directory.
+     */
+    @Override
+    public synchronized void close() throws IOException
+    {
+        for(Entry e : entries.values()) delete(e);
+        entries.clear();
+        size = 0;
+
+        File[] leftovers = directory.listFiles();
+        if(leftovers != null) for(File f : leftovers) f.delete();
+        if(!directory.delete()) throw new IOException("Could not delete prefix cache directory " + directory.getAbsolutePath());
+    }
+
+    // Unpins an entry, and evicts anything that no longer fits now that it may be unpinned
+    private synchronized void release(String key, Entry e)
+    {
+        e.pins--;
+        if(entries.get(key) != e && e.pins == 0) delete(e);
+        evict();
+    }
+
+    // Evicts the least recently used entries that are not in use until the cache fits in its budget again
+    private void evict()
+    {
+        Iterator<Map.Entry<String, Entry>> it = entries.entrySet().iterator();
+        while(size > budget && it.hasNext())
+        {
+            Entry e = it.next().getValue();
+            if(e.pins > 0 || !e.task.isDone()) continue;
+
+            it.remove();
+            delete(e);
+        }
+    }
+
+    // Deletes an entry's file, if it was rendered successfully
+    private void delete(Entry e)
+    {
+        if(!e.task.isDone()) return;
+        try {
+            File f = e.task.get();
+            if(f.delete()) size -= e.bytes;
+        } catch (InterruptedException | ExecutionException ignored) {}
+    }
+
+    private static String key(int[] p, int length)
+    {
+        StringBuilder sb = new StringBuilder();
+        for(int i = 0; i < length; i++) sb.append(p[i]).append(',');
+        return sb.toString();
+    }
+
+    /**
+     * A pin on a single rendered prefix, which keeps its file from being evicted until the lease is closed.
+     */
+    public class Lease implements Closeable
+    {
+        private final String key;
+        private final Entry entry;
+        private final File file;
+        private boolean closed;
+
+        private Lease(String key, Entry entry, File file)
+        {
+            this.key = key;
+            this.entry = entry;
+            this.file = file;
+        }
+
+        /**
+         * Gets the rendered prefix file.
+         * @return the file
+         */
+        public File file() {
+            return file;
+        }
+
+        /**
+         * Unpins the prefix. Closing a lease more than once has no further effect.
+         */
+        @Override
+        public void close()
+        {
+            synchronized(PrefixRenderCache.this) {
+                if(closed) return;
+                closed = true;
+                release(key, entry);
+            }
+        }
+    }
+
+    // A single cached prefix
+    private static class Entry
+    {
+        final FutureTask<File> task;
+        long bytes;
+        int pins;
+
+        Entry(FutureTask<File> task) {
+            this.task = task;
+        }
+    }
+}
@@ -1,15 +1,28 @@
 package com.michaelRunzler.ark.Permutators;
 
+import com.michaelRunzler.ark.MappedPermutationWriter;
+import com.michaelRunzler.ark.OutputFormat;
+import com.michaelRunzler.ark.ParallelPermutations;
+import com.michaelRunzler.ark.PermutationOrder;
 import com.michaelRunzler.ark.Permutator;
+import com.michaelRunzler.ark.Ranking;
+import com.michaelRunzler.ark.SelectionMode;
 
-import java.io.BufferedOutputStream;
 import java.io.File;
-import java.io.FileOutputStream;
 import java.io.IOException;
-import java.util.Arrays;
+import java.math.BigInteger;
 
 public class StringPermutator extends Permutator
 {
+    /**
+     * If {@code true}, output is written with {@link MappedPermutationWriter}: the file is sized up front and split into
+     * one region per {@link #parallelism} thread, each filled through memory-mapped windows. Every line is the same
+     * length, so the finished file can be read a line at a time by rank with
+     * {@link com.michaelRunzler.ark.MappedPermutationReader}. This needs uncompressed text output of full permutations
+     * in lexicographical order, without constraints, and can't be resumed; cancelled or failed jobs delete their output.
+     */
+    public boolean mapped = false;
+
     /**
      * Default constructor.
      */
@@ -22,42 +35,61 @@ public class StringPermutator extends Permutator
     }
 
     @Override
-    public void permuteAll(String[] inputs, File targetFolder) throws IOException
-    {
-        // Write output file and ensure overwrite
-        File output = new File(targetFolder, "permutations-String.txt");
-        if(output.exists())
-            output.delete();
+    public void permuteAll(String[] inputs, File targetFolder) throws IOException {
+        permuteAll(inputs, targetFolder, 0, Long.MAX_VALUE);
+    }
 
-        BufferedOutputStream fos;
+    @Override
+    public void permuteAll(String[] inputs, File targetFolder, long start, long end) throws IOException
+    {
+        checkResumable();
 
-        output.createNewFile();
-        fos = new BufferedOutputStream(new FileOutputStream(output));
+        // Rank the inputs once and permute their indices instead of the strings themselves
+        Ranking<String> ranking = rank(inputs);
+        String[] dict = ranking.dictionary();
+        int[] sorted = ranking.sorted();
+        long length = sampling() ? sampleSize : rangeLength(sorted, start, end);
+        boolean full = isFullRange(sorted, start, end);
 
-        // Sort the incoming array before permuting
-        Arrays.sort(inputs);
+        String name = outputName("permutations-String");
+        File output = new File(targetFolder, sampling() ? sampleName(name) : rangeName(name, sorted, start, end));
 
-        // Write each permutation to the destination file, terminated by a newline
-        boolean running = true;
-        while(running) {
-            fos.write((concat(inputs) + "\n").getBytes());
-            running = nextPermutation(inputs);
+        // Constrained jobs don't know how many permutations they will produce until pruning is done
+        metrics.start(constrained() ? null : BigInteger.valueOf(length));
+        try {
+            if(mapped) {
+                if(format != OutputFormat.TEXT || compression != null || constrained() || sampling()
+                        || selection != SelectionMode.PERMUTATIONS || order != PermutationOrder.LEXICOGRAPHIC)
+                    throw new UnsupportedOperationException("Memory-mapped output needs uncompressed text of full " +
+                            "permutations in lexicographical order, without constraints or sampling.");
+                MappedPermutationWriter.write(sorted, dict, " ", output, start, length, parallelism, metrics, this::isCancelled);
+            }
+            else if(sampling()) writeSample(sorted, dict, " ", output, full, parallelism);
+            else if(constrained()) writeConstrained(sorted, dict, " ", output, full);
+            else if(parallel()) {
+                if(full) ParallelPermutations.write(sorted, sinks(dict, " "), output, parallelism, segmented);
+                else ParallelPermutations.write(sorted, sinks(dict, " "), output, parallelism, segmented, start, length);
+            }
+            // Write each permutation to the destination file in the chosen format, resuming it if asked to
+            else writeRange(sorted, dict, " ", output, start, length);
+        } finally {
+            metrics.finish();
         }
+    }
 
-        // Close out the file
-        fos.flush();
-        fos.close();
+    /**
+     * {@inheritDoc}
+     * Memory-mapped output keeps no checkpoints either.
+     */
+    @Override
+    public boolean resumable() {
+        return super.resumable() && !mapped;
     }
 
-    // Concatenates an array of strings into one string, separated by spaces
-    private String concat(String[] arr)
+    @Override
+    protected BigInteger outputBytes(String[] inputs)
     {
-        StringBuilder sb = new StringBuilder();
-        for(int i = 0; i < arr.length; i++) {
-            sb.append(arr[i]);
-            if(i != arr.length - 1) sb.append(" ");
-        }
-
-        return sb.toString();
+        Ranking<String> ranking = rank(inputs);
+        return textBytes(ranking.dictionary(), ranking.sorted(), " ");
     }
 }
@@ -0,0 +1,272 @@
+package com.michaelRunzler.ark.Permutators;
+
+import javax.sound.sampled.AudioFormat;
+import javax.sound.sampled.AudioInputStream;
+import javax.sound.sampled.AudioSystem;
+import javax.sound.sampled.UnsupportedAudioFileException;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Concatenates uncompressed audio clips into WAV files without leaving the JVM. Each clip is prepared exactly once: the
+ * sample data of PCM WAV files is memory-mapped in place, and anything else that the Java sound system can decode
+ * (AIFF, AU and so on) is decoded into memory as little-endian PCM. Every output file is then just a WAV header
+ * followed by the clips' sample data, written with a single gathering write.
+ * All clips must share the same sample format, since no resampling or conversion is done between them.
+ */
+public class WavConcatenator implements Closeable
+{
+    // WAV format tags that store plain interleaved sample frames, which can be concatenated byte-for-byte
+    private static final int FORMAT_PCM = 1;
+    private static final int FORMAT_FLOAT = 3;
+    private static final int FORMAT_EXTENSIBLE = 0xFFFE;
+
+    // The largest size that a RIFF header can describe
+    private static final long MAX_RIFF_SIZE = 0xFFFFFFFFL;
+
+    private final byte[] fmt;
+    private final ByteBuffer[] clips;
+    private final List<FileChannel> channels = new ArrayList<>();
+
+    /**
+     * Prepares a set of clips for concatenation.
+     * @param paths the paths to each clip
+     * @throws IOException if any clip cannot be read or decoded, or if the clips do not all share the same format
+     */
+    public WavConcatenator(String[] paths) throws IOException
+    {
+        clips = new ByteBuffer[paths.length];
+        byte[] format = null;
+
+        try {
+            for(int i = 0; i < paths.length; i++)
+            {
+                byte[][] clipFormat = new byte[1][];
+                clips[i] = load(new File(paths[i]), clipFormat);
+
+                if(format == null) format = clipFormat[0];
+                else if(!Arrays.equals(format, clipFormat[0]))
+                    throw new IOException("Clip " + paths[i] + " does not have the same sample format as " + paths[0] + ".");
+            }
+        } catch (IOException e) {
+            close();
+            throw e;
+        }
+
+        this.fmt = format == null ? new byte[0] : format;
+    }
+
+    /**
+     * Checks whether a set of clips can be concatenated in-process, without actually preparing them.
+     * @param paths the paths to each clip
+     * @return {@code true} if every clip is either a PCM WAV file or a file that the Java sound system can decode
+     */
+    public static boolean supports(String[] paths)
+    {
+        for(String s : paths)
+        {
+            File f = new File(s);
+            try {
+                if(parseWav(f) == null) AudioSystem.getAudioFileFormat(f);
+            } catch (UnsupportedAudioFileException | IOException e) {
+                return false;
+            }
+        }
+
+        return true;
+    }
+
+    /**
+     * Writes the provided arrangement of clips to a WAV file, replacing it if it exists.
+     * @param p the order to write clips in, as indices into the array of clip paths this was created with
+     * @param output the file to write to
+     */
+    public void write(int[] p, File output) throws IOException
+    {
+        long dataSize = 0;
+        for(int i : p) dataSize += clips[i].remaining();
+        if(riffSize(dataSize) > MAX_RIFF_SIZE) throw new IOException("Output " + output.getAbsolutePath() + " would be too large for a WAV file.");
+
+        // Each write gets its own views of the clip data, since several writes may be running at once. Chunks must
+        // hold an even number of bytes, so odd-sized data is followed by a pad byte.
+        int pad = (int)(dataSize & 1);
+        ByteBuffer[] buffers = new ByteBuffer[p.length + 1 + pad];
+        buffers[0] = header(dataSize);
+        for(int i = 0; i < p.length; i++) buffers[i + 1] = clips[p[i]].duplicate();
+        if(pad != 0) buffers[p.length + 1] = ByteBuffer.allocate(1);
+
+        try(FileChannel out = FileChannel.open(output.toPath(), StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING)) {
+            long total = dataSize + pad + buffers[0].remaining();
+            for(long written = 0; written < total; ) written += out.write(buffers);
+        }
+    }
+
+    /**
+     * Releases the files backing any memory-mapped clips.
+     */
+    @Override
+    public void close() throws IOException
+    {
+        IOException failure = null;
+        for(FileChannel c : channels) {
+            try {
+                c.close();
+            } catch (IOException e) {
+                failure = e;
+            }
+        }
+
+        channels.clear();
+        if(failure != null) throw failure;
+    }
+
+    // Gets the size recorded in the RIFF header of an output file with the provided amount of sample data: everything
+    // after the header's own size field, including the pad bytes after odd-sized chunks
+    private long riffSize(long dataSize) {
+        return 4 + 8 + fmt.length + (fmt.length & 1) + 8 + dataSize + (dataSize & 1);
+    }
+
+    // Builds the RIFF/WAVE header for an output file with the provided amount of sample data
+    private ByteBuffer header(long dataSize)
+    {
+        int fmtPadded = fmt.length + (fmt.length & 1);
+        ByteBuffer h = ByteBuffer.allocate(12 + 8 + fmtPadded + 8).order(ByteOrder.LITTLE_ENDIAN);
+        h.put("RIFF".getBytes(StandardCharsets.US_ASCII)).putInt((int)riffSize(dataSize));
+        h.put("WAVE".getBytes(StandardCharsets.US_ASCII));
+        h.put("fmt ".getBytes(StandardCharsets.US_ASCII)).putInt(fmt.length).put(fmt);
+        if((fmt.length & 1) != 0) h.put((byte)0);
+        h.put("data".getBytes(StandardCharsets.US_ASCII)).putInt((int)dataSize);
+        h.flip();
+        return h;
+    }
+
+    // Loads a single clip's sample data, storing its format chunk in the provided holder
+    private ByteBuffer load(File f, byte[][] format) throws IOException
+    {
+        long[] data = parseWav(f);
+        if(data != null)
+        {
+            // Plain WAV: map the sample data straight from the file and reuse the clip's own format chunk
+            FileChannel c = FileChannel.open(f.toPath(), StandardOpenOption.READ);
+            channels.add(c);
+            if(data[3] > Integer.MAX_VALUE) throw new IOException("Clip " + f.getAbsolutePath() + " is too large to map.");
+
+            ByteBuffer fmtChunk = ByteBuffer.allocate((int)data[1]);
+            if(!readFully(c, fmtChunk, data[0])) throw new IOException("Clip " + f.getAbsolutePath() + " has a truncated format chunk.");
+            format[0] = fmtChunk.array();
+            return c.map(FileChannel.MapMode.READ_ONLY, data[2], data[3]);
+        }
+
+        // Anything else: decode it once to little-endian signed PCM, which is what a plain WAV file would hold
+        try(AudioInputStream in = AudioSystem.getAudioInputStream(f))
+        {
+            AudioFormat src = in.getFormat();
+            int bits = src.getSampleSizeInBits() > 0 ? src.getSampleSizeInBits() : 16;
+            AudioFormat pcm = new AudioFormat(AudioFormat.Encoding.PCM_SIGNED, src.getSampleRate(), bits,
+                    src.getChannels(), src.getChannels() * ((bits + 7) / 8), src.getSampleRate(), false);
+
+            // 8-bit WAV samples are unsigned, so match that rather than producing signed 8-bit data
+            if(bits == 8) pcm = new AudioFormat(AudioFormat.Encoding.PCM_UNSIGNED, src.getSampleRate(), 8,
+                    src.getChannels(), src.getChannels(), src.getSampleRate(), false);
+
+            ByteArrayOutputStream decoded = new ByteArrayOutputStream();
+            try(InputStream converted = AudioSystem.getAudioInputStream(pcm, in)) {
+                byte[] buf = new byte[1 << 16];
+                for(int read; (read = converted.read(buf)) > 0; ) decoded.write(buf, 0, read);
+            }
+
+            format[0] = pcmFormatChunk(pcm);
+            return ByteBuffer.wrap(decoded.toByteArray()).asReadOnlyBuffer();
+        } catch (UnsupportedAudioFileException | IllegalArgumentException e) {
+            throw new IOException("Clip " + f.getAbsolutePath() + " is not in a format that can be decoded in-process.", e);
+        }
+    }
+
+    // Builds the 16-byte format chunk that a plain PCM WAV file with the provided format would have
+    private static byte[] pcmFormatChunk(AudioFormat f)
+    {
+        ByteBuffer b = ByteBuffer.allocate(16).order(ByteOrder.LITTLE_ENDIAN);
+        b.putShort((short)FORMAT_PCM).putShort((short)f.getChannels()).putInt((int)f.getSampleRate());
+        b.putInt((int)(f.getSampleRate() * f.getFrameSize())).putShort((short)f.getFrameSize());
+        b.putShort((short)f.getSampleSizeInBits());
+        return b.array();
+    }
+
+    // Finds the format and data chunks of an uncompressed WAV file. Returns {fmt offset, fmt size, data offset,
+    // data size}, or null if the file is not a WAV file or holds compressed audio.
+    private static long[] parseWav(File f) throws IOException
+    {
+        try(FileChannel c = FileChannel.open(f.toPath(), StandardOpenOption.READ))
+        {
+            ByteBuffer b = ByteBuffer.allocate(12).order(ByteOrder.LITTLE_ENDIAN);
+            if(!readFully(c, b, 0)) return null;
+            b.flip();
+
+            byte[] id = new byte[4];
+            b.get(id);
+            if(!"RIFF".equals(new String(id, StandardCharsets.US_ASCII))) return null;
+            b.getInt();
+            b.get(id);
+            if(!"WAVE".equals(new String(id, StandardCharsets.US_ASCII))) return null;
+
+            long[] result = new long[]{-1, 0, -1, 0};
+            long pos = 12;
+            ByteBuffer chunk = ByteBuffer.allocate(8).order(ByteOrder.LITTLE_ENDIAN);
+            while(pos + 8 <= c.size())
+            {
+                chunk.clear();
+                if(!readFully(c, chunk, pos)) break;
+                chunk.flip();
+                chunk.get(id);
+                long size = chunk.getInt() & 0xFFFFFFFFL;
+                String name = new String(id, StandardCharsets.US_ASCII);
+
+                if(name.equals("fmt ")) {
+                    result[0] = pos + 8;
+                    result[1] = size;
+                } else if(name.equals("data")) {
+                    result[2] = pos + 8;
+                    result[3] = Math.min(size, c.size() - pos - 8);
+                }
+
+                // Chunks are padded to an even number of bytes
+                pos += 8 + size + (size & 1);
+            }
+
+            if(result[0] < 0 || result[2] < 0 || result[1] < 2 || result[1] > Integer.MAX_VALUE) return null;
+
+            // Only accept formats whose data is plain sample frames
+            ByteBuffer tag = ByteBuffer.allocate(2).order(ByteOrder.LITTLE_ENDIAN);
+            if(!readFully(c, tag, result[0])) return null;
+            tag.flip();
+            int formatTag = tag.getShort() & 0xFFFF;
+            return formatTag == FORMAT_PCM || formatTag == FORMAT_FLOAT || formatTag == FORMAT_EXTENSIBLE ? result : null;
+        }
+    }
+
+    // Reads from a channel at the provided position until the buffer is full, since a single read may return less.
+    // Returns false if the channel ends first.
+    private static boolean readFully(FileChannel c, ByteBuffer b, long position) throws IOException
+    {
+        while(b.hasRemaining())
+        {
+            int read = c.read(b, position);
+            if(read < 0) return false;
+            position += read;
+        }
+
+        return true;
+    }
+}
@@ -0,0 +1,20 @@
+package com.michaelRunzler.ark;
+
+/**
+ * A test applied to each prefix of a permutation as it is built up, one entry at a time. If a prefix fails, no
+ * permutation that starts with it is ever generated, so the whole subtree below it is skipped at once.
+ */
+public interface PrefixPredicate
+{
+    /**
+     * Checks whether a prefix may still lead to an acceptable permutation. This is called every time an entry is
+     * placed, and every shorter prefix has already passed, so only the newest entry at {@code prefix[length - 1]}
+     * needs to be checked.
+     * @param prefix the permutation being built. Only the first {@code length} entries are meaningful. Entries are
+     *               indices into the sorted dictionary of distinct inputs.
+     * @param length the number of entries placed so far; always at least one
+     * @param remaining how many copies of each dictionary entry are still to be placed after this prefix
+     * @return {@code true} if the prefix is acceptable, or {@code false} to prune every permutation that starts with it
+     */
+    boolean test(int[] prefix, int length, int[] remaining);
+}
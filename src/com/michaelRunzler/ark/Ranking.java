@@ -0,0 +1,135 @@
+package com.michaelRunzler.ark;
+
+import java.math.BigInteger;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.stream.Stream;
+
+/**
+ * Maps a set of arbitrary objects onto the sorted index arrays that the permutation engine works on. The objects are
+ * sorted once with a {@link Comparator}, equal objects (as far as the comparator is concerned) are collapsed into a
+ * single dictionary entry, and every input is replaced by the index of its entry. From then on, permutations only ever
+ * move ints around, so nothing is converted to a string or boxed per permutation.
+ * @param <T> the type of object being permuted
+ */
+public class Ranking<T>
+{
+    /**
+     * Orders {@code byte[]} records by their contents, comparing bytes as unsigned values, with shorter records
+     * sorting before longer records that they are a prefix of.
+     */
+    public static final Comparator<byte[]> UNSIGNED_BYTES = (a, b) ->
+    {
+        for(int i = 0; i < Math.min(a.length, b.length); i++) {
+            int c = Integer.compare(a[i] & 0xFF, b[i] & 0xFF);
+            if(c != 0) return c;
+        }
+        return Integer.compare(a.length, b.length);
+    };
+
+    private final T[] dictionary;
+    private final int[] sorted;
+    private final Comparator<? super T> comparator;
+
+    private Ranking(T[] dictionary, int[] sorted, Comparator<? super T> comparator)
+    {
+        this.dictionary = dictionary;
+        this.sorted = sorted;
+        this.comparator = comparator;
+    }
+
+    /**
+     * Ranks a set of objects with the provided comparator.
+     * @param items the objects to permute. This array is not modified.
+     * @param comparator the order to sort objects in. Objects that compare as equal are treated as identical, and
+     *                   each distinct arrangement of them is only produced once.
+     * @param <T> the type of object being permuted
+     * @return the ranking of the provided objects
+     */
+    public static <T> Ranking<T> of(T[] items, Comparator<? super T> comparator)
+    {
+        T[] dict = items.clone();
+        Arrays.sort(dict, comparator);
+
+        // Collapse runs of equal entries down to a single entry
+        int count = 0;
+        for(int i = 0; i < dict.length; i++)
+            if(i == 0 || comparator.compare(dict[i], dict[count - 1]) != 0) dict[count++] = dict[i];
+        dict = Arrays.copyOf(dict, count);
+
+        int[] ranks = new int[items.length];
+        for(int i = 0; i < items.length; i++)
+            ranks[i] = Arrays.binarySearch(dict, items[i], comparator);
+
+        Arrays.sort(ranks);
+        return new Ranking<>(dict, ranks, comparator);
+    }
+
+    /**
+     * Ranks a set of objects in their natural order.
+     * @param items the objects to permute. This array is not modified.
+     * @param <T> the type of object being permuted
+     * @return the ranking of the provided objects
+     */
+    public static <T extends Comparable<? super T>> Ranking<T> natural(T[] items) {
+        return of(items, Comparator.naturalOrder());
+    }
+
+    /**
+     * Gets the distinct objects in sorted order. Indices in permutations produced from this ranking refer to positions
+     * in this array.
+     * @return the dictionary. This is the ranking's own array, and must not be modified.
+     */
+    public T[] dictionary() {
+        return dictionary;
+    }
+
+    /**
+     * Gets the sorted index array that represents the ranked objects, ready to be permuted.
+     * @return a new copy of the sorted index array
+     */
+    public int[] sorted() {
+        return sorted.clone();
+    }
+
+    /**
+     * Gets the comparator that this ranking was built with.
+     * @return the comparator
+     */
+    public Comparator<? super T> comparator() {
+        return comparator;
+    }
+
+    /**
+     * Gets the number of permutations of the ranked objects in a given order.
+     * @param order the order that permutations would be enumerated in
+     * @return the number of distinct arrangements in lexicographical order, or n! in the minimal-change orders
+     */
+    public BigInteger count(PermutationOrder order) {
+        return order == PermutationOrder.LEXICOGRAPHIC ? Permutator.countPermutations(sorted) : Permutator.factorialBig(sorted.length);
+    }
+
+    /**
+     * Gets a lazy stream of the permutations of the ranked objects.
+     * @param order the order to enumerate permutations in
+     * @param parallel {@code true} for a parallel stream
+     * @return the new stream, as described by {@link Permutations#stream(Object[], int[], PermutationOrder, boolean)}
+     */
+    public Stream<List<T>> stream(PermutationOrder order, boolean parallel) {
+        return Permutations.stream(dictionary, sorted, order, parallel);
+    }
+
+    /**
+     * Gets the arrangement of the ranked objects with a given lexicographical rank.
+     * @param rank the rank of the arrangement to get
+     * @return a new list containing the arrangement
+     */
+    public List<T> unrank(BigInteger rank)
+    {
+        int[] p = Permutator.unrank(rank, sorted);
+        T[] result = Arrays.copyOf(dictionary, p.length);
+        for(int i = 0; i < p.length; i++) result[i] = dictionary[p[i]];
+        return Arrays.asList(result);
+    }
+}
@@ -0,0 +1,24 @@
+package com.michaelRunzler.ark;
+
+/**
+ * What a {@link Permutator} selects from its inputs: full-length orderings, ordered selections of some of them, or
+ * unordered subsets.
+ */
+public enum SelectionMode
+{
+    /**
+     * Every arrangement of all of the inputs (n!, or fewer if some inputs repeat).
+     */
+    PERMUTATIONS,
+
+    /**
+     * Every ordered selection of k of the inputs (n!/(n-k)!, or fewer if some inputs repeat).
+     */
+    K_PERMUTATIONS,
+
+    /**
+     * Every unordered subset of k of the inputs (n!/(k!(n-k)!), or fewer if some inputs repeat). Each subset is written
+     * in ascending order.
+     */
+    COMBINATIONS
+}
@@ -0,0 +1,260 @@
+package com.michaelRunzler.ark;
+
+import java.math.BigInteger;
+import java.util.Arrays;
+
+/**
+ * Counting, ranking and enumeration of k-permutations and combinations of a sorted index array, in lexicographical
+ * order. Repeated entries are treated as identical, just as they are for full permutations, so each distinct
+ * selection is only produced once.
+ * <p>
+ * Selections are stepped through on a full-length working array, laid out as the k selected entries followed by
+ * every unselected entry in ascending order. Each step costs O(n) no matter how many inputs are left unselected, so
+ * the work done is proportional to the number of selections produced rather than to n!.
+ */
+public class Selections
+{
+    private Selections() {}
+
+    /**
+     * Gets the number of selections of a sorted index array.
+     * @param mode the kind of selection to count
+     * @param sorted the sorted index array to select from
+     * @param k the number of entries in each selection. Ignored for {@link SelectionMode#PERMUTATIONS}.
+     * @return the number of distinct selections, or zero if k is larger than the array
+     */
+    public static BigInteger count(SelectionMode mode, int[] sorted, int k)
+    {
+        if(mode == SelectionMode.PERMUTATIONS) return Permutator.countPermutations(sorted);
+        if(k < 0 || k > sorted.length) return BigInteger.ZERO;
+        return count(mode, multiplicities(sorted), 0, k);
+    }
+
+    /**
+     * Gets how many times an entry appears across all selections of a sorted index array, counting every copy in
+     * every selection. This is what sizing the output of a job needs, since each appearance is written out in full.
+     * @param mode the kind of selection
+     * @param sorted the sorted index array to select from
+     * @param k the number of entries in each selection. Ignored for {@link SelectionMode#PERMUTATIONS}.
+     * @param value the entry to count
+     * @return the total number of appearances, or zero if the entry isn't in the array
+     */
+    public static BigInteger occurrences(SelectionMode mode, int[] sorted, int k, int value)
+    {
+        int[] counts = multiplicities(sorted);
+        if(value < 0 || value >= counts.length || counts[value] == 0) return BigInteger.ZERO;
+        if(mode == SelectionMode.PERMUTATIONS)
+            return Permutator.countPermutations(sorted).multiply(BigInteger.valueOf(counts[value]));
+        if(k <= 0 || k > sorted.length) return BigInteger.ZERO;
+
+        // Every position of a k-permutation holds the entry equally often: fix it there and arrange the rest
+        if(mode == SelectionMode.K_PERMUTATIONS) {
+            counts[value]--;
+            return count(mode, counts, 0, k - 1).multiply(BigInteger.valueOf(k));
+        }
+
+        // A combination holding at least j copies is any combination of the rest with those j copies added, so
+        // summing those over j counts a combination with c copies exactly c times
+        BigInteger total = BigInteger.ZERO;
+        int copies = counts[value];
+        for(int j = 1; j <= Math.min(copies, k); j++) {
+            counts[value] = copies - j;
+            total = total.add(count(mode, counts, 0, k - j));
+        }
+        return total;
+    }
+
+    /**
+     * Gets the selection with a given lexicographical rank, laid out as a working array for {@link #next}.
+     * @param mode the kind of selection
+     * @param rank the rank of the selection to get
+     * @param sorted the sorted index array to select from. This array is not modified.
+     * @param k the number of entries in each selection
+     * @return a new working array: the selection in its first k entries, followed by the unselected entries in
+     * ascending order
+     */
+    public static int[] unrank(SelectionMode mode, BigInteger rank, int[] sorted, int k)
+    {
+        if(mode == SelectionMode.PERMUTATIONS) return Permutator.unrank(rank, sorted);
+
+        BigInteger total = count(mode, sorted, k);
+        if(rank.signum() < 0 || rank.compareTo(total) >= 0)
+            throw new IllegalArgumentException("Rank " + rank + " is out of bounds for " + total + " selections.");
+
+        int[] counts = multiplicities(sorted);
+        int[] result = new int[sorted.length];
+        int floor = 0;
+        for(int pos = 0; pos < k; pos++)
+        {
+            // Of the selections left, skip past the blocks that start with each smaller entry
+            for(int v = mode == SelectionMode.COMBINATIONS ? floor : 0; v < counts.length; v++)
+            {
+                if(counts[v] == 0) continue;
+
+                counts[v]--;
+                BigInteger block = count(mode, counts, mode == SelectionMode.COMBINATIONS ? v : 0, k - pos - 1);
+                if(rank.compareTo(block) < 0) {
+                    result[pos] = v;
+                    floor = v;
+                    break;
+                }
+
+                counts[v]++;
+                rank = rank.subtract(block);
+            }
+        }
+
+        // The unselected entries follow in ascending order
+        for(int v = 0, pos = k; v < counts.length; v++)
+            for(int c = 0; c < counts[v]; c++) result[pos++] = v;
+
+        return result;
+    }
+
+    /**
+     * Steps a working array on to the next selection in lexicographical order, in place.
+     * @param mode the kind of selection
+     * @param a the working array, as produced by {@link #unrank}
+     * @param k the number of entries in each selection
+     * @param scratch a scratch array with at least one entry per distinct value in the working array. Its contents do
+     *                not matter, and are overwritten.
+     * @return {@code false} if the array was already on the last selection
+     */
+    public static boolean next(SelectionMode mode, int[] a, int k, int[] scratch)
+    {
+        if(k == 0 && mode != SelectionMode.PERMUTATIONS) return false;
+        switch(mode)
+        {
+            case K_PERMUTATIONS:
+                // Reversing the unselected tail makes this the last arrangement with the current selection, so the
+                // ordinary successor moves straight on to the next selection and leaves the tail ascending again
+                for(int l = k, r = a.length - 1; l < r; l++, r--) {
+                    int temp = a[l];
+                    a[l] = a[r];
+                    a[r] = temp;
+                }
+                return Permutator.nextPermutation(a);
+            case COMBINATIONS:
+                return nextCombination(a, k, scratch);
+            default:
+                return Permutator.nextPermutation(a);
+        }
+    }
+
+    /**
+     * Gets a sequence that steps through the selections of a sorted index array, starting from a given rank.
+     * @param mode the kind of selection
+     * @param sorted the sorted index array to select from. This array is not modified.
+     * @param k the number of entries in each selection
+     * @param start the rank of the first selection
+     * @return the new sequence. Its {@link PermutationSequence#current()} array holds just the selected entries.
+     */
+    public static PermutationSequence sequence(SelectionMode mode, int[] sorted, int k, BigInteger start)
+    {
+        if(mode == SelectionMode.PERMUTATIONS)
+            return PermutationSequence.create(PermutationOrder.LEXICOGRAPHIC, Permutator.unrank(start, sorted));
+        return new SelectionSequence(mode, unrank(mode, start, sorted, k), k);
+    }
+
+    // Finds the rightmost selected entry that can be raised while still leaving enough larger entries to fill the rest
+    // of the selection, raises it by as little as possible, and refills everything after it in ascending order
+    private static boolean nextCombination(int[] a, int k, int[] counts)
+    {
+        int values = 0;
+        for(int v : a) values = Math.max(values, v + 1);
+        Arrays.fill(counts, 0, values, 0);
+        for(int i = k; i < a.length; i++) counts[a[i]]++;
+
+        for(int i = k - 1; i >= 0; i--)
+        {
+            counts[a[i]]++;
+
+            // Find the smallest larger entry in the pool, and check that the rest of the selection fits above it
+            int w = a[i] + 1;
+            while(w < values && counts[w] == 0) w++;
+            if(w == values) continue;
+
+            int above = 0;
+            for(int v = w; v < values; v++) above += counts[v];
+            if(above < k - i) continue;
+
+            int pos = i;
+            for(int v = w; pos < k; v++)
+                for(; counts[v] > 0 && pos < k; counts[v]--) a[pos++] = v;
+            for(int v = 0; v < values; v++)
+                for(; counts[v] > 0; counts[v]--) a[pos++] = v;
+
+            return true;
+        }
+
+        return false;
+    }
+
+    // Counts the selections of a given size from a multiset, using only the values from floor upward. For
+    // k-permutations, each way of choosing c copies of a value into j + c slots multiplies in (j + c choose c).
+    private static BigInteger count(SelectionMode mode, int[] counts, int floor, int k)
+    {
+        BigInteger[] ways = new BigInteger[k + 1];
+        Arrays.fill(ways, BigInteger.ZERO);
+        ways[0] = BigInteger.ONE;
+
+        for(int v = floor; v < counts.length; v++)
+        {
+            if(counts[v] == 0) continue;
+            for(int j = k; j >= 0; j--)
+            {
+                BigInteger sum = ways[j];
+                BigInteger binomial = BigInteger.ONE;
+                for(int c = 1; c <= Math.min(counts[v], j); c++)
+                {
+                    if(mode == SelectionMode.K_PERMUTATIONS)
+                        binomial = binomial.multiply(BigInteger.valueOf(j - c + 1)).divide(BigInteger.valueOf(c));
+                    sum = sum.add(ways[j - c].multiply(binomial));
+                }
+                ways[j] = sum;
+            }
+        }
+
+        return ways[k];
+    }
+
+    // Gets the number of copies of each value in a sorted index array
+    private static int[] multiplicities(int[] sorted)
+    {
+        int values = 0;
+        for(int v : sorted) values = Math.max(values, v + 1);
+        int[] counts = new int[values];
+        for(int v : sorted) counts[v]++;
+        return counts;
+    }
+
+    // Steps a working array through its selections, presenting just the selected entries
+    private static class SelectionSequence extends PermutationSequence
+    {
+        private final SelectionMode mode;
+        private final int[] working;
+        private final int[] scratch;
+        // Set once the last selection has been passed, since stepping a finished k-permutation array would wrap around
+        private boolean done;
+
+        SelectionSequence(SelectionMode mode, int[] working, int k)
+        {
+            super(Arrays.copyOf(working, k));
+            this.mode = mode;
+            this.working = working;
+            this.scratch = new int[working.length];
+        }
+
+        @Override
+        public boolean next()
+        {
+            clearSwap();
+            if(done || !Selections.next(mode, working, p.length, scratch)) {
+                done = true;
+                return false;
+            }
+            System.arraycopy(working, 0, p, 0, p.length);
+            return true;
+        }
+    }
+}
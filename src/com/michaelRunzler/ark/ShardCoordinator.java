@@ -0,0 +1,328 @@
+package com.michaelRunzler.ark;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.math.BigInteger;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketException;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Splits a job into rank ranges ("shards") and hands them out to {@link ShardWorker}s over TCP, so that one job can
+ * be spread across as many processes and machines as are available. Each worker runs the ordinary ranged
+ * {@link Permutator#permuteAll(String[], java.io.File, long, long)} on every shard it is given, and writes the output
+ * to its own folder under the usual range file names; nothing but ranks and counts travels over the network.
+ * <p>
+ * Workers send a heartbeat while they work. A worker that disconnects, misses its heartbeats for
+ * {@link #LEASE_MILLIS}, or reports a failure has its shard put back at the front of the queue for the next worker
+ * that asks, so a job finishes as long as any worker survives. A shard that fails or loses its worker
+ * {@link #MAX_ATTEMPTS} times fails the job, since that usually means something every worker will run into, such as
+ * a full disk or a shard too large to finish within the lease.
+ * <p>
+ * The protocol is a stream of messages, each a type byte followed by fields written with {@link DataOutputStream}:
+ * <pre>
+ *     worker: HELLO name                     coordinator: JOB type format gzip selection k n input...
+ *     worker: REQUEST                        coordinator: SHARD start end | WAIT millis | DONE
+ *     worker: HEARTBEAT
+ *     worker: COMPLETE start end permutations bytes
+ *     worker: FAILED start end message
+ * </pre>
+ */
+public class ShardCoordinator implements Closeable
+{
+    static final byte HELLO = 1;
+    static final byte JOB = 2;
+    static final byte REQUEST = 3;
+    static final byte SHARD = 4;
+    static final byte WAIT = 5;
+    static final byte DONE = 6;
+    static final byte HEARTBEAT = 7;
+    static final byte COMPLETE = 8;
+    static final byte FAILED = 9;
+
+    /**
+     * How often workers send a heartbeat, and how long they wait before asking again when every remaining shard is
+     * assigned to someone else.
+     */
+    public static final long HEARTBEAT_MILLIS = 2000;
+
+    /**
+     * How long a worker can go without sending anything before its shard is given to another worker.
+     */
+    public static final long LEASE_MILLIS = 5 * HEARTBEAT_MILLIS;
+
+    /**
+     * How many times in a row a shard can fail before the whole job is failed.
+     */
+    public static final int MAX_ATTEMPTS = 3;
+
+    private final Permutator job;
+    private final String[] inputs;
+    private final ServerSocket server;
+    private final Deque<Shard> pending = new ArrayDeque<>();
+    private final Map<String, WorkerStats> workers = new LinkedHashMap<>();
+    private final int shards;
+    private int completed;
+    private int connections;
+    private int nextWorker;
+    private String failure;
+
+    /**
+     * Prepares a job for sharding and starts listening for workers. Workers that connect before {@link #run()} is
+     * called are queued by the operating system until it is.
+     * @param job the Permutator to shard, with its format, compression and selection settings. Workers create their
+     *            own Permutator of the same type with the same settings.
+     * @param inputs the inputs to permute
+     * @param port the port to listen on, or zero to pick a free one (see {@link #port()})
+     * @param shardSize the number of ranks in each shard. Smaller shards balance better across workers of different
+     *                  speeds and lose less work when a worker dies; larger ones have less overhead.
+     * @throws UnsupportedOperationException if the job can't be split into rank ranges: it is constrained, sampled, not
+     * in lexicographical order, or has more permutations than a {@code long} can rank
+     */
+    public ShardCoordinator(Permutator job, String[] inputs, int port, long shardSize) throws IOException
+    {
+        if(job.constrained() || job.sampleSize > 0 || job.order != PermutationOrder.LEXICOGRAPHIC)
+            throw new UnsupportedOperationException("Only unconstrained jobs in lexicographical order can be sharded.");
+        if(shardSize <= 0) throw new IllegalArgumentException("Shard size must be positive.");
+
+        BigInteger count = job.count(inputs);
+        if(count.bitLength() >= 63)
+            throw new UnsupportedOperationException(count + " permutations are too many to shard by rank.");
+
+        this.job = job;
+        this.inputs = inputs;
+        long total = count.longValue();
+        for(long start = 0; start < total; start += shardSize) pending.add(new Shard(start, Math.min(total, start + shardSize)));
+        this.shards = pending.size();
+        this.server = new ServerSocket(port);
+    }
+
+    /**
+     * Gets the port that the coordinator is listening on.
+     * @return the port
+     */
+    public int port() {
+        return server.getLocalPort();
+    }
+
+    /**
+     * Hands out shards until every one has been completed, then tells the workers that are still connected that the
+     * job is done.
+     * @return the number of shards, permutations and bytes that each worker completed, by worker name
+     * @throws IOException if the job failed, either because a shard failed too many times or the coordinator stopped
+     * listening
+     */
+    public Map<String, WorkerStats> run() throws IOException
+    {
+        Thread acceptor = new Thread(this::accept, "shard-acceptor");
+        acceptor.setDaemon(true);
+        acceptor.start();
+
+        synchronized(this)
+        {
+            try {
+                while(completed < shards && failure == null) wait();
+
+                // Give connected workers a chance to hear that the job is done, rather than just losing the connection
+                long deadline = System.currentTimeMillis() + 2 * HEARTBEAT_MILLIS;
+                while(connections > 0 && System.currentTimeMillis() < deadline) wait(HEARTBEAT_MILLIS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IOException("Interrupted while waiting for workers.", e);
+            } finally {
+                close();
+            }
+
+            if(failure != null) throw new IOException(failure);
+            return new LinkedHashMap<>(workers);
+        }
+    }
+
+    /**
+     * Stops listening for workers. Workers that are already connected are told the job is done the next time they ask
+     * for work.
+     */
+    @Override
+    public void close() throws IOException {
+        server.close();
+    }
+
+    // Accepts workers until the server socket is closed, giving each its own thread
+    private void accept()
+    {
+        try {
+            while(true) {
+                Socket socket = server.accept();
+                Thread t = new Thread(() -> serve(socket), "shard-worker-" + socket.getRemoteSocketAddress());
+                t.setDaemon(true);
+                t.start();
+            }
+        } catch (IOException e) {
+            synchronized(this) {
+                if(completed < shards && failure == null) {
+                    failure = "Stopped listening for workers: " + e.getMessage();
+                    notifyAll();
+                }
+            }
+        }
+    }
+
+    // Talks to a single worker until it disconnects or the job is done
+    private void serve(Socket socket)
+    {
+        synchronized(this) {
+            connections++;
+        }
+
+        Shard current = null;
+        String name = null;
+        try(Socket s = socket)
+        {
+            s.setSoTimeout((int)LEASE_MILLIS);
+            s.setTcpNoDelay(true);
+            DataInputStream in = new DataInputStream(new BufferedInputStream(s.getInputStream()));
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(s.getOutputStream()));
+
+            if(in.readByte() != HELLO) throw new IOException("Expected a greeting.");
+            synchronized(this) {
+                name = in.readUTF() + "#" + (++nextWorker);
+                workers.put(name, new WorkerStats());
+            }
+            sendJob(out);
+
+            while(true)
+            {
+                byte type = in.readByte();
+                if(type == HEARTBEAT) continue;
+
+                if(type == REQUEST)
+                {
+                    long wait;
+                    synchronized(this) {
+                        if(completed == shards || failure != null) {
+                            out.writeByte(DONE);
+                            out.flush();
+                            return;
+                        }
+                        current = pending.poll();
+                        wait = current == null ? HEARTBEAT_MILLIS : 0;
+                    }
+
+                    if(current != null) {
+                        out.writeByte(SHARD);
+                        out.writeLong(current.start);
+                        out.writeLong(current.end);
+                    } else {
+                        out.writeByte(WAIT);
+                        out.writeLong(wait);
+                    }
+                    out.flush();
+                }
+                else if(type == COMPLETE || type == FAILED)
+                {
+                    long start = in.readLong();
+                    long end = in.readLong();
+                    if(current == null || current.start != start || current.end != end)
+                        throw new IOException("Reported a shard it wasn't given.");
+
+                    if(type == COMPLETE) {
+                        long permutations = in.readLong();
+                        long bytes = in.readLong();
+                        synchronized(this) {
+                            WorkerStats stats = workers.get(name);
+                            stats.shards++;
+                            stats.permutations += permutations;
+                            stats.bytes += bytes;
+                            completed++;
+                            notifyAll();
+                        }
+                    } else {
+                        String message = in.readUTF();
+                        System.out.println("Worker " + name + " failed shard " + start + "-" + end + ": " + message);
+                        requeue(current, message);
+                    }
+                    current = null;
+                }
+                else throw new IOException("Unexpected message type " + type + ".");
+            }
+        } catch (IOException e) {
+            // The worker died, hung or broke protocol; whatever it was working on goes to someone else
+            if(current != null) {
+                String message = "lost worker " + (name == null ? socket.getRemoteSocketAddress() : name) + " (" +
+                        (e instanceof SocketException || e.getMessage() == null ? e : e.getMessage()) + ")";
+                System.out.println("Shard " + current.start + "-" + current.end + ": " + message + ".");
+                requeue(current, message);
+            }
+        } finally {
+            synchronized(this) {
+                connections--;
+                notifyAll();
+            }
+        }
+    }
+
+    // Puts a failed shard back at the front of the queue, or fails the job if it has failed too often
+    private synchronized void requeue(Shard shard, String message)
+    {
+        if(++shard.attempts >= MAX_ATTEMPTS) {
+            failure = "Shard " + shard.start + "-" + shard.end + " failed " + shard.attempts + " times: " + message;
+            notifyAll();
+        } else pending.addFirst(shard);
+    }
+
+    private void sendJob(DataOutputStream out) throws IOException
+    {
+        out.writeByte(JOB);
+        out.writeUTF(job.description);
+        out.writeUTF(job.format.name());
+        out.writeBoolean(job.compression != null);
+        out.writeUTF(job.selection.name());
+        out.writeInt(job.selectionSize);
+        out.writeInt(inputs.length);
+        for(String s : inputs) out.writeUTF(s);
+        out.flush();
+    }
+
+    /**
+     * What a single worker contributed to a job.
+     */
+    public static class WorkerStats
+    {
+        /**
+         * The number of shards the worker completed.
+         */
+        public int shards;
+
+        /**
+         * The number of permutations the worker wrote.
+         */
+        public long permutations;
+
+        /**
+         * The number of bytes the worker wrote.
+         */
+        public long bytes;
+    }
+
+    // A range of ranks, and how many times it has failed
+    private static class Shard
+    {
+        final long start;
+        final long end;
+        int attempts;
+
+        Shard(long start, long end)
+        {
+            this.start = start;
+            this.end = end;
+        }
+    }
+}
@@ -0,0 +1,176 @@
+package com.michaelRunzler.ark;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.Socket;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Connects to a {@link ShardCoordinator} and works through the shards it hands out, writing each one to the output
+ * folder with the ordinary ranged {@link Permutator#permuteAll(String[], File, long, long)}, until the job is done.
+ * Several workers can share a machine, and even an output folder, since every shard is written to its own range file.
+ */
+public class ShardWorker
+{
+    private final String host;
+    private final int port;
+    private final File outputFolder;
+    private final int parallelism;
+
+    /**
+     * Creates a worker. Nothing happens until {@link #run()} is called.
+     * @param host the host the coordinator is running on
+     * @param port the port the coordinator is listening on
+     * @param outputFolder the folder to write shard output to
+     * @param parallelism the number of threads to generate each shard with
+     */
+    public ShardWorker(String host, int port, File outputFolder, int parallelism)
+    {
+        this.host = host;
+        this.port = port;
+        this.outputFolder = outputFolder;
+        this.parallelism = parallelism;
+    }
+
+    /**
+     * Works through shards until the coordinator says the job is done.
+     * @return the number of shards this worker completed
+     * @throws IOException if the coordinator can't be reached or the connection is lost
+     */
+    public int run() throws IOException
+    {
+        if(!outputFolder.isDirectory() && !outputFolder.mkdirs())
+            throw new IOException("Could not create output folder " + outputFolder.getAbsolutePath());
+
+        ScheduledExecutorService heartbeat = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "shard-heartbeat");
+            t.setDaemon(true);
+            return t;
+        });
+
+        try(Socket socket = new Socket(host, port))
+        {
+            socket.setTcpNoDelay(true);
+            DataInputStream in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+
+            send(out, ShardCoordinator.HELLO, hostName());
+            Permutator perm = readJob(in);
+            String[] inputs = readInputs(in);
+
+            // Keep the lease alive while a shard is being written. Messages are whole writes under the stream's lock,
+            // so heartbeats never land in the middle of one.
+            heartbeat.scheduleAtFixedRate(() -> {
+                try {
+                    send(out, ShardCoordinator.HEARTBEAT, null);
+                } catch (IOException ignored) {
+                    // The main loop finds out about a lost connection the next time it talks to the coordinator
+                }
+            }, ShardCoordinator.HEARTBEAT_MILLIS, ShardCoordinator.HEARTBEAT_MILLIS, TimeUnit.MILLISECONDS);
+
+            int done = 0;
+            while(true)
+            {
+                send(out, ShardCoordinator.REQUEST, null);
+                byte type = in.readByte();
+                if(type == ShardCoordinator.DONE) return done;
+                if(type == ShardCoordinator.WAIT) {
+                    sleep(in.readLong());
+                    continue;
+                }
+                if(type != ShardCoordinator.SHARD) throw new IOException("Unexpected message type " + type + ".");
+
+                long start = in.readLong();
+                long end = in.readLong();
+                try {
+                    perm.permuteAll(inputs, outputFolder, start, end);
+                } catch (IOException | RuntimeException e) {
+                    synchronized(out) {
+                        out.writeByte(ShardCoordinator.FAILED);
+                        out.writeLong(start);
+                        out.writeLong(end);
+                        out.writeUTF(e.getMessage() == null ? e.toString() : e.getMessage());
+                        out.flush();
+                    }
+                    continue;
+                }
+
+                synchronized(out) {
+                    out.writeByte(ShardCoordinator.COMPLETE);
+                    out.writeLong(start);
+                    out.writeLong(end);
+                    out.writeLong(perm.metrics.getPermutationsEmitted());
+                    out.writeLong(perm.metrics.getBytesWritten());
+                    out.flush();
+                }
+                done++;
+            }
+        } finally {
+            heartbeat.shutdownNow();
+        }
+    }
+
+    // Reads the job description and sets up a Permutator to match it
+    private Permutator readJob(DataInputStream in) throws IOException
+    {
+        if(in.readByte() != ShardCoordinator.JOB) throw new IOException("Expected a job description.");
+
+        String type = in.readUTF();
+        Permutator perm;
+        try {
+            perm = PermutatorRegister.create(type);
+            perm.format = OutputFormat.valueOf(in.readUTF());
+            perm.compression = in.readBoolean() ? new BlockCompression() : null;
+            perm.selection = SelectionMode.valueOf(in.readUTF());
+            perm.selectionSize = in.readInt();
+        } catch (IllegalArgumentException e) {
+            throw new IOException("Can't run the coordinator's job: " + e.getMessage(), e);
+        }
+
+        perm.parallelism = parallelism;
+        return perm;
+    }
+
+    private static String[] readInputs(DataInputStream in) throws IOException
+    {
+        String[] inputs = new String[in.readInt()];
+        for(int i = 0; i < inputs.length; i++) inputs[i] = in.readUTF();
+        return inputs;
+    }
+
+    // Names this worker to the coordinator, for its summary and log messages
+    private static String hostName()
+    {
+        try {
+            return InetAddress.getLocalHost().getHostName();
+        } catch (IOException e) {
+            return "worker";
+        }
+    }
+
+    private static void send(DataOutputStream out, byte type, String text) throws IOException
+    {
+        synchronized(out) {
+            out.writeByte(type);
+            if(text != null) out.writeUTF(text);
+            out.flush();
+        }
+    }
+
+    private static void sleep(long millis) throws IOException
+    {
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while waiting for work.", e);
+        }
+    }
+}
@@ -0,0 +1,43 @@
+package com.michaelRunzler.ark;
+
+/**
+ * Formats sizes and durations for progress lines, estimates and other messages shown to the user.
+ */
+class Units
+{
+    private static final String[] BYTE_UNITS = {"B", "KB", "MB", "GB", "TB", "PB", "EB"};
+
+    private static final long YEAR_SECONDS = 365L * 86400;
+
+    private Units() {}
+
+    /**
+     * Formats a number of bytes in the largest binary unit that keeps it at or above one, such as {@code 1.50 MB}.
+     * @param b the number of bytes
+     * @return the formatted size
+     */
+    static String bytes(double b)
+    {
+        int unit = 0;
+        while(b >= 1024 && unit < BYTE_UNITS.length - 1) {
+            b /= 1024;
+            unit++;
+        }
+        return unit == 0 ? String.format("%.0f B", b) : String.format("%,.2f %s", b, BYTE_UNITS[unit]);
+    }
+
+    /**
+     * Formats a duration in its two largest units, such as {@code 3h 05m}, or in seconds if it is under a minute.
+     * @param nanos the duration in nanoseconds
+     * @return the formatted duration
+     */
+    static String duration(long nanos)
+    {
+        long s = nanos / 1_000_000_000L;
+        if(s >= YEAR_SECONDS) return String.format("%,d years", s / YEAR_SECONDS);
+        if(s >= 86400) return String.format("%dd %dh", s / 86400, (s % 86400) / 3600);
+        if(s >= 3600) return String.format("%dh %02dm", s / 3600, (s % 3600) / 60);
+        if(s >= 60) return String.format("%dm %02ds", s / 60, s % 60);
+        return String.format("%.1fs", nanos / 1e9);
+    }
+}
@@ -0,0 +1,102 @@
+package com.michaelRunzler.ark;
+
+import org.junit.jupiter.api.Test;
+
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Checks that pruned constrained generation produces exactly the permutations that a brute-force filter over every
+ * permutation would keep, in the same order.
+ */
+class ConstrainedPermutationsTest
+{
+    private static final String[] DICTIONARY = {"a", "b", "c", "d", "e", "f", "g"};
+
+    @Test
+    void parsedConstraintsMatchBruteForce()
+    {
+        int[] distinct = {0, 1, 2, 3, 4, 5, 6};
+        int[] multiset = {0, 0, 1, 2, 2, 3, 4};
+        String[] specs = {
+                "a<b",
+                "c@1",
+                "c!@1; g!@7",
+                "a~b",
+                "a~a",
+                "a<b; b<c; d~e",
+                "e@3; a<g; b~c",
+                "a@1; a!@1"
+        };
+
+        for(String spec : specs)
+            for(int[] sorted : new int[][]{distinct, multiset})
+                check(spec + " on " + Arrays.toString(sorted), sorted,
+                        Constraints.parse(spec).resolve(DICTIONARY, String::compareTo));
+    }
+
+    @Test
+    void customPredicatesMatchBruteForce()
+    {
+        Random random = new Random(7);
+        for(int t = 0; t < 40; t++)
+        {
+            int[] sorted = new int[6 + random.nextInt(2)];
+            for(int i = 0; i < sorted.length; i++) sorted[i] = random.nextInt(5);
+            Arrays.sort(sorted);
+
+            // Forbid a random entry at a random position, and a random entry from directly following another
+            int banned = random.nextInt(5), position = random.nextInt(sorted.length);
+            int first = random.nextInt(5), second = random.nextInt(5);
+            PrefixPredicate[] predicates = {
+                    (prefix, length, remaining) -> length - 1 != position || prefix[position] != banned,
+                    (prefix, length, remaining) -> length < 2 || prefix[length - 2] != first || prefix[length - 1] != second
+            };
+
+            check("trial " + t + " on " + Arrays.toString(sorted), sorted, predicates);
+        }
+    }
+
+    private static void check(String label, int[] sorted, PrefixPredicate[] predicates)
+    {
+        List<int[]> expected = new ArrayList<>();
+        int[] p = sorted.clone();
+        do {
+            if(accepts(p, predicates)) expected.add(p.clone());
+        } while(Permutator.nextPermutation(p));
+
+        List<int[]> actual = new ArrayList<>();
+        ConstrainedPermutations.Stats stats = new ConstrainedPermutations(sorted, predicates).forEach(q -> actual.add(q.clone()));
+
+        assertEquals(expected.size(), actual.size(), label);
+        for(int i = 0; i < expected.size(); i++)
+            assertTrue(Arrays.equals(expected.get(i), actual.get(i)), label + " permutation " + i);
+
+        // Every permutation is either generated or below exactly one pruned prefix
+        assertEquals(expected.size(), stats.generated, label);
+        assertEquals(Permutator.countPermutations(sorted),
+                BigInteger.valueOf(stats.generated).add(stats.prunedPermutations), label);
+    }
+
+    // Tests every prefix of a complete permutation, the way a generator without pruning would have to
+    private static boolean accepts(int[] p, PrefixPredicate[] predicates)
+    {
+        int[] remaining = new int[p.length];
+        for(int v : p) remaining[v]++;
+
+        for(int length = 1; length <= p.length; length++)
+        {
+            remaining[p[length - 1]]--;
+            for(PrefixPredicate predicate : predicates)
+                if(!predicate.test(p, length, remaining)) return false;
+        }
+
+        return true;
+    }
+}
@@ -0,0 +1,82 @@
+package com.michaelRunzler.ark;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Checks how the shared pool runs tasks: never more at once than asked for, every task when nothing fails, and none
+ * of the remaining ones once something does.
+ */
+class ParallelPermutationsTest
+{
+    @Test
+    void runsEveryTaskWithinTheParallelismLimit() throws IOException
+    {
+        AtomicInteger active = new AtomicInteger();
+        AtomicInteger peak = new AtomicInteger();
+        AtomicInteger finished = new AtomicInteger();
+        List<Callable<Void>> tasks = new ArrayList<>();
+        for(int i = 0; i < 50; i++)
+        {
+            tasks.add(() -> {
+                peak.accumulateAndGet(active.incrementAndGet(), Math::max);
+                Thread.sleep(2);
+                active.decrementAndGet();
+                finished.incrementAndGet();
+                return null;
+            });
+        }
+
+        ParallelPermutations.invokeAll(tasks, 3);
+        assertEquals(50, finished.get());
+        assertTrue(peak.get() <= 3, "peak of " + peak.get() + " tasks at once");
+    }
+
+    @Test
+    void skipsRemainingTasksAfterTheFirstFailure()
+    {
+        IOException cause = new IOException("disk full");
+        AtomicInteger started = new AtomicInteger();
+        List<Callable<Void>> tasks = new ArrayList<>();
+        tasks.add(() -> {
+            started.incrementAndGet();
+            throw cause;
+        });
+        for(int i = 0; i < 100; i++)
+        {
+            tasks.add(() -> {
+                started.incrementAndGet();
+                Thread.sleep(5);
+                return null;
+            });
+        }
+
+        assertSame(cause, assertThrows(IOException.class, () -> ParallelPermutations.invokeAll(tasks, 2)));
+        assertTrue(started.get() <= 3, started.get() + " tasks started");
+    }
+
+    @Test
+    void rethrowsFailuresAsThrownByTheTask()
+    {
+        IOException io = new IOException("wrapped");
+        List<Callable<Void>> unchecked = new ArrayList<>();
+        unchecked.add(() -> { throw new UncheckedIOException(io); });
+        assertSame(io, assertThrows(IOException.class, () -> ParallelPermutations.invokeAll(unchecked, 4)));
+
+        IllegalStateException state = new IllegalStateException("bad state");
+        List<Callable<Void>> runtime = new ArrayList<>();
+        runtime.add(() -> { throw state; });
+        assertSame(state, assertThrows(IllegalStateException.class, () -> ParallelPermutations.invokeAll(runtime, 4)));
+    }
+}
@@ -0,0 +1,123 @@
+package com.michaelRunzler.ark;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.File;
+import java.io.IOException;
+import java.math.BigInteger;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Checks that sampling is reproducible for a given seed however many threads write the sample, and that distinct
+ * samples never repeat.
+ */
+class PermutationSamplerTest
+{
+    private static final String[] DICTIONARY = {"0", "1", "2", "3", "4", "5", "6", "7", "8", "9"};
+    private static final PermutationSink.Factory TEXT = (file, offset, header) -> new PermutationWriter(file, DICTIONARY, " ", offset);
+
+    @TempDir
+    File folder;
+
+    @Test
+    void sameSeedGivesSameSampleAtAnyParallelism() throws IOException
+    {
+        int[] sorted = {0, 1, 2, 3, 4, 5, 6, 7, 8, 9};
+        for(boolean distinct : new boolean[]{false, true})
+        {
+            // Large enough to span several chunks, so that segments are drawn from different generators
+            List<String> sequential = sample(SelectionMode.PERMUTATIONS, sorted, 0, 150000, 11, distinct, 1);
+            assertEquals(150000, sequential.size());
+            if(distinct) assertEquals(150000, new HashSet<>(sequential).size());
+            assertEquals(sequential, sample(SelectionMode.PERMUTATIONS, sorted, 0, 150000, 11, distinct, 4), "distinct " + distinct);
+            assertNotEquals(sequential, sample(SelectionMode.PERMUTATIONS, sorted, 0, 150000, 12, distinct, 1), "distinct " + distinct);
+        }
+
+        List<String> selections = sample(SelectionMode.K_PERMUTATIONS, sorted, 4, 3000, 5, true, 1);
+        assertEquals(selections, sample(SelectionMode.K_PERMUTATIONS, sorted, 4, 3000, 5, true, 3));
+    }
+
+    @Test
+    void distinctSamplesNeverRepeat() throws IOException
+    {
+        int[][] inputs = {{0, 1, 2, 3, 4, 5, 6}, {0, 0, 1, 1, 2, 3, 3, 3}, {0, 1, 2, 3, 4, 5, 6, 7, 8}};
+        for(SelectionMode mode : SelectionMode.values())
+            for(int[] sorted : inputs)
+            {
+                int k = mode == SelectionMode.PERMUTATIONS ? 0 : 4;
+                long total = Selections.count(mode, sorted, k).longValueExact();
+                Set<String> all = allSelections(mode, sorted, k);
+
+                // Both a small share of the space and the whole of it, which covers both ways of tracking draws
+                for(long count : new long[]{Math.max(1, total / 50), total})
+                {
+                    String label = mode + " " + count + " of " + Arrays.toString(sorted);
+                    List<String> lines = sample(mode, sorted, k, count, 3, true, 2);
+                    Set<String> unique = new HashSet<>(lines);
+
+                    assertEquals(count, lines.size(), label);
+                    assertEquals(count, unique.size(), label);
+                    assertTrue(all.containsAll(unique), label);
+                }
+            }
+    }
+
+    @Test
+    void samplesWithRepeatsAreValidSelections() throws IOException
+    {
+        int[] sorted = {0, 0, 1, 2, 2, 2, 3};
+        for(SelectionMode mode : SelectionMode.values())
+        {
+            int k = mode == SelectionMode.PERMUTATIONS ? 0 : 3;
+            Set<String> all = allSelections(mode, sorted, k);
+            List<String> lines = sample(mode, sorted, k, 5000, 9, false, 2);
+
+            assertEquals(5000, lines.size(), mode.name());
+            assertTrue(all.containsAll(lines), mode.name());
+            assertEquals(all, new HashSet<>(lines), mode + " should draw every selection from so small a space");
+        }
+    }
+
+    @Test
+    void tooManyDistinctSamplesAreRejected()
+    {
+        int[] sorted = {0, 0, 1, 2};
+        assertThrows(IllegalArgumentException.class, () -> sample(SelectionMode.PERMUTATIONS, sorted, 0, 13, 1, true, 1));
+        assertThrows(IllegalArgumentException.class, () -> sample(SelectionMode.COMBINATIONS, sorted, 2, 5, 1, true, 1));
+    }
+
+    private List<String> sample(SelectionMode mode, int[] sorted, int k, long count, long seed, boolean distinct,
+                                int parallelism) throws IOException
+    {
+        File output = File.createTempFile("sample", ".txt", folder);
+        List<File> files = PermutationSampler.write(mode, sorted, k, TEXT, output, count, seed, distinct, parallelism, false);
+        assertEquals(1, files.size());
+        return Files.readAllLines(files.get(0).toPath(), StandardCharsets.UTF_8);
+    }
+
+    // Lists every selection in the same text form that the sampler writes
+    private static Set<String> allSelections(SelectionMode mode, int[] sorted, int k)
+    {
+        Set<String> result = new HashSet<>();
+        PermutationSequence seq = Selections.sequence(mode, sorted, k, BigInteger.ZERO);
+        do {
+            List<String> entries = new ArrayList<>();
+            for(int v : seq.current()) entries.add(DICTIONARY[v]);
+            result.add(String.join(" ", entries));
+        } while(seq.next());
+
+        return result;
+    }
+}
@@ -0,0 +1,100 @@
+package com.michaelRunzler.ark;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Checks that the minimal-change orders visit every permutation once, one swap at a time, and report the swap that
+ * each step made.
+ */
+class PermutationSequenceTest
+{
+    @Test
+    void minimalChangeStepsSwapExactlyTheReportedPositions()
+    {
+        for(PermutationOrder order : new PermutationOrder[]{PermutationOrder.HEAP, PermutationOrder.SJT})
+        {
+            PermutationSequence seq = PermutationSequence.create(order, new int[]{0, 1, 2, 3, 4, 5});
+            assertEquals(-1, seq.swapA(), order.name());
+
+            Set<List<Integer>> seen = new HashSet<>();
+            int[] previous = seq.current().clone();
+            seen.add(box(previous));
+            while(seq.next())
+            {
+                int[] p = seq.current();
+                int a = seq.swapA();
+                int b = seq.swapB();
+                assertTrue(a >= 0 && a < b, order + " reported " + a + ", " + b);
+                for(int i = 0; i < p.length; i++)
+                    if(i != a && i != b) assertEquals(previous[i], p[i], order + " changed position " + i);
+                assertEquals(previous[a], p[b], order.name());
+                assertEquals(previous[b], p[a], order.name());
+                if(order == PermutationOrder.SJT) assertEquals(a + 1, b, "SJT swaps neighbours");
+
+                assertEquals(a, seq.unchangedPrefix(), order.name());
+                assertTrue(seen.add(box(p)), order + " repeated " + Arrays.toString(p));
+                previous = p.clone();
+            }
+
+            assertEquals(720, seen.size(), order.name());
+        }
+    }
+
+    @Test
+    void lexicographicStepsReportNoSwap()
+    {
+        PermutationSequence seq = PermutationSequence.create(PermutationOrder.LEXICOGRAPHIC, new int[]{0, 1, 1, 2});
+        int count = 1;
+        while(seq.next()) {
+            assertEquals(-1, seq.swapA());
+            assertEquals(-1, seq.swapB());
+            assertEquals(0, seq.unchangedPrefix());
+            count++;
+        }
+        assertEquals(12, count);
+    }
+
+    @Test
+    void deltaWriterHonoursUnchangedPrefixHints(@TempDir File folder) throws IOException
+    {
+        String[] dictionary = {"a", "b", "c", "d", "e", "f", "g"};
+        for(PermutationOrder order : new PermutationOrder[]{PermutationOrder.HEAP, PermutationOrder.SJT})
+        {
+            File file = new File(folder, order + ".prmd");
+            List<int[]> expected = new ArrayList<>();
+            PermutationSequence seq = PermutationSequence.create(order, new int[]{0, 1, 2, 3, 4, 5, 6});
+            try(PermutationSink out = new DeltaPermutationWriter(file, dictionary, " ", 0, true, null)) {
+                do {
+                    out.write(seq.current(), seq.unchangedPrefix());
+                    expected.add(seq.current().clone());
+                } while(seq.next());
+            }
+
+            try(DeltaPermutationReader in = new DeltaPermutationReader(file)) {
+                for(int[] p : expected) assertArrayEquals(p, in.next(), order.name());
+                assertNull(in.next(), order.name());
+            }
+        }
+    }
+
+    private static List<Integer> box(int[] p)
+    {
+        List<Integer> list = new ArrayList<>(p.length);
+        for(int v : p) list.add(v);
+        return list;
+    }
+}
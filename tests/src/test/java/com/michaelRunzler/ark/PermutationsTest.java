@@ -0,0 +1,92 @@
+package com.michaelRunzler.ark;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+/**
+ * Checks that the lazy permutation streams produce the same elements whether they are traversed sequentially or in
+ * parallel, since every element is an array or view that is reused in place.
+ */
+class PermutationsTest
+{
+    private static final Integer[] DICTIONARY = {0, 1, 2, 3, 4, 5, 6, 7, 8, 9, 10, 11, 12, 13, 14, 15};
+
+    @Test
+    void parallelLexicographicMatchesSequentialInOrder()
+    {
+        int[] sorted = {0, 1, 2, 3, 4, 5, 6, 7};
+        List<List<Integer>> sequential = collect(sorted, PermutationOrder.LEXICOGRAPHIC, false);
+        assertEquals(40320, sequential.size());
+        assertEquals(sequential, collect(sorted, PermutationOrder.LEXICOGRAPHIC, true));
+    }
+
+    @Test
+    void parallelMinimalChangeOrdersMatchSequential()
+    {
+        int[] sorted = {0, 1, 2, 3, 4, 5, 6, 7};
+        for(PermutationOrder order : new PermutationOrder[]{PermutationOrder.HEAP, PermutationOrder.SJT})
+        {
+            List<List<Integer>> sequential = collect(sorted, order, false);
+            assertEquals(40320, new HashSet<>(sequential).size(), order.name());
+            assertEquals(sequential, collect(sorted, order, true), order.name());
+        }
+    }
+
+    @Test
+    void parallelSelectionsMatchSequentialInOrder()
+    {
+        int[] distinct = {0, 1, 2, 3, 4, 5, 6, 7, 8, 9};
+        checkSelections(distinct, SelectionMode.K_PERMUTATIONS, 5, 30240);
+        checkSelections(new int[]{0, 1, 2, 3, 4, 5, 6, 7}, SelectionMode.K_PERMUTATIONS, 4, 1680);
+
+        int[] sixteen = new int[16];
+        for(int i = 0; i < sixteen.length; i++) sixteen[i] = i;
+        checkSelections(sixteen, SelectionMode.COMBINATIONS, 8, 12870);
+
+        int[] multiset = {0, 0, 1, 1, 2, 2, 3, 3, 4, 4, 5, 5};
+        long kperms = Selections.count(SelectionMode.K_PERMUTATIONS, multiset, 6).longValue();
+        checkSelections(multiset, SelectionMode.K_PERMUTATIONS, 6, kperms);
+    }
+
+    @Test
+    void primitiveStreamsMatchSequentialInOrder()
+    {
+        int[] values = {5, -3, 5, 12, 7, 7, 0, 9};
+        List<List<Integer>> sequential = Permutations.stream(values, false).map(PermutationsTest::box).collect(Collectors.toList());
+        assertEquals(Permutator.countPermutations(new int[]{0, 0, 1, 2, 3, 3, 4, 5}).intValue(), sequential.size());
+        assertEquals(sequential, Permutations.stream(values, true).map(PermutationsTest::box).collect(Collectors.toList()));
+    }
+
+    private static void checkSelections(int[] sorted, SelectionMode mode, int k, long expected)
+    {
+        List<List<Integer>> sequential = Permutations.stream(DICTIONARY, sorted, mode, k).map(ArrayList::new)
+                .collect(Collectors.toList());
+        assertEquals(expected, sequential.size(), mode + " of " + Arrays.toString(sorted));
+        Set<List<Integer>> unique = new HashSet<>(sequential);
+        assertEquals(expected, unique.size(), mode + " of " + Arrays.toString(sorted));
+
+        List<List<Integer>> parallel = Permutations.stream(DICTIONARY, sorted, mode, k).parallel().map(ArrayList::new)
+                .collect(Collectors.toList());
+        assertEquals(sequential, parallel, mode + " of " + Arrays.toString(sorted));
+    }
+
+    private static List<List<Integer>> collect(int[] sorted, PermutationOrder order, boolean parallel)
+    {
+        return Permutations.stream(DICTIONARY, sorted, order, parallel).map(ArrayList::new).collect(Collectors.toList());
+    }
+
+    private static List<Integer> box(int[] p)
+    {
+        List<Integer> list = new ArrayList<>(p.length);
+        for(int v : p) list.add(v);
+        return list;
+    }
+}
@@ -0,0 +1,112 @@
+package com.michaelRunzler.ark;
+
+import org.junit.jupiter.api.Test;
+
+import java.math.BigInteger;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+/**
+ * Checks the Lehmer-code rank and unrank functions against plain lexicographical enumeration, for both distinct and
+ * repeated entries.
+ */
+class PermutatorRankTest
+{
+    @Test
+    void unrankVisitsEveryPermutationInLexicographicalOrder()
+    {
+        for(int n = 0; n <= 7; n++)
+        {
+            int[] p = identity(n);
+            long count = Permutator.factorial(n);
+            for(long i = 0; i < count; i++)
+            {
+                assertArrayEquals(p, Permutator.unrank(i, n), n + "P" + n + " rank " + i);
+                assertArrayEquals(p, Permutator.unrank(BigInteger.valueOf(i), n), n + "P" + n + " rank " + i);
+                assertEquals(i, Permutator.rank(p));
+                assertEquals(BigInteger.valueOf(i), Permutator.rankBig(p));
+                if(i < count - 1) Permutator.nextPermutation(p);
+            }
+            assertFalse(Permutator.nextPermutation(p));
+        }
+    }
+
+    @Test
+    void rankInvertsUnrankBeyondLongRange()
+    {
+        Random random = new Random(42);
+        for(int n : new int[]{20, 21, 30, 64})
+        {
+            BigInteger total = Permutator.factorialBig(n);
+            for(int t = 0; t < 200; t++)
+            {
+                BigInteger rank = new BigInteger(total.bitLength() + 8, random).mod(total);
+                assertEquals(rank, Permutator.rankBig(Permutator.unrank(rank, n)), n + " entries");
+            }
+            assertEquals(total.subtract(BigInteger.ONE), Permutator.rankBig(descending(n)));
+        }
+
+        // The long overloads agree with the arbitrary-precision ones right up to 20!
+        long last = Permutator.factorial(20) - 1;
+        assertArrayEquals(descending(20), Permutator.unrank(last, 20));
+        assertEquals(last, Permutator.rank(descending(20)));
+        assertThrows(IllegalArgumentException.class, () -> Permutator.unrank(last + 1, 20));
+        assertThrows(ArithmeticException.class, () -> Permutator.rank(descending(21)));
+    }
+
+    @Test
+    void multisetUnrankMatchesEnumeration()
+    {
+        int[][] multisets = {
+                {0, 0, 1, 1},
+                {0, 0, 0, 1, 2, 2},
+                {0, 1, 1, 2, 2, 2, 3},
+                {0, 0, 0, 0},
+                {3, 3, 5, 7, 7, 7, 9, 9}
+        };
+
+        for(int[] sorted : multisets)
+        {
+            BigInteger count = Permutator.countPermutations(sorted);
+            int[] p = sorted.clone();
+            long visited = 0;
+            do {
+                BigInteger rank = BigInteger.valueOf(visited);
+                assertArrayEquals(p, Permutator.unrank(rank, sorted), "rank " + visited);
+                assertEquals(rank, Permutator.rankBig(p));
+                assertEquals(visited, Permutator.rank(p));
+                visited++;
+            } while(Permutator.nextPermutation(p));
+
+            assertEquals(count, BigInteger.valueOf(visited));
+            assertThrows(IllegalArgumentException.class, () -> Permutator.unrank(count, sorted));
+        }
+    }
+
+    @Test
+    void countPermutationsIsTheMultinomialCoefficient()
+    {
+        assertEquals(BigInteger.ONE, Permutator.countPermutations(new int[0]));
+        assertEquals(BigInteger.valueOf(6), Permutator.countPermutations(new int[]{1, 0, 1, 0}));
+        assertEquals(BigInteger.valueOf(420), Permutator.countPermutations(new int[]{2, 0, 1, 2, 0, 2, 3}));
+        assertEquals(Permutator.factorialBig(25), Permutator.countPermutations(identity(25)));
+    }
+
+    private static int[] identity(int n)
+    {
+        int[] p = new int[n];
+        for(int i = 0; i < n; i++) p[i] = i;
+        return p;
+    }
+
+    private static int[] descending(int n)
+    {
+        int[] p = new int[n];
+        for(int i = 0; i < n; i++) p[i] = n - 1 - i;
+        return p;
+    }
+}
@@ -0,0 +1,76 @@
+package com.michaelRunzler.ark;
+
+import com.michaelRunzler.ark.Permutators.AudioPermutator;
+import com.michaelRunzler.ark.Permutators.CharPermutator;
+import com.michaelRunzler.ark.Permutators.StringPermutator;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.File;
+import java.io.IOException;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Checks that only jobs which keep checkpoints accept {@link Permutator#resume}, and that the others refuse it before
+ * writing anything.
+ */
+class ResumeTest
+{
+    private static final String[] INPUTS = {"a", "b", "c", "d"};
+
+    @Test
+    void onlySequentialLexicographicJobsAreResumable()
+    {
+        assertTrue(new StringPermutator().resumable());
+        assertTrue(new CharPermutator().resumable());
+        assertFalse(new AudioPermutator().resumable());
+
+        StringPermutator parallel = new StringPermutator();
+        parallel.parallelism = 4;
+        assertFalse(parallel.resumable());
+
+        StringPermutator sampled = new StringPermutator();
+        sampled.sampleSize = 5;
+        assertFalse(sampled.resumable());
+
+        StringPermutator constrained = new StringPermutator();
+        constrained.constraints = Constraints.parse("a<b");
+        assertFalse(constrained.resumable());
+
+        StringPermutator heap = new StringPermutator();
+        heap.order = PermutationOrder.HEAP;
+        assertFalse(heap.resumable());
+
+        StringPermutator mapped = new StringPermutator();
+        mapped.mapped = true;
+        assertFalse(mapped.resumable());
+
+        StringPermutator selection = new StringPermutator();
+        selection.selection = SelectionMode.COMBINATIONS;
+        assertTrue(selection.resumable());
+    }
+
+    @Test
+    void unresumableJobsRefuseResumeBeforeWriting(@TempDir File folder)
+    {
+        StringPermutator perm = new StringPermutator();
+        perm.parallelism = 4;
+        perm.resume = true;
+        assertThrows(UnsupportedOperationException.class, () -> perm.permuteAll(INPUTS, folder));
+        assertThrows(UnsupportedOperationException.class, () -> perm.estimate(INPUTS, folder, 0));
+        assertEquals(0, folder.list().length);
+    }
+
+    @Test
+    void resumableJobsRunWithResumeSet(@TempDir File folder) throws IOException
+    {
+        StringPermutator perm = new StringPermutator();
+        perm.resume = true;
+        perm.permuteAll(INPUTS, folder);
+        assertEquals(24, perm.metrics.getPermutationsEmitted());
+    }
+}
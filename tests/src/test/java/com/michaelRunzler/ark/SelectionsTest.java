@@ -0,0 +1,146 @@
+package com.michaelRunzler.ark;
+
+import org.junit.jupiter.api.Test;
+
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.TreeSet;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Checks the k-permutation and combination successor, unrank and count functions against selections collected by
+ * brute force from the prefixes of every full permutation.
+ */
+class SelectionsTest
+{
+    private static final int[][] INPUTS = {
+            {0, 1, 2, 3, 4, 5},
+            {0, 0, 1, 2, 2, 2, 3},
+            {0, 0, 0, 0},
+            {0, 1, 1, 2, 3, 3}
+    };
+
+    private static final SelectionMode[] MODES = {SelectionMode.K_PERMUTATIONS, SelectionMode.COMBINATIONS};
+
+    @Test
+    void nextVisitsEverySelectionInLexicographicalOrder()
+    {
+        for(SelectionMode mode : MODES)
+            for(int[] sorted : INPUTS)
+                for(int k = 1; k <= sorted.length; k++)
+                {
+                    String label = mode + " k=" + k + " of " + Arrays.toString(sorted);
+                    List<List<Integer>> expected = bruteForce(mode, sorted, k);
+
+                    List<List<Integer>> actual = new ArrayList<>();
+                    int[] a = Selections.unrank(mode, BigInteger.ZERO, sorted, k);
+                    int[] scratch = new int[sorted.length];
+                    do {
+                        actual.add(selection(a, k));
+                        assertTrue(ascending(a, k), label + " unselected tail");
+                    } while(Selections.next(mode, a, k, scratch) && actual.size() <= expected.size());
+
+                    assertEquals(expected, actual, label);
+                }
+    }
+
+    @Test
+    void unrankAndCountMatchBruteForce()
+    {
+        for(SelectionMode mode : MODES)
+            for(int[] sorted : INPUTS)
+                for(int k = 0; k <= sorted.length + 1; k++)
+                {
+                    String label = mode + " k=" + k + " of " + Arrays.toString(sorted);
+                    List<List<Integer>> expected = bruteForce(mode, sorted, k);
+                    BigInteger count = Selections.count(mode, sorted, k);
+                    assertEquals(BigInteger.valueOf(expected.size()), count, label);
+
+                    for(int i = 0; i < expected.size(); i++)
+                    {
+                        int[] a = Selections.unrank(mode, BigInteger.valueOf(i), sorted, k);
+                        assertEquals(expected.get(i), selection(a, k), label + " rank " + i);
+                        int[] all = a.clone();
+                        Arrays.sort(all);
+                        assertTrue(Arrays.equals(sorted, all), label + " rank " + i + " keeps every entry");
+                    }
+
+                    int size = k;
+                    assertThrows(IllegalArgumentException.class, () -> Selections.unrank(mode, count, sorted, size), label);
+
+                    // Each value appears as often as the brute-force selections hold it
+                    for(int v = 0; v <= sorted[sorted.length - 1]; v++)
+                    {
+                        long appearances = 0;
+                        for(List<Integer> s : expected) appearances += Collections.frequency(s, v);
+                        assertEquals(BigInteger.valueOf(appearances), Selections.occurrences(mode, sorted, k, v), label + " value " + v);
+                    }
+                }
+    }
+
+    @Test
+    void sequenceStartsAtAnyRank()
+    {
+        int[] sorted = {0, 0, 1, 2, 2, 3, 4};
+        for(SelectionMode mode : MODES)
+        {
+            List<List<Integer>> expected = bruteForce(mode, sorted, 4);
+            for(int start = 0; start < expected.size(); start += 7)
+            {
+                PermutationSequence seq = Selections.sequence(mode, sorted, 4, BigInteger.valueOf(start));
+                List<List<Integer>> actual = new ArrayList<>();
+                do actual.add(selection(seq.current(), 4));
+                while(seq.next());
+
+                assertEquals(expected.subList(start, expected.size()), actual, mode + " from " + start);
+                assertFalse(seq.next());
+            }
+        }
+    }
+
+    // Collects the distinct k-entry prefixes of every permutation, sorting each one first for combinations
+    private static List<List<Integer>> bruteForce(SelectionMode mode, int[] sorted, int k)
+    {
+        TreeSet<List<Integer>> result = new TreeSet<>(SelectionsTest::compare);
+        if(k > sorted.length) return new ArrayList<>(result);
+
+        int[] p = sorted.clone();
+        do {
+            List<Integer> s = selection(p, k);
+            if(mode == SelectionMode.COMBINATIONS) Collections.sort(s);
+            result.add(s);
+        } while(Permutator.nextPermutation(p));
+
+        return new ArrayList<>(result);
+    }
+
+    private static int compare(List<Integer> a, List<Integer> b)
+    {
+        for(int i = 0; i < Math.min(a.size(), b.size()); i++) {
+            int c = Integer.compare(a.get(i), b.get(i));
+            if(c != 0) return c;
+        }
+        return Integer.compare(a.size(), b.size());
+    }
+
+    private static List<Integer> selection(int[] a, int k)
+    {
+        List<Integer> s = new ArrayList<>(k);
+        for(int i = 0; i < k; i++) s.add(a[i]);
+        return s;
+    }
+
+    private static boolean ascending(int[] a, int from)
+    {
+        for(int i = from + 1; i < a.length; i++)
+            if(a[i] < a[i - 1]) return false;
+        return true;
+    }
+}